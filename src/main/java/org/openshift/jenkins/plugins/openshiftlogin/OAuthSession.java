@@ -27,7 +27,6 @@ package org.openshift.jenkins.plugins.openshiftlogin;
 import com.google.api.client.auth.oauth2.AuthorizationCodeFlow;
 import com.google.api.client.auth.oauth2.AuthorizationCodeRequestUrl;
 import com.google.api.client.auth.oauth2.AuthorizationCodeResponseUrl;
-import com.google.api.client.auth.oauth2.Credential;
 
 import hudson.EnvVars;
 import hudson.remoting.Base64;
@@ -41,10 +40,14 @@ import org.kohsuke.stapler.StaplerRequest;
 import java.io.IOException;
 import java.util.UUID;
 
+import javax.servlet.http.HttpSession;
+
 /**
  * The state of the OAuth request.
  *
- * Verifies the validity of the response by comparing the state.
+ * Verifies the validity of the response by comparing the state. Lives in the
+ * HTTP session only while the login is in progress; see
+ * {@link #completeLogin(OpenShiftSessionState)}.
  */
 public abstract class OAuthSession {
     private static final String OPENSHIFT_ENABLE_REDIRECT_PROMPT = "OPENSHIFT_ENABLE_REDIRECT_PROMPT";
@@ -61,16 +64,6 @@ public abstract class OAuthSession {
      */
     private final String redirectUrl;
 
-    private Credential credential;
-
-    public Credential getCredential() {
-        return credential;
-    }
-
-    public void setCredential(Credential cred) {
-        credential = cred;
-    }
-
     public OAuthSession(AuthorizationCodeFlow flow, String from,
             String redirectUrl) {
         this.flow = flow;
@@ -130,6 +123,30 @@ public abstract class OAuthSession {
         }
     }
 
+    AuthorizationCodeFlow getFlow() {
+        return flow;
+    }
+
+    String getRedirectUrl() {
+        return redirectUrl;
+    }
+
+    /**
+     * Swaps this object, and with it the flow and everything the flow holds,
+     * for the much smaller post-login state in the HTTP session.
+     */
+    protected void completeLogin(OpenShiftSessionState state) {
+        StaplerRequest request = Stapler.getCurrentRequest();
+        if (request == null)
+            return;
+        completeLogin(request.getSession(), state);
+    }
+
+    static void completeLogin(HttpSession session, OpenShiftSessionState state) {
+        session.setAttribute(OpenShiftSessionState.SESSION_NAME, state);
+        session.removeAttribute(SESSION_NAME);
+    }
+
     /**
      * Where was the user trying to navigate to when they had to login?
      *
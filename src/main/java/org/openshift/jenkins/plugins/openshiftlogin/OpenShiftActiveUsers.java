@@ -0,0 +1,149 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.openshift.jenkins.plugins.openshiftlogin;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.acegisecurity.providers.UsernamePasswordAuthenticationToken;
+
+/**
+ * The OpenShift users seen recently, with the last role decision made for
+ * each, so that {@link OpenShiftPermissionScheduler} can revalidate all of
+ * them off the request path.
+ */
+public class OpenShiftActiveUsers {
+
+    /**
+     * One user's identity and latest decision; a null token means none of
+     * the OpenShift roles were granted.
+     */
+    static class Record {
+        // the freshest identity, e.g. with updated groups
+        volatile OpenShiftUserInfo info;
+        // in [0, 1), spreads this user's revalidations over the jitter
+        // window; see OpenShiftPermissionScheduler
+        final double jitter;
+        // set while a revalidation is queued or running
+        final AtomicBoolean scheduled = new AtomicBoolean();
+        volatile long lastSeen;
+        volatile long decidedAt;
+        volatile UsernamePasswordAuthenticationToken token;
+
+        Record(OpenShiftUserInfo info, double jitter) {
+            this.info = info;
+            this.jitter = jitter;
+        }
+    }
+
+    private static final ConcurrentMap<String, Record> USERS = new ConcurrentHashMap<String, Record>();
+    private static final Random RANDOM = new Random();
+
+    private OpenShiftActiveUsers() {
+    }
+
+    /**
+     * Records a role decision, however it was made, and marks the user as
+     * active.
+     */
+    static void recordDecision(OpenShiftUserInfo info,
+            UsernamePasswordAuthenticationToken token) {
+        String name = info.getName();
+        if (name == null)
+            return;
+        Record record = USERS.get(name);
+        if (record == null) {
+            record = new Record(info, RANDOM.nextDouble());
+            Record raced = USERS.putIfAbsent(name, record);
+            if (raced != null)
+                record = raced;
+        }
+        // updated in place, so a revalidation still queued for the user
+        // keeps them marked as scheduled; if two threads race here, either
+        // one's identity is fine
+        record.info = info;
+        long now = System.currentTimeMillis();
+        record.token = token;
+        record.decidedAt = now;
+        record.lastSeen = now;
+    }
+
+    /**
+     * Marks the user as active, so the sweep keeps revalidating them.
+     */
+    static void seen(String name) {
+        if (name == null)
+            return;
+        Record record = USERS.get(name);
+        if (record != null)
+            record.lastSeen = System.currentTimeMillis();
+    }
+
+    /**
+     * @return the user's record if a decision was made for them within the
+     *         given age, otherwise null
+     */
+    static Record getDecision(String name, long maxAgeMillis) {
+        if (name == null)
+            return null;
+        Record record = USERS.get(name);
+        if (record == null
+                || System.currentTimeMillis() - record.decidedAt > maxAgeMillis)
+            return null;
+        return record;
+    }
+
+    /**
+     * Forgets users not seen within the given time, and returns the rest.
+     */
+    static List<Record> active(long idleMillis) {
+        long now = System.currentTimeMillis();
+        List<Record> active = new ArrayList<Record>();
+        Iterator<Record> i = USERS.values().iterator();
+        while (i.hasNext()) {
+            Record record = i.next();
+            if (now - record.lastSeen > idleMillis)
+                i.remove();
+            else
+                active.add(record);
+        }
+        return active;
+    }
+
+    static int size() {
+        return USERS.size();
+    }
+
+    /**
+     * Exposed for testing.
+     */
+    static void clear() {
+        USERS.clear();
+    }
+}
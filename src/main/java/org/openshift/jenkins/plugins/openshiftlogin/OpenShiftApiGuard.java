@@ -0,0 +1,268 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.openshift.jenkins.plugins.openshiftlogin;
+
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpResponseException;
+
+/**
+ * Resilience layer around the realm's calls to the OpenShift API server: a
+ * bulkhead bounding how many request threads can be waiting on the master at
+ * once, a deadline on every call, and a circuit breaker that fails calls fast
+ * once the master has failed several times in a row.
+ *
+ * Only transport failures and 5xx responses count against the breaker; a 401
+ * for a bad token means the master is perfectly healthy. Once open, only the
+ * single probe let through in HALF_OPEN decides whether the breaker closes
+ * again; calls that started before it opened cannot close it on completion.
+ */
+public class OpenShiftApiGuard {
+
+    static final String OPENSHIFT_API_MAX_CONCURRENT_CALLS = "OPENSHIFT_API_MAX_CONCURRENT_CALLS";
+    static final String OPENSHIFT_API_CALL_TIMEOUT = "OPENSHIFT_API_CALL_TIMEOUT"; // seconds
+    static final String OPENSHIFT_API_FAILURE_THRESHOLD = "OPENSHIFT_API_FAILURE_THRESHOLD";
+    static final String OPENSHIFT_API_CIRCUIT_OPEN_INTERVAL = "OPENSHIFT_API_CIRCUIT_OPEN_INTERVAL"; // seconds
+
+    static final int DEFAULT_MAX_CONCURRENT_CALLS = 20;
+    static final long DEFAULT_CALL_TIMEOUT = 10;
+    static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    static final long DEFAULT_CIRCUIT_OPEN_INTERVAL = 30;
+
+    // how long a caller waits for a bulkhead slot before giving up
+    private static final long BULKHEAD_WAIT_MILLIS = 500;
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private static volatile OpenShiftApiGuard instance;
+
+    private final Semaphore bulkhead;
+    private final int maxConcurrentCalls;
+    private final int timeoutMillis;
+    private final int failureThreshold;
+    private final long openMillis;
+
+    // breaker state, guarded by this
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean trialInFlight;
+
+    private final AtomicLong bulkheadRejections = new AtomicLong();
+    private final AtomicLong circuitRejections = new AtomicLong();
+    private final AtomicLong circuitOpened = new AtomicLong();
+
+    public OpenShiftApiGuard(int maxConcurrentCalls, int timeoutMillis,
+            int failureThreshold, long openMillis) {
+        this.maxConcurrentCalls = maxConcurrentCalls;
+        this.bulkhead = new Semaphore(maxConcurrentCalls, true);
+        this.timeoutMillis = timeoutMillis;
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    public static OpenShiftApiGuard getInstance() {
+        if (instance == null) {
+            synchronized (OpenShiftApiGuard.class) {
+                if (instance == null) {
+                    instance = new OpenShiftApiGuard(
+                            OpenShiftEnvVars.getInt(
+                                    OPENSHIFT_API_MAX_CONCURRENT_CALLS,
+                                    DEFAULT_MAX_CONCURRENT_CALLS),
+                            (int) Math.min(Integer.MAX_VALUE,
+                                    TimeUnit.SECONDS.toMillis(OpenShiftEnvVars
+                                            .getLong(OPENSHIFT_API_CALL_TIMEOUT,
+                                                    DEFAULT_CALL_TIMEOUT))),
+                            OpenShiftEnvVars.getInt(
+                                    OPENSHIFT_API_FAILURE_THRESHOLD,
+                                    DEFAULT_FAILURE_THRESHOLD),
+                            TimeUnit.SECONDS.toMillis(OpenShiftEnvVars.getLong(
+                                    OPENSHIFT_API_CIRCUIT_OPEN_INTERVAL,
+                                    DEFAULT_CIRCUIT_OPEN_INTERVAL)));
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Exposed for testing.
+     */
+    static void setInstance(OpenShiftApiGuard guard) {
+        instance = guard;
+    }
+
+    /**
+     * Applies the per call deadline to requests built outside of
+     * {@link #execute(HttpRequest)}, such as the OAuth token exchange.
+     */
+    public HttpRequestInitializer getTimeoutInitializer() {
+        return new HttpRequestInitializer() {
+            public void initialize(HttpRequest request) throws IOException {
+                request.setConnectTimeout(timeoutMillis);
+                request.setReadTimeout(timeoutMillis);
+            }
+        };
+    }
+
+    /**
+     * Executes the request if the breaker and bulkhead allow it.
+     *
+     * @throws OpenShiftApiUnavailableException
+     *             if the call was not attempted
+     */
+    public HttpResponse execute(HttpRequest request) throws IOException {
+        boolean probe = acquire();
+        boolean healthy = false;
+        try {
+            request.setConnectTimeout(timeoutMillis);
+            request.setReadTimeout(timeoutMillis);
+            HttpResponse response = request.execute();
+            healthy = true;
+            return response;
+        } catch (HttpResponseException e) {
+            healthy = e.getStatusCode() < 500;
+            throw e;
+        } finally {
+            release(probe, healthy);
+        }
+    }
+
+    /**
+     * Claims a slot for a call; every successful acquire must be paired with
+     * a {@link #release(boolean, boolean)}.
+     *
+     * @return true if this call is the HALF_OPEN probe, to be handed back to
+     *         release
+     */
+    public boolean acquire() throws OpenShiftApiUnavailableException {
+        boolean probe = false;
+        synchronized (this) {
+            if (state == State.OPEN) {
+                if (System.currentTimeMillis() - openedAt < openMillis) {
+                    circuitRejections.incrementAndGet();
+                    throw new OpenShiftApiUnavailableException(
+                            "OpenShift API circuit breaker is open");
+                }
+                state = State.HALF_OPEN;
+                trialInFlight = false;
+            }
+            if (state == State.HALF_OPEN) {
+                if (trialInFlight) {
+                    circuitRejections.incrementAndGet();
+                    throw new OpenShiftApiUnavailableException(
+                            "OpenShift API circuit breaker is probing the master");
+                }
+                trialInFlight = true;
+                probe = true;
+            }
+        }
+        boolean acquired = false;
+        try {
+            acquired = bulkhead.tryAcquire(BULKHEAD_WAIT_MILLIS,
+                    TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!acquired) {
+            synchronized (this) {
+                if (probe && state == State.HALF_OPEN)
+                    trialInFlight = false;
+            }
+            bulkheadRejections.incrementAndGet();
+            throw new OpenShiftApiUnavailableException(
+                    "too many concurrent calls to the OpenShift API");
+        }
+        return probe;
+    }
+
+    /**
+     * @param probe
+     *            what {@link #acquire()} returned for this call
+     */
+    public void release(boolean probe, boolean healthy) {
+        bulkhead.release();
+        synchronized (this) {
+            if (!probe && state != State.CLOSED) {
+                // a straggler from before the breaker opened; only the probe
+                // gets to move it
+                return;
+            }
+            if (healthy) {
+                consecutiveFailures = 0;
+                if (state != State.CLOSED) {
+                    OpenShiftOAuth2SecurityRealm.LOGGER
+                            .info("OpenShift OAuth: API server healthy again, closing circuit breaker");
+                }
+                state = State.CLOSED;
+                trialInFlight = false;
+            } else {
+                consecutiveFailures++;
+                if (probe
+                        || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+                    state = State.OPEN;
+                    openedAt = System.currentTimeMillis();
+                    trialInFlight = false;
+                    circuitOpened.incrementAndGet();
+                    OpenShiftOAuth2SecurityRealm.LOGGER.log(Level.WARNING,
+                            "OpenShift OAuth: {0} consecutive API failures, opening circuit breaker for {1} ms",
+                            new Object[] { consecutiveFailures, openMillis });
+                }
+            }
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public boolean isOpen() {
+        return getState() == State.OPEN;
+    }
+
+    public int getInFlight() {
+        return maxConcurrentCalls - bulkhead.availablePermits();
+    }
+
+    public long getBulkheadRejections() {
+        return bulkheadRejections.get();
+    }
+
+    public long getCircuitRejections() {
+        return circuitRejections.get();
+    }
+
+    public long getCircuitOpened() {
+        return circuitOpened.get();
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.openshift.jenkins.plugins.openshiftlogin;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.client.http.HttpTransport;
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+
+/**
+ * The realm's calls to the OpenShift API server as {@link ListenableFuture}s,
+ * so independent calls, such as the SAR for each role, are in flight at the
+ * same time and callers can compose on the results instead of making one
+ * round trip after another.
+ *
+ * The calls themselves still block, on the shared, bounded
+ * {@link OpenShiftExecutors#api()} pool; it runs work on the submitting
+ * thread when saturated, so a burst slows down rather than fails. Callers
+ * that need an answer before going on wait with
+ * {@link OpenShiftExecutors#await(java.util.concurrent.Future)}.
+ */
+public class OpenShiftAsyncClient {
+
+    private final OpenShiftOAuth2SecurityRealm realm;
+    private final ListeningExecutorService executor;
+
+    OpenShiftAsyncClient(OpenShiftOAuth2SecurityRealm realm,
+            ExecutorService executor) {
+        this.realm = realm;
+        this.executor = MoreExecutors.listeningDecorator(executor);
+    }
+
+    public ListenableFuture<OpenShiftUserInfo> getUserInfo(
+            final Credential credential, final HttpTransport transport) {
+        return executor.submit(new Callable<OpenShiftUserInfo>() {
+            public OpenShiftUserInfo call() throws Exception {
+                return realm.getOpenShiftUserInfo(credential, transport);
+            }
+        });
+    }
+
+    public ListenableFuture<OpenShiftProviderInfo> getOAuthProvider(
+            final Credential credential, final HttpTransport transport) {
+        return executor.submit(new Callable<OpenShiftProviderInfo>() {
+            public OpenShiftProviderInfo call() throws Exception {
+                return realm.getOpenShiftOAuthProvider(credential, transport);
+            }
+        });
+    }
+
+    /**
+     * @param subject
+     *            the user to evaluate the SAR for, or null for the owner of
+     *            the credential
+     * @return whether the verb is allowed
+     */
+    public ListenableFuture<Boolean> isAllowed(final Credential credential,
+            final HttpTransport transport, final String verb,
+            final OpenShiftUserInfo subject) {
+        return executor.submit(new Callable<Boolean>() {
+            public Boolean call() throws Exception {
+                return realm.isAllowed(credential, transport, verb, subject);
+            }
+        });
+    }
+
+    /**
+     * Like {@link #isAllowed(Credential, HttpTransport, String, OpenShiftUserInfo)}
+     * but in the given namespace rather than the one Jenkins runs in.
+     */
+    public ListenableFuture<Boolean> isAllowed(final Credential credential,
+            final HttpTransport transport, final String namespace,
+            final String verb, final OpenShiftUserInfo subject) {
+        return executor.submit(new Callable<Boolean>() {
+            public Boolean call() throws Exception {
+                return realm.isAllowed(credential, transport, namespace, verb,
+                        subject);
+            }
+        });
+    }
+
+    /**
+     * Runs the SAR for each of the verbs at once.
+     *
+     * @return the verbs that are allowed; fails if any of the SARs does
+     */
+    public ListenableFuture<Set<String>> getAllowedVerbs(
+            Credential credential, HttpTransport transport,
+            final String[] verbs, OpenShiftUserInfo subject) {
+        return getAllowedVerbs(credential, transport, null, verbs, subject);
+    }
+
+    /**
+     * Runs the SAR for each of the verbs at once in the given namespace, or
+     * the one Jenkins runs in if null.
+     *
+     * @return the verbs that are allowed; fails if any of the SARs does
+     */
+    public ListenableFuture<Set<String>> getAllowedVerbs(
+            Credential credential, HttpTransport transport, String namespace,
+            final String[] verbs, OpenShiftUserInfo subject) {
+        List<ListenableFuture<Boolean>> reviews = new ArrayList<ListenableFuture<Boolean>>(
+                verbs.length);
+        for (String verb : verbs) {
+            reviews.add(namespace != null ? isAllowed(credential, transport,
+                    namespace, verb, subject) : isAllowed(credential,
+                    transport, verb, subject));
+        }
+        return Futures.transform(Futures.allAsList(reviews),
+                new Function<List<Boolean>, Set<String>>() {
+                    public Set<String> apply(List<Boolean> allowed) {
+                        Set<String> verbsAllowed = new HashSet<String>();
+                        for (int i = 0; i < verbs.length; i++) {
+                            if (Boolean.TRUE.equals(allowed.get(i)))
+                                verbsAllowed.add(verbs[i]);
+                        }
+                        return verbsAllowed;
+                    }
+                });
+    }
+}
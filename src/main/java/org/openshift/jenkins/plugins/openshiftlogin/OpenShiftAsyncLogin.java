@@ -0,0 +1,244 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.openshift.jenkins.plugins.openshiftlogin;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+import org.acegisecurity.context.HttpSessionContextIntegrationFilter;
+import org.acegisecurity.context.SecurityContext;
+import org.acegisecurity.context.SecurityContextHolder;
+import org.acegisecurity.context.SecurityContextImpl;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import com.google.api.client.auth.oauth2.AuthorizationCodeFlow;
+
+/**
+ * With OPENSHIFT_ASYNC_LOGIN=true, the rest of a login once the user is back
+ * from OpenShift (the token exchange, users/~, the SARs and any matrix
+ * update) runs on a dedicated pool of OPENSHIFT_LOGIN_THREADS threads while
+ * the request is suspended, so a wave of logins after a restart does not
+ * take every Jetty thread. Up to OPENSHIFT_LOGIN_QUEUE logins wait for a
+ * thread; beyond that the user gets a 503 and can reload the page, as the
+ * authorization code has not been used yet.
+ *
+ * Servlet 3 async support is looked up reflectively, since the servlet API
+ * we compile against predates it; without it, or if the container refuses,
+ * the login runs on the request thread as before.
+ */
+public class OpenShiftAsyncLogin implements HttpResponse {
+
+    static final String OPENSHIFT_ASYNC_LOGIN = "OPENSHIFT_ASYNC_LOGIN";
+    private static final String OPENSHIFT_LOGIN_THREADS = "OPENSHIFT_LOGIN_THREADS";
+    private static final int DEFAULT_LOGIN_THREADS = 8;
+    private static final String OPENSHIFT_LOGIN_QUEUE = "OPENSHIFT_LOGIN_QUEUE";
+    private static final int DEFAULT_LOGIN_QUEUE = 200;
+    private static final long ASYNC_TIMEOUT = TimeUnit.MINUTES.toMillis(2);
+    private static final String RETRY_AFTER_SECONDS = "5";
+    private static final String BUSY = "\nToo many logins are in progress, please reload this page shortly.\n";
+    // the details can include upstream URLs and OAuth error bodies, so they
+    // only go to the log
+    private static final String FAILED = "\nThe OpenShift login could not be completed, please try again.\n";
+
+    private static final Method IS_ASYNC_SUPPORTED = method(
+            ServletRequest.class.getName(), "isAsyncSupported");
+    private static final Method START_ASYNC = method(
+            ServletRequest.class.getName(), "startAsync");
+    private static final Method SET_TIMEOUT = method(
+            "javax.servlet.AsyncContext", "setTimeout", long.class);
+    private static final Method GET_RESPONSE = method(
+            "javax.servlet.AsyncContext", "getResponse");
+    private static final Method COMPLETE = method(
+            "javax.servlet.AsyncContext", "complete");
+
+    private static final AtomicLong REJECTED = new AtomicLong();
+    private static ThreadPoolExecutor pool;
+
+    private final OpenShiftOAuth2SecurityRealm realm;
+    private final AuthorizationCodeFlow flow;
+    private final String authorizationCode;
+    private final String redirectUri;
+    private final String redirectOnFinish;
+
+    OpenShiftAsyncLogin(OpenShiftOAuth2SecurityRealm realm,
+            AuthorizationCodeFlow flow, String authorizationCode,
+            String redirectUri, String redirectOnFinish) {
+        this.realm = realm;
+        this.flow = flow;
+        this.authorizationCode = authorizationCode;
+        this.redirectUri = redirectUri;
+        this.redirectOnFinish = redirectOnFinish;
+    }
+
+    static boolean isEnabled() {
+        return OpenShiftEnvVars.getBoolean(OPENSHIFT_ASYNC_LOGIN, false);
+    }
+
+    private static synchronized ThreadPoolExecutor getPool() {
+        if (pool == null)
+            pool = OpenShiftExecutors.newBoundedPool("OpenShift login",
+                    OpenShiftEnvVars.getInt(OPENSHIFT_LOGIN_THREADS,
+                            DEFAULT_LOGIN_THREADS), OpenShiftEnvVars.getInt(
+                            OPENSHIFT_LOGIN_QUEUE, DEFAULT_LOGIN_QUEUE));
+        return pool;
+    }
+
+    /**
+     * @return how many logins are waiting for a thread
+     */
+    static synchronized int getQueueDepth() {
+        return pool != null ? pool.getQueue().size() : 0;
+    }
+
+    /**
+     * @return how many logins were turned away because the queue was full
+     */
+    static long getRejected() {
+        return REJECTED.get();
+    }
+
+    public void generateResponse(StaplerRequest req, StaplerResponse rsp,
+            Object node) throws IOException, ServletException {
+        final HttpSession session = req.getSession();
+        final Object asyncContext = startAsync(req);
+        if (asyncContext == null) {
+            finish(session, rsp);
+            return;
+        }
+        try {
+            getPool().execute(new Runnable() {
+                public void run() {
+                    try {
+                        finish(session, getResponse(asyncContext));
+                    } catch (Throwable t) {
+                        // most likely the request timed out meanwhile
+                        OpenShiftOAuth2SecurityRealm.LOGGER.log(Level.FINE,
+                                "async login", t);
+                    } finally {
+                        SecurityContextHolder.clearContext();
+                        complete(asyncContext);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            REJECTED.incrementAndGet();
+            try {
+                HttpServletResponse response = getResponse(asyncContext);
+                response.setHeader("Retry-After", RETRY_AFTER_SECONDS);
+                response.sendError(503, BUSY);
+            } finally {
+                complete(asyncContext);
+            }
+        }
+    }
+
+    private void finish(HttpSession session, HttpServletResponse response)
+            throws IOException {
+        try {
+            OAuthSession.completeLogin(session,
+                    realm.login(flow, authorizationCode, redirectUri));
+            // the request thread has long moved on, so the login would not
+            // make it into the session through the usual security filter
+            SecurityContext context = new SecurityContextImpl();
+            context.setAuthentication(SecurityContextHolder.getContext()
+                    .getAuthentication());
+            session.setAttribute(
+                    HttpSessionContextIntegrationFilter.ACEGI_SECURITY_CONTEXT_KEY,
+                    context);
+            response.sendRedirect(redirectOnFinish);
+        } catch (Throwable e) {
+            OpenShiftOAuth2SecurityRealm.LOGGER.log(Level.WARNING,
+                    "OpenShift OAuth: login failed", e);
+            response.sendError(500, FAILED);
+        }
+    }
+
+    /**
+     * @return the AsyncContext, or null if the request cannot be suspended
+     */
+    private static Object startAsync(ServletRequest request) {
+        if (START_ASYNC == null || IS_ASYNC_SUPPORTED == null
+                || SET_TIMEOUT == null || GET_RESPONSE == null
+                || COMPLETE == null)
+            return null;
+        try {
+            if (!Boolean.TRUE.equals(IS_ASYNC_SUPPORTED.invoke(request)))
+                return null;
+            Object asyncContext = START_ASYNC.invoke(request);
+            SET_TIMEOUT.invoke(asyncContext, ASYNC_TIMEOUT);
+            return asyncContext;
+        } catch (IllegalAccessException e) {
+            return null;
+        } catch (InvocationTargetException e) {
+            // e.g. a filter in the chain does not support async
+            OpenShiftOAuth2SecurityRealm.LOGGER.log(Level.FINE,
+                    "async login", e.getCause());
+            return null;
+        }
+    }
+
+    private static HttpServletResponse getResponse(Object asyncContext)
+            throws IOException {
+        try {
+            return (HttpServletResponse) GET_RESPONSE.invoke(asyncContext);
+        } catch (IllegalAccessException e) {
+            throw new IOException(e);
+        } catch (InvocationTargetException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static void complete(Object asyncContext) {
+        try {
+            COMPLETE.invoke(asyncContext);
+        } catch (Exception e) {
+            OpenShiftOAuth2SecurityRealm.LOGGER.log(Level.FINE,
+                    "async login", e);
+        }
+    }
+
+    private static Method method(String className, String name,
+            Class<?>... parameterTypes) {
+        try {
+            return Class.forName(className).getMethod(name, parameterTypes);
+        } catch (ClassNotFoundException e) {
+            return null;
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
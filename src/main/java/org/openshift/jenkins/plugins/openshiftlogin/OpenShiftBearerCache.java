@@ -0,0 +1,232 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.openshift.jenkins.plugins.openshiftlogin;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.acegisecurity.GrantedAuthority;
+import org.acegisecurity.providers.UsernamePasswordAuthenticationToken;
+
+/**
+ * The bearer token cache used by {@link OpenShiftPermissionFilter}, keyed by
+ * {@link OpenShiftTokenDigest} rather than the raw token.
+ *
+ * This is an open addressing (linear probing) table over parallel primitive
+ * arrays, so a key costs two longs and a lookup never allocates. Once full,
+ * entries are evicted in approximate least recently used order using the
+ * CLOCK algorithm. All methods are synchronized; they only ever touch a few
+ * array slots.
+ */
+public class OpenShiftBearerCache {
+
+    /**
+     * What we last learned about a token; deliberately holds only the Jenkins
+     * identity the token maps to, never the token itself.
+     */
+    public static class Entry {
+        volatile long lastCheck;
+        volatile long lastSuccess;
+        private String name;
+        private GrantedAuthority[] authorities;
+
+        public synchronized void setDecision(
+                UsernamePasswordAuthenticationToken token) {
+            if (token == null) {
+                name = null;
+                authorities = null;
+            } else {
+                name = token.getName();
+                authorities = token.getAuthorities();
+            }
+        }
+
+        public synchronized boolean hasDecision() {
+            return name != null;
+        }
+
+        /**
+         * @return a Jenkins authentication for the cached decision, or null if
+         *         the token did not map to any OpenShift role
+         */
+        public synchronized UsernamePasswordAuthenticationToken toAuthentication() {
+            if (name == null)
+                return null;
+            return new UsernamePasswordAuthenticationToken(name, "",
+                    authorities);
+        }
+    }
+
+    private final int maxEntries;
+    private final int mask;
+    private final long[] highs;
+    private final long[] lows;
+    private final Entry[] entries;
+    private final boolean[] referenced;
+    private int size;
+    private int hand;
+
+    public OpenShiftBearerCache(int maxEntries) {
+        if (maxEntries < 1)
+            maxEntries = 1;
+        this.maxEntries = maxEntries;
+        // keep the load factor at or below one half
+        int capacity = 2;
+        while (capacity < maxEntries * 2) {
+            capacity <<= 1;
+        }
+        this.mask = capacity - 1;
+        this.highs = new long[capacity];
+        this.lows = new long[capacity];
+        this.entries = new Entry[capacity];
+        this.referenced = new boolean[capacity];
+    }
+
+    public synchronized Entry get(OpenShiftTokenDigest key) {
+        int i = indexOf(key.getHigh(), key.getLow());
+        if (i < 0)
+            return null;
+        referenced[i] = true;
+        return entries[i];
+    }
+
+    public synchronized void put(OpenShiftTokenDigest key, Entry entry) {
+        long high = key.getHigh();
+        long low = key.getLow();
+        int i = indexOf(high, low);
+        if (i >= 0) {
+            entries[i] = entry;
+            referenced[i] = true;
+            return;
+        }
+        if (size >= maxEntries)
+            evict();
+        i = home(low);
+        while (entries[i] != null) {
+            i = (i + 1) & mask;
+        }
+        highs[i] = high;
+        lows[i] = low;
+        entries[i] = entry;
+        // a token only earns its second chance once it is seen again, so
+        // one shot tokens (a single curl, say) are the first to go
+        referenced[i] = false;
+        size++;
+    }
+
+    public synchronized Entry remove(OpenShiftTokenDigest key) {
+        int i = indexOf(key.getHigh(), key.getLow());
+        if (i < 0)
+            return null;
+        Entry entry = entries[i];
+        delete(i);
+        return entry;
+    }
+
+    /**
+     * @return a copy of the cache's contents, for
+     *         {@link OpenShiftDecisionSnapshot}
+     */
+    public synchronized Map<OpenShiftTokenDigest, Entry> entries() {
+        Map<OpenShiftTokenDigest, Entry> copy = new LinkedHashMap<OpenShiftTokenDigest, Entry>();
+        for (int i = 0; i <= mask; i++) {
+            if (entries[i] != null)
+                copy.put(new OpenShiftTokenDigest(highs[i], lows[i]),
+                        entries[i]);
+        }
+        return copy;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized void clear() {
+        for (int i = 0; i <= mask; i++) {
+            entries[i] = null;
+            referenced[i] = false;
+        }
+        size = 0;
+    }
+
+    private int home(long low) {
+        return (int) low & mask;
+    }
+
+    private int indexOf(long high, long low) {
+        int i = home(low);
+        while (entries[i] != null) {
+            if (highs[i] == high && lows[i] == low)
+                return i;
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void evict() {
+        // CLOCK: sweep, giving recently referenced entries a second chance;
+        // terminates within two sweeps since the table is not empty
+        while (true) {
+            hand = (hand + 1) & mask;
+            if (entries[hand] == null)
+                continue;
+            if (referenced[hand]) {
+                referenced[hand] = false;
+                continue;
+            }
+            delete(hand);
+            OpenShiftMetrics.recordBearerCacheEviction();
+            return;
+        }
+    }
+
+    /**
+     * Backward shift deletion, so lookups never need tombstones.
+     */
+    private void delete(int i) {
+        entries[i] = null;
+        referenced[i] = false;
+        size--;
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (entries[j] == null)
+                return;
+            int home = home(lows[j]);
+            // the entry at j can stay put if its home slot lies cyclically
+            // within (i, j]
+            boolean stays = i <= j ? (i < home && home <= j)
+                    : (i < home || home <= j);
+            if (!stays) {
+                highs[i] = highs[j];
+                lows[i] = lows[j];
+                entries[i] = entries[j];
+                referenced[i] = referenced[j];
+                entries[j] = null;
+                referenced[j] = false;
+                i = j;
+            }
+        }
+    }
+}
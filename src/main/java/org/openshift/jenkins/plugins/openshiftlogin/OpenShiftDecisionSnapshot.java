@@ -0,0 +1,289 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.openshift.jenkins.plugins.openshiftlogin;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import org.acegisecurity.GrantedAuthority;
+import org.acegisecurity.GrantedAuthorityImpl;
+import org.acegisecurity.providers.UsernamePasswordAuthenticationToken;
+
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.init.Terminator;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+
+/**
+ * Saves the role decisions in the {@link OpenShiftBearerCache} to
+ * JENKINS_HOME every OPENSHIFT_DECISION_SNAPSHOT_INTERVAL seconds and at
+ * shutdown, and loads them back when the filter is created, so bearer tokens
+ * decided within the last poll interval are served straight away after a
+ * restart instead of all being looked up again at once.
+ *
+ * The file holds token digests, Jenkins names and authorities, never tokens.
+ * It is written to a temporary file and renamed into place, and read back
+ * through a read-only mapping; a file that does not parse is ignored.
+ */
+public class OpenShiftDecisionSnapshot {
+
+    // set to false to neither save nor load the snapshot
+    private static final String OPENSHIFT_DECISION_SNAPSHOT = "OPENSHIFT_DECISION_SNAPSHOT";
+    private static final String OPENSHIFT_DECISION_SNAPSHOT_INTERVAL = "OPENSHIFT_DECISION_SNAPSHOT_INTERVAL";
+    private static final long DEFAULT_SNAPSHOT_INTERVAL = 60;
+    static final String FILE_NAME = "openshift-login-decisions.bin";
+
+    private static final int MAGIC = 0x4f534c44; // "OSLD"
+    private static final int VERSION = 1;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static OpenShiftBearerCache cache;
+    private static ScheduledFuture<?> writer;
+
+    private OpenShiftDecisionSnapshot() {
+    }
+
+    static boolean isEnabled() {
+        return OpenShiftEnvVars.getBoolean(OPENSHIFT_DECISION_SNAPSHOT, true);
+    }
+
+    /**
+     * Makes the given cache the one saved from now on. The first cache in
+     * this JVM is filled from the snapshot file; one replacing a previous
+     * cache, because the filter was created again, takes over its entries.
+     */
+    static synchronized void attach(OpenShiftBearerCache newCache) {
+        OpenShiftBearerCache previous = cache;
+        cache = newCache;
+        if (previous != null) {
+            for (Map.Entry<OpenShiftTokenDigest, OpenShiftBearerCache.Entry> e : previous
+                    .entries().entrySet()) {
+                newCache.put(e.getKey(), e.getValue());
+            }
+            return;
+        }
+        File file = getFile();
+        if (file == null || !isEnabled() || !file.exists())
+            return;
+        long maxAge = TimeUnit.SECONDS.toMillis(OpenShiftPermissionFilter
+                .getPollInterval()
+                + OpenShiftPermissionFilter.getGracePeriod());
+        Map<OpenShiftTokenDigest, OpenShiftBearerCache.Entry> restored = read(
+                file, System.currentTimeMillis(), maxAge);
+        for (Map.Entry<OpenShiftTokenDigest, OpenShiftBearerCache.Entry> e : restored
+                .entrySet()) {
+            newCache.put(e.getKey(), e.getValue());
+        }
+        OpenShiftMetrics.recordRestoredDecisions(restored.size());
+        OpenShiftOAuth2SecurityRealm.LOGGER.info("OpenShift OAuth: restored "
+                + restored.size() + " bearer token decisions from " + file);
+    }
+
+    @Initializer(after = InitMilestone.PLUGINS_STARTED)
+    public static synchronized void start() {
+        if (writer != null)
+            return;
+        long interval = OpenShiftEnvVars.getLong(
+                OPENSHIFT_DECISION_SNAPSHOT_INTERVAL,
+                DEFAULT_SNAPSHOT_INTERVAL);
+        writer = Timer.get().scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                save();
+            }
+        }, interval, interval, TimeUnit.SECONDS);
+    }
+
+    @Terminator
+    public static void stop() {
+        synchronized (OpenShiftDecisionSnapshot.class) {
+            if (writer != null) {
+                writer.cancel(false);
+                writer = null;
+            }
+        }
+        save();
+    }
+
+    static synchronized void save() {
+        if (cache == null || !isEnabled())
+            return;
+        File file = getFile();
+        if (file == null)
+            return;
+        try {
+            write(file, cache.entries());
+        } catch (Throwable t) {
+            OpenShiftOAuth2SecurityRealm.LOGGER.log(Level.INFO,
+                    "decision snapshot", t);
+        }
+    }
+
+    private static File getFile() {
+        Jenkins jenkins = Jenkins.getInstance();
+        return jenkins != null ? new File(jenkins.getRootDir(), FILE_NAME)
+                : null;
+    }
+
+    /**
+     * Writes every entry holding a decision; tokens that mapped to no role
+     * are looked up again after a restart.
+     */
+    static void write(File file,
+            Map<OpenShiftTokenDigest, OpenShiftBearerCache.Entry> entries)
+            throws IOException {
+        List<OpenShiftTokenDigest> keys = new ArrayList<OpenShiftTokenDigest>();
+        List<UsernamePasswordAuthenticationToken> decisions = new ArrayList<UsernamePasswordAuthenticationToken>();
+        List<Long> decidedAt = new ArrayList<Long>();
+        for (Map.Entry<OpenShiftTokenDigest, OpenShiftBearerCache.Entry> e : entries
+                .entrySet()) {
+            OpenShiftBearerCache.Entry entry = e.getValue();
+            UsernamePasswordAuthenticationToken decision = entry
+                    .toAuthentication();
+            long lastSuccess = entry.lastSuccess;
+            if (decision == null || lastSuccess == 0)
+                continue;
+            keys.add(e.getKey());
+            decisions.add(decision);
+            decidedAt.add(lastSuccess);
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(keys.size());
+            for (int i = 0; i < keys.size(); i++) {
+                out.writeLong(keys.get(i).getHigh());
+                out.writeLong(keys.get(i).getLow());
+                out.writeLong(decidedAt.get(i));
+                writeString(out, decisions.get(i).getName());
+                GrantedAuthority[] authorities = decisions.get(i)
+                        .getAuthorities();
+                out.writeShort(authorities.length);
+                for (GrantedAuthority authority : authorities) {
+                    writeString(out, authority.getAuthority());
+                }
+            }
+        } finally {
+            out.close();
+        }
+        try {
+            Files.move(tmp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * @return the entries decided no more than maxAgeMillis before now, or
+     *         nothing at all if the file cannot be read
+     */
+    static Map<OpenShiftTokenDigest, OpenShiftBearerCache.Entry> read(
+            File file, long now, long maxAgeMillis) {
+        Map<OpenShiftTokenDigest, OpenShiftBearerCache.Entry> entries = new LinkedHashMap<OpenShiftTokenDigest, OpenShiftBearerCache.Entry>();
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = raf.getChannel();
+                MappedByteBuffer buf = channel.map(
+                        FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (buf.getInt() != MAGIC || buf.getInt() != VERSION)
+                    return entries;
+                int count = buf.getInt();
+                for (int i = 0; i < count; i++) {
+                    OpenShiftTokenDigest digest = new OpenShiftTokenDigest(
+                            buf.getLong(), buf.getLong());
+                    long decidedAt = buf.getLong();
+                    String name = readString(buf);
+                    GrantedAuthority[] authorities = new GrantedAuthority[buf
+                            .getShort() & 0xffff];
+                    for (int j = 0; j < authorities.length; j++) {
+                        authorities[j] = new GrantedAuthorityImpl(
+                                readString(buf));
+                    }
+                    // skip what is too old, and anything from the future in
+                    // case the clock went backwards
+                    if (decidedAt > now || now - decidedAt > maxAgeMillis)
+                        continue;
+                    OpenShiftBearerCache.Entry entry = new OpenShiftBearerCache.Entry();
+                    entry.setDecision(new UsernamePasswordAuthenticationToken(
+                            name, "", authorities));
+                    entry.lastCheck = decidedAt;
+                    entry.lastSuccess = decidedAt;
+                    entries.put(digest, entry);
+                }
+            } finally {
+                raf.close();
+            }
+        } catch (IOException e) {
+            OpenShiftOAuth2SecurityRealm.LOGGER.log(Level.INFO,
+                    "decision snapshot " + file, e);
+            entries.clear();
+        } catch (BufferUnderflowException e) {
+            OpenShiftOAuth2SecurityRealm.LOGGER
+                    .info("OpenShift OAuth: ignoring truncated decision snapshot "
+                            + file);
+            entries.clear();
+        }
+        return entries;
+    }
+
+    private static void writeString(DataOutputStream out, String value)
+            throws IOException {
+        byte[] bytes = value.getBytes(UTF8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buf) {
+        byte[] bytes = new byte[buf.getShort() & 0xffff];
+        buf.get(bytes);
+        return new String(bytes, UTF8);
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.openshift.jenkins.plugins.openshiftlogin;
+
+import hudson.EnvVars;
+
+/**
+ * Helpers for the environment variables (set on the Jenkins pod) that tune
+ * this plugin; unset, unparseable or out of range values fall back to the
+ * default.
+ */
+public class OpenShiftEnvVars {
+
+    private OpenShiftEnvVars() {
+    }
+
+    static long getLong(String name, long defaultValue) {
+        String var = EnvVars.masterEnvVars.get(name);
+        if (var != null) {
+            try {
+                return Long.parseLong(var.trim());
+            } catch (NumberFormatException e) {
+            }
+        }
+        return defaultValue;
+    }
+
+    static int getInt(String name, int defaultValue) {
+        long value = getLong(name, defaultValue);
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)
+            return defaultValue;
+        return (int) value;
+    }
+
+    /**
+     * @return true if the variable is set to anything other than "false",
+     *         false if it is set to "false", and the default if it is unset
+     */
+    static boolean getBoolean(String name, boolean defaultValue) {
+        String var = EnvVars.masterEnvVars.get(name);
+        if (var == null)
+            return defaultValue;
+        return !var.trim().equalsIgnoreCase("false");
+    }
+
+    static String getString(String name, String defaultValue) {
+        String var = EnvVars.masterEnvVars.get(name);
+        if (var == null || var.trim().length() == 0)
+            return defaultValue;
+        return var.trim();
+    }
+}
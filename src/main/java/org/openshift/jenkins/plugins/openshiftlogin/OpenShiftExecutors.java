@@ -0,0 +1,266 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.openshift.jenkins.plugins.openshiftlogin;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.security.GeneralSecurityException;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+/**
+ * Thread pools for work the plugin does off the request path.
+ */
+public class OpenShiftExecutors {
+
+    private static final int BACKGROUND_THREADS = 2;
+    private static final int BACKGROUND_QUEUE = 100;
+
+    private static final int DISCOVERY_THREADS = 4;
+    private static final int DISCOVERY_QUEUE = 20;
+
+    private static final ExecutorService BACKGROUND = newBoundedPool(
+            "OpenShift OAuth background", BACKGROUND_THREADS,
+            BACKGROUND_QUEUE);
+    private static final ExecutorService DISCOVERY = newBoundedPool(
+            "OpenShift OAuth discovery", DISCOVERY_THREADS, DISCOVERY_QUEUE);
+
+    // threads for OpenShiftAsyncClient calls, which spend their time waiting
+    // on the API server
+    private static final String OPENSHIFT_API_THREADS = "OPENSHIFT_API_THREADS";
+    private static final int DEFAULT_API_THREADS = 16;
+    private static final int API_QUEUE = 256;
+    // run those calls on virtual threads instead, where the JVM has them
+    private static final String OPENSHIFT_API_VIRTUAL_THREADS = "OPENSHIFT_API_VIRTUAL_THREADS";
+
+    private static final InstrumentedExecutor API = new InstrumentedExecutor(
+            newApiExecutor());
+
+    private OpenShiftExecutors() {
+    }
+
+    /**
+     * A small pool for housekeeping such as token refreshes; submissions are
+     * rejected with a RejectedExecutionException rather than queued without
+     * bound.
+     */
+    static ExecutorService background() {
+        return BACKGROUND;
+    }
+
+    /**
+     * Runs {@link OpenShiftAsyncClient} calls. These are on virtual threads
+     * if OPENSHIFT_API_VIRTUAL_THREADS=true and the JVM supports them, and
+     * otherwise on a bounded pool whose overflow runs on the thread
+     * submitting the call. Either way the number of calls actually reaching
+     * the API server is capped by {@link OpenShiftApiGuard}.
+     */
+    static ExecutorService api() {
+        return API;
+    }
+
+    private static ExecutorService newApiExecutor() {
+        if (OpenShiftEnvVars.getBoolean(OPENSHIFT_API_VIRTUAL_THREADS, false)) {
+            ExecutorService virtual = newVirtualThreadExecutor();
+            if (virtual != null)
+                return virtual;
+            OpenShiftOAuth2SecurityRealm.LOGGER
+                    .info("OpenShift OAuth: virtual threads are not available in this JVM, using a thread pool for API calls");
+        }
+        return newCallerRunsPool("OpenShift API", OpenShiftEnvVars.getInt(
+                OPENSHIFT_API_THREADS, DEFAULT_API_THREADS), API_QUEUE);
+    }
+
+    /**
+     * @return Executors.newVirtualThreadPerTaskExecutor(), looked up
+     *         reflectively as it only exists from Java 21 on, or null
+     */
+    static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod(
+                    "newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return true if {@link #api()} runs calls on virtual threads
+     */
+    static boolean isApiVirtual() {
+        return !(API.delegate instanceof ThreadPoolExecutor);
+    }
+
+    /**
+     * @return the API calls submitted and not yet finished
+     */
+    static int getApiActive() {
+        return API.active.get();
+    }
+
+    /**
+     * @return the API calls waiting for a pool thread; always 0 with
+     *         virtual threads
+     */
+    static int getApiQueued() {
+        return API.delegate instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor) API.delegate)
+                .getQueue().size() : 0;
+    }
+
+    /**
+     * Runs the independent stages of the realm's populateDefaults. Callers
+     * wait on what they submit here, so it is kept apart from
+     * {@link #background()}, whose threads may be the ones waiting.
+     */
+    static ExecutorService discovery() {
+        return DISCOVERY;
+    }
+
+    /**
+     * Submits the task, running it on the calling thread instead if the pool
+     * is saturated.
+     */
+    static <T> Future<T> submit(ExecutorService pool, Callable<T> task) {
+        try {
+            return pool.submit(task);
+        } catch (RejectedExecutionException e) {
+            FutureTask<T> inline = new FutureTask<T>(task);
+            inline.run();
+            return inline;
+        }
+    }
+
+    /**
+     * Waits for a task from {@link #submit(ExecutorService, Callable)},
+     * rethrowing what it threw.
+     */
+    static <T> T await(Future<T> future) throws IOException,
+            GeneralSecurityException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof GeneralSecurityException)
+                throw (GeneralSecurityException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    static ThreadPoolExecutor newBoundedPool(String name, int threads,
+            int queueSize) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60,
+                TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueSize),
+                new NamingThreadFactory(new DaemonThreadFactory(), name));
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * Tracks how many tasks are in flight and how long each waited to start,
+     * which is where a saturated pool, or virtual threads pinned to their
+     * carriers, show up.
+     */
+    static class InstrumentedExecutor extends AbstractExecutorService {
+
+        final ExecutorService delegate;
+        final AtomicInteger active = new AtomicInteger();
+
+        InstrumentedExecutor(ExecutorService delegate) {
+            this.delegate = delegate;
+        }
+
+        public void execute(final Runnable command) {
+            final long submitted = System.nanoTime();
+            active.incrementAndGet();
+            try {
+                delegate.execute(new Runnable() {
+                    public void run() {
+                        OpenShiftMetrics.recordApiQueueWait(System.nanoTime()
+                                - submitted);
+                        try {
+                            command.run();
+                        } finally {
+                            active.decrementAndGet();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                active.decrementAndGet();
+                throw e;
+            }
+        }
+
+        public void shutdown() {
+            delegate.shutdown();
+        }
+
+        public List<Runnable> shutdownNow() {
+            return delegate.shutdownNow();
+        }
+
+        public boolean isShutdown() {
+            return delegate.isShutdown();
+        }
+
+        public boolean isTerminated() {
+            return delegate.isTerminated();
+        }
+
+        public boolean awaitTermination(long timeout, TimeUnit unit)
+                throws InterruptedException {
+            return delegate.awaitTermination(timeout, unit);
+        }
+    }
+
+    static ThreadPoolExecutor newCallerRunsPool(String name, int threads,
+            int queueSize) {
+        ThreadPoolExecutor pool = newBoundedPool(name, threads, queueSize);
+        pool.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        return pool;
+    }
+}
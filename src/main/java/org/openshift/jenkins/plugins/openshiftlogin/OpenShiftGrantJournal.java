@@ -0,0 +1,341 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.openshift.jenkins.plugins.openshiftlogin;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+
+import hudson.init.Terminator;
+import jenkins.model.Jenkins;
+
+/**
+ * Keeps the matrix entries the plugin adds in files of its own in
+ * JENKINS_HOME, instead of saving the whole Jenkins configuration for every
+ * one of them, when OPENSHIFT_GRANT_JOURNAL=true.
+ *
+ * Each grant is appended to a journal and synced, and every
+ * OPENSHIFT_GRANT_JOURNAL_COMPACT_AFTER records, at startup and at shutdown
+ * the journal is folded into a snapshot, written to a temporary file and
+ * renamed into place, and started afresh. At startup the snapshot and then
+ * the journal are read back and merged into the authorization strategy; a
+ * record cut short by a crash ends the replay and is cut off the journal.
+ */
+public class OpenShiftGrantJournal {
+
+    private static final String OPENSHIFT_GRANT_JOURNAL = "OPENSHIFT_GRANT_JOURNAL";
+    private static final String OPENSHIFT_GRANT_JOURNAL_COMPACT_AFTER = "OPENSHIFT_GRANT_JOURNAL_COMPACT_AFTER";
+    private static final int DEFAULT_COMPACT_AFTER = 1000;
+    static final String SNAPSHOT_FILE_NAME = "openshift-login-grants.bin";
+    static final String JOURNAL_FILE_NAME = "openshift-login-grants.journal";
+
+    private static final int MAGIC = 0x4f534c47; // "OSLG"
+    private static final int VERSION = 1;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static OpenShiftGrantJournal instance;
+    private static final AtomicBoolean restored = new AtomicBoolean();
+
+    private final File snapshot;
+    private final File journal;
+    private final int compactAfter;
+
+    // guarded by this
+    private final Map<String, Set<String>> grants = new LinkedHashMap<String, Set<String>>();
+    private FileOutputStream out;
+    private int journalRecords;
+
+    OpenShiftGrantJournal(File dir, int compactAfter) {
+        this.snapshot = new File(dir, SNAPSHOT_FILE_NAME);
+        this.journal = new File(dir, JOURNAL_FILE_NAME);
+        this.compactAfter = Math.max(1, compactAfter);
+    }
+
+    static boolean isEnabled() {
+        return OpenShiftEnvVars.getBoolean(OPENSHIFT_GRANT_JOURNAL, false);
+    }
+
+    /**
+     * @return the journal in JENKINS_HOME, or null if there is no Jenkins
+     */
+    static synchronized OpenShiftGrantJournal getInstance() {
+        if (instance == null) {
+            Jenkins jenkins = Jenkins.getInstance();
+            if (jenkins == null)
+                return null;
+            instance = new OpenShiftGrantJournal(jenkins.getRootDir(),
+                    OpenShiftEnvVars.getInt(
+                            OPENSHIFT_GRANT_JOURNAL_COMPACT_AFTER,
+                            DEFAULT_COMPACT_AFTER));
+        }
+        return instance;
+    }
+
+    /**
+     * Merges the recorded grants into the authorization strategy, once per
+     * start.
+     */
+    static void restore(OpenShiftOAuth2SecurityRealm realm) {
+        if (!isEnabled() || !restored.compareAndSet(false, true))
+            return;
+        long start = System.nanoTime();
+        try {
+            int count = realm.restoreGrants();
+            OpenShiftOAuth2SecurityRealm.LOGGER.info(String.format(
+                    "OpenShift OAuth: restored %d matrix entries from the grant journal in %d ms",
+                    count, (System.nanoTime() - start) / 1000000));
+        } catch (Throwable t) {
+            OpenShiftOAuth2SecurityRealm.LOGGER.log(Level.INFO,
+                    "OpenShift OAuth: could not restore the grant journal", t);
+        }
+    }
+
+    @Terminator
+    public static void stop() {
+        OpenShiftGrantJournal journal;
+        synchronized (OpenShiftGrantJournal.class) {
+            journal = instance;
+        }
+        if (journal == null || !isEnabled())
+            return;
+        try {
+            journal.compact();
+            journal.close();
+        } catch (IOException e) {
+            OpenShiftOAuth2SecurityRealm.LOGGER.log(Level.INFO,
+                    "grant journal", e);
+        }
+    }
+
+    /**
+     * Reads the snapshot and replays the journal, then compacts them if the
+     * journal held anything.
+     *
+     * @return every grant recorded, by matrix key
+     */
+    synchronized Map<String, Set<String>> load() throws IOException {
+        grants.clear();
+        if (snapshot.exists())
+            readSnapshot();
+        int replayed = journal.exists() ? replay() : 0;
+        journalRecords = replayed;
+        if (replayed > 0)
+            compact();
+        return new LinkedHashMap<String, Set<String>>(grants);
+    }
+
+    /**
+     * Appends the grants to the journal and syncs it to disk.
+     */
+    synchronized void append(Map<String, Set<String>> added)
+            throws IOException {
+        if (added.isEmpty())
+            return;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream records = new DataOutputStream(bytes);
+        for (Map.Entry<String, Set<String>> grant : added.entrySet()) {
+            writeString(records, grant.getKey());
+            records.writeByte(toMask(grant.getValue()));
+        }
+        records.flush();
+        if (out == null)
+            out = new FileOutputStream(journal, true);
+        out.write(bytes.toByteArray());
+        out.getChannel().force(false);
+        for (Map.Entry<String, Set<String>> grant : added.entrySet()) {
+            grants.put(grant.getKey(), grant.getValue());
+        }
+        journalRecords += added.size();
+        if (journalRecords >= compactAfter)
+            compact();
+    }
+
+    /**
+     * Writes every grant to the snapshot and empties the journal.
+     */
+    synchronized void compact() throws IOException {
+        File tmp = new File(snapshot.getPath() + ".tmp");
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmp)));
+        try {
+            data.writeInt(MAGIC);
+            data.writeInt(VERSION);
+            data.writeInt(grants.size());
+            for (Map.Entry<String, Set<String>> grant : grants.entrySet()) {
+                writeString(data, grant.getKey());
+                data.writeByte(toMask(grant.getValue()));
+            }
+            data.flush();
+        } finally {
+            data.close();
+        }
+        try {
+            Files.move(tmp.toPath(), snapshot.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp.toPath(), snapshot.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        }
+        // only once the snapshot holds everything in it
+        close();
+        new FileOutputStream(journal).close();
+        journalRecords = 0;
+    }
+
+    synchronized void close() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+    synchronized int getJournalRecords() {
+        return journalRecords;
+    }
+
+    private void readSnapshot() {
+        try {
+            ByteBuffer buf = map(snapshot);
+            if (buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+                OpenShiftOAuth2SecurityRealm.LOGGER
+                        .info("OpenShift OAuth: ignoring unrecognized grant snapshot "
+                                + snapshot);
+                return;
+            }
+            int count = buf.getInt();
+            for (int i = 0; i < count; i++) {
+                String key = readString(buf);
+                grants.put(key, fromMask(buf.get()));
+            }
+        } catch (IOException e) {
+            OpenShiftOAuth2SecurityRealm.LOGGER.log(Level.INFO,
+                    "grant snapshot " + snapshot, e);
+        } catch (BufferUnderflowException e) {
+            OpenShiftOAuth2SecurityRealm.LOGGER
+                    .info("OpenShift OAuth: ignoring the end of truncated grant snapshot "
+                            + snapshot);
+        }
+    }
+
+    /**
+     * Replays the journal, cutting off a record left incomplete by a crash
+     * so that later appends are not read as part of it.
+     */
+    private int replay() throws IOException {
+        // read rather than mapped, as a mapped file cannot be truncated on
+        // every platform; the journal is compacted before it grows large
+        ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(journal.toPath()));
+        int replayed = 0;
+        int complete = 0;
+        try {
+            while (buf.hasRemaining()) {
+                String key = readString(buf);
+                grants.put(key, fromMask(buf.get()));
+                replayed++;
+                complete = buf.position();
+            }
+        } catch (BufferUnderflowException e) {
+            OpenShiftOAuth2SecurityRealm.LOGGER
+                    .info("OpenShift OAuth: dropping the last, incomplete, record of grant journal "
+                            + journal);
+            truncate(journal, complete);
+        }
+        return replayed;
+    }
+
+    private static void truncate(File file, long length) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.getChannel().truncate(length);
+            raf.getChannel().force(false);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static ByteBuffer map(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY,
+                    0, channel.size());
+            return buf;
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static int toMask(Set<String> roles) {
+        int mask = 0;
+        List<String> all = OpenShiftOAuth2SecurityRealm.getRoles();
+        for (int i = 0; i < all.size(); i++) {
+            if (roles.contains(all.get(i)))
+                mask |= 1 << i;
+        }
+        return mask;
+    }
+
+    private static Set<String> fromMask(int mask) {
+        Set<String> roles = new HashSet<String>();
+        List<String> all = OpenShiftOAuth2SecurityRealm.getRoles();
+        for (int i = 0; i < all.size(); i++) {
+            if ((mask & (1 << i)) != 0)
+                roles.add(all.get(i));
+        }
+        return roles;
+    }
+
+    private static void writeString(DataOutputStream out, String value)
+            throws IOException {
+        byte[] bytes = value.getBytes(UTF8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buf) {
+        byte[] bytes = new byte[buf.getShort() & 0xffff];
+        buf.get(bytes);
+        return new String(bytes, UTF8);
+    }
+}
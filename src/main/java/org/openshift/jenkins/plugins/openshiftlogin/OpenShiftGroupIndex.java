@@ -0,0 +1,222 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.openshift.jenkins.plugins.openshiftlogin;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Which OpenShift groups users are in, and which of the roles each group has
+ * in our namespace, so that a role granted through a group is evaluated once
+ * for all of its members rather than once per member.
+ *
+ * A user's groups are taken from their identity when users/~ or a token
+ * review supplied them, and otherwise from the list of all groups, which the
+ * service account fetches at most once per OPENSHIFT_GROUP_CACHE_TTL.
+ */
+public class OpenShiftGroupIndex {
+
+    static final String OPENSHIFT_GROUP_AUTHORIZATION = "OPENSHIFT_GROUP_AUTHORIZATION";
+    // seconds a group listing, and the roles found for a group, are reused
+    static final String OPENSHIFT_GROUP_CACHE_TTL = "OPENSHIFT_GROUP_CACHE_TTL";
+    static final long DEFAULT_GROUP_CACHE_TTL = 5 * 60;
+    private static final int MAX_GROUPS = 1000;
+
+    /**
+     * Where the index gets its data from; the realm, outside of tests.
+     */
+    interface Source {
+        /**
+         * @return the members of each group, by group name
+         */
+        Map<String, List<String>> listGroups() throws IOException,
+                GeneralSecurityException;
+
+        /**
+         * @return the roles the group has in our namespace
+         */
+        Set<String> getGroupRoles(String group) throws IOException,
+                GeneralSecurityException;
+    }
+
+    private static volatile OpenShiftGroupIndex instance;
+
+    private final long ttlMillis;
+    private final OpenShiftTtlCache<String, Set<String>> roles;
+    // the evaluations in flight, which later askers for the same group wait
+    // on instead of starting their own
+    private final ConcurrentMap<String, FutureTask<Set<String>>> evaluating = new ConcurrentHashMap<String, FutureTask<Set<String>>>();
+    private final Object listLock = new Object();
+    private volatile Map<String, List<String>> groupsByUser = Collections
+            .emptyMap();
+    private volatile long listedAt = Long.MIN_VALUE;
+
+    OpenShiftGroupIndex(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+        this.roles = new OpenShiftTtlCache<String, Set<String>>(MAX_GROUPS,
+                ttlMillis);
+    }
+
+    static boolean isEnabled() {
+        return OpenShiftEnvVars.getBoolean(OPENSHIFT_GROUP_AUTHORIZATION,
+                false);
+    }
+
+    static OpenShiftGroupIndex getInstance() {
+        if (instance == null) {
+            synchronized (OpenShiftGroupIndex.class) {
+                if (instance == null) {
+                    instance = new OpenShiftGroupIndex(
+                            TimeUnit.SECONDS.toMillis(OpenShiftEnvVars.getLong(
+                                    OPENSHIFT_GROUP_CACHE_TTL,
+                                    DEFAULT_GROUP_CACHE_TTL)));
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * @return the roles of each of the user's groups that has any, by group
+     *         name
+     */
+    Map<String, Set<String>> getGroupRoles(Source source,
+            OpenShiftUserInfo info) throws IOException,
+            GeneralSecurityException {
+        // sorted, so a user's authorities come out the same each time
+        Map<String, Set<String>> granted = new TreeMap<String, Set<String>>();
+        for (String group : getGroups(source, info)) {
+            Set<String> groupRoles = getRoles(source, group);
+            if (!groupRoles.isEmpty())
+                granted.put(group, groupRoles);
+        }
+        return granted;
+    }
+
+    /**
+     * @return the user's groups, or an empty list if none are known
+     */
+    List<String> getGroups(Source source, OpenShiftUserInfo info) {
+        List<String> groups = info.getGroups();
+        if (groups != null && !groups.isEmpty())
+            return groups;
+        refreshIfStale(source);
+        groups = groupsByUser.get(info.getName());
+        return groups != null ? groups : Collections.<String> emptyList();
+    }
+
+    private void refreshIfStale(Source source) {
+        if (!isStale())
+            return;
+        synchronized (listLock) {
+            if (!isStale())
+                return;
+            try {
+                groupsByUser = byUser(source.listGroups());
+            } catch (Exception e) {
+                // keep the last listing; users whose groups are not known
+                // are evaluated on their own
+                OpenShiftOAuth2SecurityRealm.LOGGER.log(Level.INFO,
+                        "OpenShift OAuth: could not list groups", e);
+            }
+            listedAt = System.currentTimeMillis();
+        }
+    }
+
+    private boolean isStale() {
+        return listedAt == Long.MIN_VALUE
+                || System.currentTimeMillis() - listedAt >= ttlMillis;
+    }
+
+    private Set<String> getRoles(final Source source, final String group)
+            throws IOException, GeneralSecurityException {
+        Set<String> cached = roles.get(group);
+        if (cached != null) {
+            OpenShiftMetrics.recordGroupRolesHit();
+            return cached;
+        }
+        FutureTask<Set<String>> task = new FutureTask<Set<String>>(
+                new Callable<Set<String>>() {
+                    public Set<String> call() throws Exception {
+                        Set<String> groupRoles = Collections
+                                .unmodifiableSet(new HashSet<String>(source
+                                        .getGroupRoles(group)));
+                        roles.put(group, groupRoles);
+                        return groupRoles;
+                    }
+                });
+        FutureTask<Set<String>> running = evaluating.putIfAbsent(group, task);
+        if (running == null) {
+            OpenShiftMetrics.recordGroupRolesMiss();
+            try {
+                task.run();
+            } finally {
+                evaluating.remove(group, task);
+            }
+            running = task;
+        }
+        return OpenShiftExecutors.await(running);
+    }
+
+    /**
+     * Turns the members of each group into the groups of each member.
+     */
+    static Map<String, List<String>> byUser(Map<String, List<String>> members) {
+        Map<String, List<String>> byUser = new HashMap<String, List<String>>();
+        for (Map.Entry<String, List<String>> group : members.entrySet()) {
+            for (String user : group.getValue()) {
+                List<String> groups = byUser.get(user);
+                if (groups == null) {
+                    groups = new ArrayList<String>();
+                    byUser.put(user, groups);
+                }
+                groups.add(group.getKey());
+            }
+        }
+        return byUser;
+    }
+
+    /**
+     * Exposed for testing.
+     */
+    void clear() {
+        roles.clear();
+        groupsByUser = Collections.emptyMap();
+        listedAt = Long.MIN_VALUE;
+    }
+}
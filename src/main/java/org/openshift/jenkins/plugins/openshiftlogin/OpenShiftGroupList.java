@@ -0,0 +1,73 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.openshift.jenkins.plugins.openshiftlogin;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.api.client.util.Key;
+
+/**
+ * The OpenShift groups and their members.
+ *
+ * This is from https://SERVER/oapi/v1/groups
+ */
+public class OpenShiftGroupList {
+
+    public static class Metadata {
+        @Key
+        public String name;
+    }
+
+    public static class Group {
+        @Key
+        public Metadata metadata;
+
+        @Key
+        public List<String> users;
+    }
+
+    @Key
+    public List<Group> items;
+
+    /**
+     * @return the members of each group, by group name
+     */
+    public Map<String, List<String>> getMembers() {
+        Map<String, List<String>> members = new LinkedHashMap<String, List<String>>();
+        if (items == null)
+            return members;
+        for (Group group : items) {
+            if (group == null || group.metadata == null
+                    || group.metadata.name == null)
+                continue;
+            members.put(group.metadata.name,
+                    group.users != null ? new ArrayList<String>(group.users)
+                            : new ArrayList<String>());
+        }
+        return members;
+    }
+}
@@ -39,38 +39,42 @@ public class OpenShiftItemListener extends ItemListener {
 
     @Override
     public void onLoaded() {
-        OpenShiftSetOAuth.setOauth();
+        // Jenkins is still coming up; have requests wait for, or be turned
+        // away until, we know which realm applies
+        if (OpenShiftSetOAuth.isOauthPending())
+            OpenShiftStartupGate.install();
+        OpenShiftSetOAuth.setOauthAsync();
     }
 
     @Override
     public void onCreated(Item item) {
-        OpenShiftSetOAuth.setOauth();
+        OpenShiftSetOAuth.setOauthAsync();
     }
 
     @Override
     public void onCopied(Item src, Item item) {
-        OpenShiftSetOAuth.setOauth();
+        OpenShiftSetOAuth.setOauthAsync();
     }
 
     @Override
     public void onDeleted(Item item) {
-        OpenShiftSetOAuth.setOauth();
+        OpenShiftSetOAuth.setOauthAsync();
     }
 
     @Override
     public void onRenamed(Item item, String oldName, String newName) {
-        OpenShiftSetOAuth.setOauth();
+        OpenShiftSetOAuth.setOauthAsync();
     }
 
     @Override
     public void onLocationChanged(Item item, String oldFullName,
             String newFullName) {
-        OpenShiftSetOAuth.setOauth();
+        OpenShiftSetOAuth.setOauthAsync();
     }
 
     @Override
     public void onUpdated(Item item) {
-        OpenShiftSetOAuth.setOauth();
+        OpenShiftSetOAuth.setOauthAsync();
     }
 
 }
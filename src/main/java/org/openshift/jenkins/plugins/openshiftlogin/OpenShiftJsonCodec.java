@@ -0,0 +1,228 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.openshift.jenkins.plugins.openshiftlogin;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.JsonParser;
+import com.google.api.client.json.JsonToken;
+
+/**
+ * Reads the few fields the realm uses out of API server responses with the
+ * streaming {@link JsonParser}, skipping the rest of the document, instead of
+ * binding all of it through the reflective JsonObjectParser. A SAR response
+ * stops being parsed as soon as its allowed field has been read, but the
+ * rest of the body is still read off the connection before the stream is
+ * closed, as HttpURLConnection only keeps a connection alive for reuse once
+ * its response has been read to the end.
+ */
+public class OpenShiftJsonCodec {
+
+    // past this, dropping the connection is cheaper than reading the rest
+    private static final int MAX_DRAIN = 64 * 1024;
+
+    /**
+     * Reads a value from a parser positioned on the START_OBJECT of the
+     * document.
+     */
+    interface Reader<T> {
+        T read(JsonParser parser) throws IOException;
+    }
+
+    static final Reader<OpenShiftSubjectAccessReviewResponse> SUBJECT_ACCESS_REVIEW = new Reader<OpenShiftSubjectAccessReviewResponse>() {
+        public OpenShiftSubjectAccessReviewResponse read(JsonParser parser)
+                throws IOException {
+            // namespace and reason are only ever logged
+            boolean full = OpenShiftOAuth2SecurityRealm.LOGGER
+                    .isLoggable(Level.FINE);
+            OpenShiftSubjectAccessReviewResponse review = new OpenShiftSubjectAccessReviewResponse();
+            String field;
+            while ((field = nextField(parser)) != null) {
+                if ("allowed".equals(field)) {
+                    review.allowed = booleanValue(parser);
+                    if (!full)
+                        return review;
+                } else if (full && "namespace".equals(field)) {
+                    review.namespace = stringValue(parser);
+                } else if (full && "reason".equals(field)) {
+                    review.reason = stringValue(parser);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            return review;
+        }
+    };
+
+    static final Reader<OpenShiftUserInfo> USER_INFO = new Reader<OpenShiftUserInfo>() {
+        public OpenShiftUserInfo read(JsonParser parser) throws IOException {
+            OpenShiftUserInfo info = new OpenShiftUserInfo();
+            String field;
+            while ((field = nextField(parser)) != null) {
+                if ("metadata".equals(field)
+                        && parser.getCurrentToken() == JsonToken.START_OBJECT) {
+                    info.metadata = readMetadata(parser);
+                } else if ("email".equals(field)) {
+                    info.email = stringValue(parser);
+                } else if ("groups".equals(field)) {
+                    info.groups = stringList(parser);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            return info;
+        }
+    };
+
+    static final Reader<OpenShiftProviderInfo> PROVIDER_INFO = new Reader<OpenShiftProviderInfo>() {
+        public OpenShiftProviderInfo read(JsonParser parser) throws IOException {
+            OpenShiftProviderInfo info = new OpenShiftProviderInfo();
+            String field;
+            while ((field = nextField(parser)) != null) {
+                if ("issuer".equals(field)) {
+                    info.issuer = stringValue(parser);
+                } else if ("authorization_endpoint".equals(field)) {
+                    info.authorization_endpoint = stringValue(parser);
+                } else if ("token_endpoint".equals(field)) {
+                    info.token_endpoint = stringValue(parser);
+                } else if ("jwks_uri".equals(field)) {
+                    info.jwks_uri = stringValue(parser);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            return info;
+        }
+    };
+
+    private OpenShiftJsonCodec() {
+    }
+
+    /**
+     * Reads a document from the stream, closing it when done. After a
+     * successful read whatever is left of the stream is read and discarded
+     * first, up to {@link #MAX_DRAIN} bytes, so the connection can be
+     * reused.
+     */
+    static <T> T read(JsonFactory factory, InputStream in, Reader<T> reader)
+            throws IOException {
+        if (in == null)
+            throw new EOFException("empty response");
+        JsonParser parser = factory.createJsonParser(in);
+        try {
+            if (parser.nextToken() != JsonToken.START_OBJECT)
+                throw new IOException("expected a JSON object");
+            T result = reader.read(parser);
+            drain(in);
+            return result;
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * @return whether the stream was read to its end
+     */
+    static boolean drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[4096];
+        int drained = 0;
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            drained += n;
+            if (drained > MAX_DRAIN)
+                return false;
+        }
+        return true;
+    }
+
+    private static OpenShiftUserInfo.Metadata readMetadata(JsonParser parser)
+            throws IOException {
+        OpenShiftUserInfo.Metadata metadata = new OpenShiftUserInfo.Metadata();
+        String field;
+        while ((field = nextField(parser)) != null) {
+            if ("name".equals(field)) {
+                metadata.name = stringValue(parser);
+            } else if ("uid".equals(field)) {
+                metadata.uid = stringValue(parser);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return metadata;
+    }
+
+    /**
+     * Advances to the value of the next field of the current object.
+     *
+     * @return the field's name, or null once the object has ended
+     */
+    private static String nextField(JsonParser parser) throws IOException {
+        JsonToken token = parser.nextToken();
+        if (token == null)
+            throw new EOFException("truncated JSON");
+        if (token != JsonToken.FIELD_NAME)
+            return null;
+        String name = parser.getCurrentName();
+        if (parser.nextToken() == null)
+            throw new EOFException("truncated JSON");
+        return name;
+    }
+
+    private static String stringValue(JsonParser parser) throws IOException {
+        JsonToken token = parser.getCurrentToken();
+        if (token == JsonToken.VALUE_STRING)
+            return parser.getText();
+        parser.skipChildren();
+        return null;
+    }
+
+    private static boolean booleanValue(JsonParser parser) {
+        return parser.getCurrentToken() == JsonToken.VALUE_TRUE;
+    }
+
+    private static List<String> stringList(JsonParser parser)
+            throws IOException {
+        if (parser.getCurrentToken() != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return null;
+        }
+        List<String> values = new ArrayList<String>();
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (token == null)
+                throw new EOFException("truncated JSON");
+            if (token == JsonToken.VALUE_STRING)
+                values.add(parser.getText());
+            else
+                parser.skipChildren();
+        }
+        return values;
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.openshift.jenkins.plugins.openshiftlogin;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.google.api.client.http.HttpContent;
+
+/**
+ * A JSON request body encoded up front. Writing it neither encodes nor
+ * allocates, and since it can be written any number of times, one instance
+ * can be shared by concurrent requests and retries.
+ */
+public class OpenShiftJsonContent implements HttpContent {
+
+    private static final String JSON_CONTENT_TYPE = "application/json";
+
+    private final byte[] body;
+
+    /**
+     * @param body
+     *            UTF-8 encoded JSON, which must not be modified afterwards
+     */
+    public OpenShiftJsonContent(byte[] body) {
+        this.body = body;
+    }
+
+    public long getLength() {
+        return body.length;
+    }
+
+    public String getType() {
+        return JSON_CONTENT_TYPE;
+    }
+
+    public boolean retrySupported() {
+        return true;
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(body);
+        out.flush();
+    }
+}
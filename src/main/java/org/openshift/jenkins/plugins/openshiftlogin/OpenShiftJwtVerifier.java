@@ -0,0 +1,264 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.openshift.jenkins.plugins.openshiftlogin;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.JsonObjectParser;
+import com.google.api.client.json.webtoken.JsonWebSignature;
+import com.google.api.client.json.webtoken.JsonWebToken;
+import com.google.api.client.util.Base64;
+
+/**
+ * Verifies Kubernetes service account tokens locally, against the signing
+ * keys the API server publishes through OpenID discovery, so pipelines
+ * calling in with such a token do not cost an identity lookup on the API
+ * server.
+ *
+ * Anything that cannot be verified here, be it a token of another kind, a
+ * legacy service account token without an audience, or a key we do not know,
+ * is left to the regular remote validation by returning null; this class
+ * never rejects a token on its own.
+ */
+public class OpenShiftJwtVerifier {
+
+    static final String DISCOVERY_URI = "/.well-known/openid-configuration";
+    // like the token endpoint, we go to the internal address rather than the
+    // jwks_uri from the discovery document, which is the public one
+    static final String JWKS_URI = "/openid/v1/jwks";
+
+    static final String SERVICE_ACCOUNT_PREFIX = "system:serviceaccount:";
+    private static final String SERVICE_ACCOUNTS_GROUP = "system:serviceaccounts";
+    private static final String AUTHENTICATED_GROUP = "system:authenticated";
+
+    private static final long CLOCK_SKEW_SECONDS = 30;
+    // floor on how often an unknown key id or failed fetch can send us back
+    // to the API server
+    private static final long MIN_FETCH_INTERVAL_MILLIS = 60 * 1000;
+
+    /**
+     * The issuer and keys from one fetch; replaced as a whole.
+     */
+    private static class SigningKeys {
+        final String issuer;
+        final Map<String, PublicKey> byId;
+        final long fetchedAt;
+
+        SigningKeys(String issuer, Map<String, PublicKey> byId, long fetchedAt) {
+            this.issuer = issuer;
+            this.byId = byId;
+            this.fetchedAt = fetchedAt;
+        }
+    }
+
+    private final HttpRequestFactory requestFactory;
+    private final JsonFactory jsonFactory;
+    private final String serverPrefix;
+    private final String audience;
+    private final long refreshMillis;
+
+    private final Object fetchLock = new Object();
+    private volatile SigningKeys keys;
+    private volatile long lastFetch;
+
+    /**
+     * @param initializer
+     *            authenticates the discovery calls, normally with the service
+     *            account token
+     * @param audience
+     *            the audience tokens must be issued for, or null for the
+     *            issuer itself
+     */
+    public OpenShiftJwtVerifier(HttpTransport transport,
+            final HttpRequestInitializer initializer,
+            final JsonFactory jsonFactory, String serverPrefix,
+            String audience, long refreshMillis) {
+        this.requestFactory = transport
+                .createRequestFactory(new HttpRequestInitializer() {
+                    public void initialize(HttpRequest request)
+                            throws IOException {
+                        if (initializer != null)
+                            initializer.initialize(request);
+                        request.setParser(new JsonObjectParser(jsonFactory));
+                    }
+                });
+        this.jsonFactory = jsonFactory;
+        this.serverPrefix = serverPrefix;
+        this.audience = audience;
+        this.refreshMillis = refreshMillis;
+    }
+
+    /**
+     * @return the service account the token was issued to, or null if the
+     *         token could not be verified locally
+     */
+    public OpenShiftUserInfo verify(String token) {
+        // a compact JWS has exactly three parts
+        int first = token.indexOf('.');
+        if (first < 0 || token.indexOf('.', first + 1) < 0)
+            return null;
+        try {
+            JsonWebSignature jws = JsonWebSignature.parse(jsonFactory, token);
+            String kid = jws.getHeader().getKeyId();
+            SigningKeys current = getKeys(kid);
+            if (current == null)
+                return null;
+            PublicKey key = null;
+            if (kid != null)
+                key = current.byId.get(kid);
+            else if (current.byId.size() == 1)
+                key = current.byId.values().iterator().next();
+            if (key == null || !jws.verifySignature(key))
+                return null;
+            return toUserInfo(jws.getPayload(), current.issuer);
+        } catch (IllegalArgumentException e) {
+            // not a JWS after all
+        } catch (IOException e) {
+        } catch (GeneralSecurityException e) {
+        }
+        return null;
+    }
+
+    private OpenShiftUserInfo toUserInfo(JsonWebToken.Payload payload,
+            String issuer) {
+        if (!issuer.equals(payload.getIssuer()))
+            return null;
+        long now = System.currentTimeMillis() / 1000;
+        Long exp = payload.getExpirationTimeSeconds();
+        if (exp == null || now > exp.longValue() + CLOCK_SKEW_SECONDS)
+            return null;
+        Long nbf = payload.getNotBeforeTimeSeconds();
+        if (nbf != null && now + CLOCK_SKEW_SECONDS < nbf.longValue())
+            return null;
+        List<String> audiences = payload.getAudienceAsList();
+        if (!audiences.contains(audience != null ? audience : issuer))
+            return null;
+        String subject = payload.getSubject();
+        if (subject == null || !subject.startsWith(SERVICE_ACCOUNT_PREFIX))
+            return null;
+        String[] parts = subject.split(":");
+        if (parts.length != 4)
+            return null;
+
+        OpenShiftUserInfo info = new OpenShiftUserInfo();
+        info.metadata = new OpenShiftUserInfo.Metadata();
+        info.metadata.name = subject;
+        info.groups = new ArrayList<String>();
+        info.groups.add(SERVICE_ACCOUNTS_GROUP);
+        info.groups.add(SERVICE_ACCOUNTS_GROUP + ":" + parts[2]);
+        info.groups.add(AUTHENTICATED_GROUP);
+        return info;
+    }
+
+    /**
+     * @return the current keys, fetched anew if they are older than the
+     *         refresh interval or do not include the key id
+     */
+    private SigningKeys getKeys(String kid) {
+        SigningKeys current = keys;
+        if (current != null
+                && System.currentTimeMillis() - current.fetchedAt < refreshMillis
+                && (kid == null || current.byId.containsKey(kid)))
+            return current;
+        synchronized (fetchLock) {
+            current = keys;
+            long now = System.currentTimeMillis();
+            if (now - lastFetch < MIN_FETCH_INTERVAL_MILLIS)
+                return current;
+            lastFetch = now;
+            try {
+                current = fetchKeys();
+                keys = current;
+            } catch (Throwable t) {
+                // keep going with what we have; until the next attempt,
+                // tokens we cannot verify go to the API server
+                if (OpenShiftOAuth2SecurityRealm.LOGGER.isLoggable(Level.FINE))
+                    OpenShiftOAuth2SecurityRealm.LOGGER.log(Level.FINE,
+                            "getKeys", t);
+            }
+            return current;
+        }
+    }
+
+    private SigningKeys fetchKeys() throws IOException,
+            GeneralSecurityException {
+        OpenShiftProviderInfo discovery = get(DISCOVERY_URI,
+                OpenShiftProviderInfo.class);
+        if (discovery == null || discovery.issuer == null)
+            throw new IOException("no issuer in " + DISCOVERY_URI);
+        OpenShiftJsonWebKeySet jwks = get(JWKS_URI,
+                OpenShiftJsonWebKeySet.class);
+        Map<String, PublicKey> byId = new HashMap<String, PublicKey>();
+        if (jwks != null && jwks.keys != null) {
+            KeyFactory factory = KeyFactory.getInstance("RSA");
+            for (OpenShiftJsonWebKeySet.JsonWebKey key : jwks.keys) {
+                if (!"RSA".equals(key.kty) || key.n == null || key.e == null
+                        || (key.use != null && !"sig".equals(key.use)))
+                    continue;
+                byId.put(key.kid, factory.generatePublic(new RSAPublicKeySpec(
+                        new BigInteger(1, Base64.decodeBase64(key.n)),
+                        new BigInteger(1, Base64.decodeBase64(key.e)))));
+            }
+        }
+        if (OpenShiftOAuth2SecurityRealm.LOGGER.isLoggable(Level.FINE))
+            OpenShiftOAuth2SecurityRealm.LOGGER.fine(String.format(
+                    "fetchKeys: issuer %s key ids %s", discovery.issuer,
+                    byId.keySet()));
+        return new SigningKeys(discovery.issuer,
+                Collections.unmodifiableMap(byId), System.currentTimeMillis());
+    }
+
+    private <T> T get(String uri, Class<T> type) throws IOException {
+        HttpRequest request = requestFactory.buildGetRequest(new GenericUrl(
+                serverPrefix + uri));
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            T result = OpenShiftApiGuard.getInstance().execute(request)
+                    .parseAs(type);
+            failed = false;
+            return result;
+        } finally {
+            OpenShiftMetrics.recordCall(OpenShiftMetrics.Endpoint.JWKS,
+                    System.nanoTime() - start, failed);
+        }
+    }
+}
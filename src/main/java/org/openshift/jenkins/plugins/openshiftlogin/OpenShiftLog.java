@@ -0,0 +1,179 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.openshift.jenkins.plugins.openshiftlogin;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Logging for the paths that run on every login, poll or request.
+ *
+ * Each statement has a key, and only one statement per key is logged every
+ * OPENSHIFT_LOG_INTERVAL seconds (default 60, 0 to log everything); the next
+ * one logged reports how many were suppressed in between. The parameters
+ * are key/value pairs, rendered as key=value after the message, and only
+ * once the statement is actually going to be logged.
+ */
+public class OpenShiftLog {
+
+    private static final String OPENSHIFT_LOG_INTERVAL = "OPENSHIFT_LOG_INTERVAL"; // seconds
+    private static final long DEFAULT_LOG_INTERVAL = 60;
+
+    private static final AtomicLong SUPPRESSED = new AtomicLong();
+
+    private static class Window {
+        final AtomicLong lastLogged;
+        final AtomicInteger suppressed = new AtomicInteger();
+
+        Window(long now, long intervalNanos) {
+            // so that the first statement is logged
+            this.lastLogged = new AtomicLong(now - intervalNanos - 1);
+        }
+    }
+
+    private final Logger logger;
+    private final long intervalNanos;
+    private final ConcurrentMap<String, Window> windows = new ConcurrentHashMap<String, Window>();
+
+    public OpenShiftLog(Logger logger) {
+        this(logger, TimeUnit.SECONDS.toMillis(OpenShiftEnvVars.getLong(
+                OPENSHIFT_LOG_INTERVAL, DEFAULT_LOG_INTERVAL)));
+    }
+
+    OpenShiftLog(Logger logger, long intervalMillis) {
+        this.logger = logger;
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+    }
+
+    /**
+     * @param keyValues
+     *            alternating keys and values; the values are turned into
+     *            strings only if the statement is logged
+     */
+    public void log(Level level, String key, String message,
+            Object... keyValues) {
+        if (!logger.isLoggable(level))
+            return;
+        int suppressed = acquire(key);
+        if (suppressed < 0)
+            return;
+        logger.log(level, render(message, keyValues, suppressed));
+    }
+
+    public void log(Level level, String key, String message, Throwable thrown) {
+        if (!logger.isLoggable(level))
+            return;
+        int suppressed = acquire(key);
+        if (suppressed < 0)
+            return;
+        LogRecord record = new LogRecord(level, render(message, new Object[0],
+                suppressed));
+        record.setThrown(thrown);
+        record.setLoggerName(logger.getName());
+        logger.log(record);
+    }
+
+    /**
+     * @return the number of statements suppressed since the key was last
+     *         logged, or -1 if this one is to be suppressed as well
+     */
+    private int acquire(String key) {
+        if (intervalNanos <= 0)
+            return 0;
+        long now = System.nanoTime();
+        Window window = windows.get(key);
+        if (window == null) {
+            Window created = new Window(now, intervalNanos);
+            window = windows.putIfAbsent(key, created);
+            if (window == null)
+                window = created;
+        }
+        long last = window.lastLogged.get();
+        if (now - last < intervalNanos
+                || !window.lastLogged.compareAndSet(last, now)) {
+            window.suppressed.incrementAndGet();
+            SUPPRESSED.incrementAndGet();
+            return -1;
+        }
+        return window.suppressed.getAndSet(0);
+    }
+
+    static String render(String message, Object[] keyValues, int suppressed) {
+        StringBuilder line = new StringBuilder(message);
+        for (int i = 0; i + 1 < keyValues.length; i += 2) {
+            line.append(' ').append(keyValues[i]).append('=');
+            appendValue(line, keyValues[i + 1]);
+        }
+        if (suppressed > 0)
+            line.append(" suppressed=").append(suppressed);
+        return line.toString();
+    }
+
+    private static void appendValue(StringBuilder line, Object value) {
+        String s = String.valueOf(value);
+        boolean quote = s.isEmpty();
+        for (int i = 0; i < s.length() && !quote; i++) {
+            char c = s.charAt(i);
+            quote = Character.isWhitespace(c) || c == '"' || c == '=';
+        }
+        if (!quote) {
+            line.append(s);
+            return;
+        }
+        line.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\')
+                line.append('\\');
+            line.append(c);
+        }
+        line.append('"');
+    }
+
+    /**
+     * @return a value that shows only the start of the secret
+     */
+    static Object masked(final String secret) {
+        return new Object() {
+            @Override
+            public String toString() {
+                return secret != null && secret.length() > 6 ? secret
+                        .substring(0, 5) + "......." : "null";
+            }
+        };
+    }
+
+    /**
+     * @return the statements suppressed so far, across all loggers
+     */
+    static long getSuppressed() {
+        return SUPPRESSED.get();
+    }
+}
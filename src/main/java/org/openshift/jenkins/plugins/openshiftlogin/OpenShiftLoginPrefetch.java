@@ -0,0 +1,146 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.openshift.jenkins.plugins.openshiftlogin;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+
+/**
+ * With OPENSHIFT_LOGIN_PREFETCH=true, the time the user spends on the
+ * OpenShift login page is put to use: commencing a login no longer runs the
+ * realm's populateDefaults on the request thread, but starts a background
+ * task that re-runs it if it is older than OPENSHIFT_LOGIN_PREFETCH_TTL
+ * seconds, or else just fetches the provider discovery document. Either way
+ * the connection to the API server, which also serves /oauth/token, is
+ * opened and handed back to the transport's keep-alive pool before the user
+ * returns, and the finishing login skips populateDefaults while it is fresh.
+ */
+public class OpenShiftLoginPrefetch {
+
+    static final String OPENSHIFT_LOGIN_PREFETCH = "OPENSHIFT_LOGIN_PREFETCH";
+    private static final String OPENSHIFT_LOGIN_PREFETCH_TTL = "OPENSHIFT_LOGIN_PREFETCH_TTL";
+    private static final long DEFAULT_TTL_SECONDS = 60;
+
+    /**
+     * What a prefetch does, implemented by the realm.
+     */
+    interface Target {
+        /**
+         * Re-runs discovery.
+         *
+         * @return whether it succeeded
+         */
+        boolean refresh() throws Exception;
+
+        /**
+         * Makes a cheap call to the API server, reading the whole response.
+         */
+        void warm() throws Exception;
+    }
+
+    private static volatile OpenShiftLoginPrefetch instance;
+
+    private final long ttlNanos;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile long refreshedAt;
+    private volatile boolean refreshed;
+
+    OpenShiftLoginPrefetch(long ttlNanos) {
+        this.ttlNanos = ttlNanos;
+    }
+
+    static OpenShiftLoginPrefetch getInstance() {
+        if (instance == null) {
+            synchronized (OpenShiftLoginPrefetch.class) {
+                if (instance == null)
+                    instance = new OpenShiftLoginPrefetch(
+                            TimeUnit.SECONDS.toNanos(OpenShiftEnvVars.getLong(
+                                    OPENSHIFT_LOGIN_PREFETCH_TTL,
+                                    DEFAULT_TTL_SECONDS)));
+            }
+        }
+        return instance;
+    }
+
+    static boolean isEnabled() {
+        return OpenShiftEnvVars.getBoolean(OPENSHIFT_LOGIN_PREFETCH, false);
+    }
+
+    /**
+     * Called whenever populateDefaults succeeds, wherever it ran.
+     */
+    void markRefreshed() {
+        refreshedAt = System.nanoTime();
+        refreshed = true;
+    }
+
+    /**
+     * @return whether populateDefaults succeeded within the TTL
+     */
+    boolean isFresh() {
+        return refreshed && System.nanoTime() - refreshedAt < ttlNanos;
+    }
+
+    /**
+     * Starts a prefetch on the pool, unless one is already running; the
+     * logins commenced meanwhile all benefit from it.
+     *
+     * @return whether a prefetch was started
+     */
+    boolean start(Executor pool, final Target target) {
+        if (!running.compareAndSet(false, true))
+            return false;
+        try {
+            pool.execute(new Runnable() {
+                public void run() {
+                    try {
+                        if (isFresh()) {
+                            target.warm();
+                            OpenShiftMetrics.recordPrefetch(true);
+                        } else {
+                            // populateDefaults marks itself refreshed
+                            OpenShiftMetrics.recordPrefetch(target.refresh());
+                        }
+                    } catch (Throwable t) {
+                        // the login just runs on cold connections
+                        OpenShiftMetrics.recordPrefetch(false);
+                        if (OpenShiftOAuth2SecurityRealm.LOGGER
+                                .isLoggable(Level.FINE))
+                            OpenShiftOAuth2SecurityRealm.LOGGER.log(
+                                    Level.FINE, "prefetch", t);
+                    } finally {
+                        running.set(false);
+                    }
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            running.set(false);
+            return false;
+        }
+    }
+}
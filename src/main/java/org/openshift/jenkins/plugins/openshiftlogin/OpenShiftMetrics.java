@@ -0,0 +1,406 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.openshift.jenkins.plugins.openshiftlogin;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and latency histograms for what this plugin costs the Jenkins
+ * master and the OpenShift API server.
+ *
+ * Everything here is static and recorded with atomics only, so instrumenting
+ * the request path does not allocate or lock; {@link #snapshot()} builds the
+ * view consumed by {@link OpenShiftMetricsAction} and the JMX bean.
+ */
+public class OpenShiftMetrics {
+
+    /**
+     * The OpenShift API endpoints the realm calls.
+     */
+    public enum Endpoint {
+        USER_INFO("userInfo"), OAUTH_PROVIDER("oauthProvider"), SAR("sar"), TOKEN(
+                "token"), TOKEN_REVIEW("tokenReview"), JWKS("jwks"), GROUPS(
+                "groups"), ROLE_BINDINGS("roleBindings");
+
+        private final String metricName;
+
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final OpenShiftLatencyHistogram latency = new OpenShiftLatencyHistogram();
+
+        Endpoint(String metricName) {
+            this.metricName = metricName;
+        }
+
+        public String getMetricName() {
+            return metricName;
+        }
+
+        public long getCalls() {
+            return calls.get();
+        }
+
+        public long getErrors() {
+            return errors.get();
+        }
+
+        public OpenShiftLatencyHistogram getLatency() {
+            return latency;
+        }
+    }
+
+    static final OpenShiftLatencyHistogram FILTER_LATENCY = new OpenShiftLatencyHistogram();
+    static final OpenShiftLatencyHistogram MATRIX_REBUILD_LATENCY = new OpenShiftLatencyHistogram();
+    static final OpenShiftLatencyHistogram SAVE_LATENCY = new OpenShiftLatencyHistogram();
+    static final OpenShiftLatencyHistogram JOURNAL_LATENCY = new OpenShiftLatencyHistogram();
+    static final OpenShiftLatencyHistogram POPULATE_DEFAULTS_LATENCY = new OpenShiftLatencyHistogram();
+    static final OpenShiftLatencyHistogram SERVICE_ACCOUNT_LOAD_LATENCY = new OpenShiftLatencyHistogram();
+    static final OpenShiftLatencyHistogram API_QUEUE_WAIT = new OpenShiftLatencyHistogram();
+
+    static final AtomicLong BEARER_CACHE_HITS = new AtomicLong();
+    static final AtomicLong BEARER_CACHE_MISSES = new AtomicLong();
+    static final AtomicLong BEARER_CACHE_EVICTIONS = new AtomicLong();
+    static final AtomicLong IDENTITY_CACHE_HITS = new AtomicLong();
+    static final AtomicLong IDENTITY_CACHE_MISSES = new AtomicLong();
+    static final AtomicLong GROUP_ROLE_HITS = new AtomicLong();
+    static final AtomicLong GROUP_ROLE_MISSES = new AtomicLong();
+    static final AtomicLong NAMESPACE_ROLE_HITS = new AtomicLong();
+    static final AtomicLong NAMESPACE_ROLE_MISSES = new AtomicLong();
+    static final AtomicLong JWT_VERIFIED = new AtomicLong();
+    static final AtomicLong JWT_FALLBACKS = new AtomicLong();
+    static final AtomicLong REVALIDATIONS = new AtomicLong();
+    static final AtomicLong REVALIDATION_FAILURES = new AtomicLong();
+    static final AtomicLong REVALIDATIONS_DEFERRED = new AtomicLong();
+    static final AtomicLong MATRIX_SIZE = new AtomicLong();
+    static final AtomicLong STALE_DECISIONS = new AtomicLong();
+    static final AtomicLong RESTORED_DECISIONS = new AtomicLong();
+    static final AtomicLong STARTUP_DETECTION_MICROS = new AtomicLong();
+    static final AtomicLong STARTUP_READY_MICROS = new AtomicLong();
+    static final AtomicLong STARTUP_REJECTIONS = new AtomicLong();
+    static final AtomicLong PREFETCHES = new AtomicLong();
+    static final AtomicLong PREFETCH_FAILURES = new AtomicLong();
+    static final AtomicLong PREFETCH_HITS = new AtomicLong();
+
+    private OpenShiftMetrics() {
+    }
+
+    public static void recordCall(Endpoint endpoint, long nanos, boolean failed) {
+        endpoint.calls.incrementAndGet();
+        if (failed)
+            endpoint.errors.incrementAndGet();
+        endpoint.latency.record(nanos);
+    }
+
+    /**
+     * Records how long an API call waited in {@link OpenShiftExecutors#api()}
+     * before it started.
+     */
+    public static void recordApiQueueWait(long nanos) {
+        API_QUEUE_WAIT.record(nanos);
+    }
+
+    public static void recordFilter(long nanos) {
+        FILTER_LATENCY.record(nanos);
+    }
+
+    public static void recordBearerCacheHit() {
+        BEARER_CACHE_HITS.incrementAndGet();
+    }
+
+    public static void recordBearerCacheMiss() {
+        BEARER_CACHE_MISSES.incrementAndGet();
+    }
+
+    public static void recordBearerCacheEviction() {
+        BEARER_CACHE_EVICTIONS.incrementAndGet();
+    }
+
+    public static void recordIdentityCacheHit() {
+        IDENTITY_CACHE_HITS.incrementAndGet();
+    }
+
+    public static void recordIdentityCacheMiss() {
+        IDENTITY_CACHE_MISSES.incrementAndGet();
+    }
+
+    public static void recordGroupRolesHit() {
+        GROUP_ROLE_HITS.incrementAndGet();
+    }
+
+    public static void recordGroupRolesMiss() {
+        GROUP_ROLE_MISSES.incrementAndGet();
+    }
+
+    public static void recordNamespaceRolesHit() {
+        NAMESPACE_ROLE_HITS.incrementAndGet();
+    }
+
+    public static void recordNamespaceRolesMiss() {
+        NAMESPACE_ROLE_MISSES.incrementAndGet();
+    }
+
+    /**
+     * Counts bearer tokens whose identity was, or could not be, established
+     * locally by {@link OpenShiftJwtVerifier}.
+     */
+    public static void recordJwtVerification(boolean verified) {
+        if (verified)
+            JWT_VERIFIED.incrementAndGet();
+        else
+            JWT_FALLBACKS.incrementAndGet();
+    }
+
+    /**
+     * Counts background revalidations by {@link OpenShiftPermissionScheduler}.
+     */
+    public static void recordRevalidation(boolean succeeded) {
+        if (succeeded)
+            REVALIDATIONS.incrementAndGet();
+        else
+            REVALIDATION_FAILURES.incrementAndGet();
+    }
+
+    /**
+     * Counts due revalidations pushed to a later tick for lack of API budget.
+     */
+    public static void recordRevalidationsDeferred(int count) {
+        REVALIDATIONS_DEFERRED.addAndGet(count);
+    }
+
+    public static void recordMatrixRebuild(long nanos, int size) {
+        MATRIX_REBUILD_LATENCY.record(nanos);
+        MATRIX_SIZE.set(size);
+    }
+
+    /**
+     * Counts requests served with a previous role decision because the API
+     * server could not be reached.
+     */
+    public static void recordStaleDecision() {
+        STALE_DECISIONS.incrementAndGet();
+    }
+
+    /**
+     * Counts bearer token decisions loaded by
+     * {@link OpenShiftDecisionSnapshot} at startup.
+     */
+    public static void recordRestoredDecisions(int count) {
+        RESTORED_DECISIONS.addAndGet(count);
+    }
+
+    /**
+     * Records how long the first realm detection took to run, and how long
+     * after it was requested it finished.
+     */
+    public static void recordStartup(long detectionNanos, long readyNanos) {
+        STARTUP_DETECTION_MICROS.set(detectionNanos / 1000);
+        STARTUP_READY_MICROS.set(readyNanos / 1000);
+    }
+
+    /**
+     * Counts requests answered with a 503 by {@link OpenShiftStartupGate}.
+     */
+    public static void recordStartupRejection() {
+        STARTUP_REJECTIONS.incrementAndGet();
+    }
+
+    /**
+     * Records a run of the realm's populateDefaults, and the part of it spent
+     * reading the service account files and building the trust store.
+     */
+    public static void recordPopulateDefaults(long nanos,
+            long serviceAccountNanos) {
+        POPULATE_DEFAULTS_LATENCY.record(nanos);
+        SERVICE_ACCOUNT_LOAD_LATENCY.record(serviceAccountNanos);
+    }
+
+    /**
+     * Counts runs of {@link OpenShiftLoginPrefetch}.
+     */
+    public static void recordPrefetch(boolean succeeded) {
+        if (succeeded)
+            PREFETCHES.incrementAndGet();
+        else
+            PREFETCH_FAILURES.incrementAndGet();
+    }
+
+    /**
+     * Counts logins that skipped populateDefaults as a prefetch had just run
+     * it.
+     */
+    public static void recordPrefetchHit() {
+        PREFETCH_HITS.incrementAndGet();
+    }
+
+    public static void recordSave(long nanos) {
+        SAVE_LATENCY.record(nanos);
+    }
+
+    /**
+     * Records a grant appended to the {@link OpenShiftGrantJournal} in place
+     * of a save.
+     */
+    public static void recordJournalAppend(long nanos) {
+        JOURNAL_LATENCY.record(nanos);
+    }
+
+    public static long getBearerCacheHits() {
+        return BEARER_CACHE_HITS.get();
+    }
+
+    public static long getBearerCacheMisses() {
+        return BEARER_CACHE_MISSES.get();
+    }
+
+    public static long getBearerCacheEvictions() {
+        return BEARER_CACHE_EVICTIONS.get();
+    }
+
+    public static long getMatrixSize() {
+        return MATRIX_SIZE.get();
+    }
+
+    /**
+     * @return a point in time copy of every metric, keyed by a dotted name;
+     *         latencies are in microseconds
+     */
+    public static Map<String, Long> snapshot() {
+        Map<String, Long> values = new LinkedHashMap<String, Long>();
+        for (Endpoint endpoint : Endpoint.values()) {
+            String prefix = "api." + endpoint.getMetricName();
+            values.put(prefix + ".calls", endpoint.getCalls());
+            values.put(prefix + ".errors", endpoint.getErrors());
+            putLatency(values, prefix, endpoint.getLatency());
+        }
+        OpenShiftApiGuard guard = OpenShiftApiGuard.getInstance();
+        values.put("api.circuit.state", (long) guard.getState().ordinal());
+        values.put("api.circuit.opened", guard.getCircuitOpened());
+        values.put("api.circuit.rejected", guard.getCircuitRejections());
+        values.put("api.bulkhead.inFlight", (long) guard.getInFlight());
+        values.put("api.bulkhead.rejected", guard.getBulkheadRejections());
+        values.put("api.executor.virtual",
+                OpenShiftExecutors.isApiVirtual() ? 1L : 0L);
+        values.put("api.executor.active",
+                (long) OpenShiftExecutors.getApiActive());
+        values.put("api.executor.queued",
+                (long) OpenShiftExecutors.getApiQueued());
+        putLatency(values, "api.executor.wait", API_QUEUE_WAIT);
+        putLatency(values, "filter", FILTER_LATENCY);
+        values.put("filter.staleDecisions", STALE_DECISIONS.get());
+        values.put("bearerCache.hits", BEARER_CACHE_HITS.get());
+        values.put("bearerCache.misses", BEARER_CACHE_MISSES.get());
+        values.put("bearerCache.evictions", BEARER_CACHE_EVICTIONS.get());
+        values.put("bearerCache.restored", RESTORED_DECISIONS.get());
+        values.put("identityCache.hits", IDENTITY_CACHE_HITS.get());
+        values.put("identityCache.misses", IDENTITY_CACHE_MISSES.get());
+        values.put("groupRoles.hits", GROUP_ROLE_HITS.get());
+        values.put("groupRoles.misses", GROUP_ROLE_MISSES.get());
+        values.put("namespaceRoles.hits", NAMESPACE_ROLE_HITS.get());
+        values.put("namespaceRoles.misses", NAMESPACE_ROLE_MISSES.get());
+        values.put("namespaceRoles.size", (long) OpenShiftNamespaceRoles
+                .getInstance().size());
+        values.put("jwt.verified", JWT_VERIFIED.get());
+        values.put("jwt.fallbacks", JWT_FALLBACKS.get());
+        values.put("scheduler.revalidations", REVALIDATIONS.get());
+        values.put("scheduler.failures", REVALIDATION_FAILURES.get());
+        values.put("scheduler.deferred", REVALIDATIONS_DEFERRED.get());
+        values.put("scheduler.activeUsers", (long) OpenShiftActiveUsers.size());
+        values.put("api.budget.available", OpenShiftRateLimiter.getInstance()
+                .getAvailable());
+        values.put("matrix.rebuilds", MATRIX_REBUILD_LATENCY.getCount());
+        values.put("matrix.size", MATRIX_SIZE.get());
+        putLatency(values, "matrix.rebuild", MATRIX_REBUILD_LATENCY);
+        values.put("save.count", SAVE_LATENCY.getCount());
+        putLatency(values, "save", SAVE_LATENCY);
+        values.put("journal.count", JOURNAL_LATENCY.getCount());
+        putLatency(values, "journal", JOURNAL_LATENCY);
+        values.put("login.async.queued",
+                (long) OpenShiftAsyncLogin.getQueueDepth());
+        values.put("login.async.rejected", OpenShiftAsyncLogin.getRejected());
+        values.put("login.prefetch.count", PREFETCHES.get());
+        values.put("login.prefetch.failures", PREFETCH_FAILURES.get());
+        values.put("login.prefetch.hits", PREFETCH_HITS.get());
+        values.put("log.suppressed", OpenShiftLog.getSuppressed());
+        values.put("startup.detection", STARTUP_DETECTION_MICROS.get());
+        values.put("startup.ready", STARTUP_READY_MICROS.get());
+        values.put("startup.rejected", STARTUP_REJECTIONS.get());
+        values.put("populateDefaults.count",
+                POPULATE_DEFAULTS_LATENCY.getCount());
+        putLatency(values, "populateDefaults", POPULATE_DEFAULTS_LATENCY);
+        putLatency(values, "populateDefaults.serviceAccount",
+                SERVICE_ACCOUNT_LOAD_LATENCY);
+        return values;
+    }
+
+    private static void putLatency(Map<String, Long> values, String prefix,
+            OpenShiftLatencyHistogram histogram) {
+        values.put(prefix + ".latency.p50", histogram.getPercentileMicros(50));
+        values.put(prefix + ".latency.p99", histogram.getPercentileMicros(99));
+        values.put(prefix + ".latency.mean", histogram.getMeanMicros());
+        values.put(prefix + ".latency.max", histogram.getMaxMicros());
+    }
+
+    /**
+     * Exposed for testing.
+     */
+    static void reset() {
+        for (Endpoint endpoint : Endpoint.values()) {
+            endpoint.calls.set(0);
+            endpoint.errors.set(0);
+            endpoint.latency.reset();
+        }
+        FILTER_LATENCY.reset();
+        MATRIX_REBUILD_LATENCY.reset();
+        SAVE_LATENCY.reset();
+        JOURNAL_LATENCY.reset();
+        POPULATE_DEFAULTS_LATENCY.reset();
+        SERVICE_ACCOUNT_LOAD_LATENCY.reset();
+        API_QUEUE_WAIT.reset();
+        BEARER_CACHE_HITS.set(0);
+        BEARER_CACHE_MISSES.set(0);
+        BEARER_CACHE_EVICTIONS.set(0);
+        IDENTITY_CACHE_HITS.set(0);
+        IDENTITY_CACHE_MISSES.set(0);
+        GROUP_ROLE_HITS.set(0);
+        GROUP_ROLE_MISSES.set(0);
+        NAMESPACE_ROLE_HITS.set(0);
+        NAMESPACE_ROLE_MISSES.set(0);
+        JWT_VERIFIED.set(0);
+        JWT_FALLBACKS.set(0);
+        REVALIDATIONS.set(0);
+        REVALIDATION_FAILURES.set(0);
+        REVALIDATIONS_DEFERRED.set(0);
+        MATRIX_SIZE.set(0);
+        STALE_DECISIONS.set(0);
+        RESTORED_DECISIONS.set(0);
+        STARTUP_DETECTION_MICROS.set(0);
+        STARTUP_READY_MICROS.set(0);
+        STARTUP_REJECTIONS.set(0);
+        PREFETCHES.set(0);
+        PREFETCH_FAILURES.set(0);
+        PREFETCH_HITS.set(0);
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.openshift.jenkins.plugins.openshiftlogin;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.logging.Level;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import hudson.Extension;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.init.Terminator;
+import hudson.model.RootAction;
+import jenkins.model.Jenkins;
+
+/**
+ * Exposes {@link OpenShiftMetrics} as plain text at
+ * JENKINS_URL/openshift-login-metrics (administrators only) and as the JMX
+ * bean {@value #OBJECT_NAME}.
+ */
+@Extension
+public class OpenShiftMetricsAction implements RootAction {
+
+    static final String URL_NAME = "openshift-login-metrics";
+    static final String OBJECT_NAME = "org.openshift.jenkins.plugins.openshiftlogin:type=Metrics";
+
+    public String getIconFileName() {
+        // not listed in the side panel
+        return null;
+    }
+
+    public String getDisplayName() {
+        return "OpenShift Login Metrics";
+    }
+
+    public String getUrlName() {
+        return URL_NAME;
+    }
+
+    public void doIndex(StaplerRequest req, StaplerResponse rsp)
+            throws IOException {
+        Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+        rsp.setContentType("text/plain;charset=UTF-8");
+        PrintWriter w = rsp.getWriter();
+        for (Entry<String, Long> entry : OpenShiftMetrics.snapshot()
+                .entrySet()) {
+            w.print(entry.getKey());
+            w.print(' ');
+            w.println(entry.getValue());
+        }
+        w.flush();
+    }
+
+    @Initializer(after = InitMilestone.PLUGINS_STARTED)
+    public static void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name))
+                server.registerMBean(new MetricsMBean(), name);
+        } catch (Throwable t) {
+            OpenShiftOAuth2SecurityRealm.LOGGER.log(Level.INFO,
+                    "registerMBean", t);
+        }
+    }
+
+    @Terminator
+    public static void unregisterMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name))
+                server.unregisterMBean(name);
+        } catch (Throwable t) {
+            OpenShiftOAuth2SecurityRealm.LOGGER.log(Level.FINE,
+                    "unregisterMBean", t);
+        }
+    }
+
+    /**
+     * Read only bean with one long attribute per metric; the attribute set
+     * is derived from {@link OpenShiftMetrics#snapshot()} so new metrics show
+     * up without touching this class.
+     */
+    static class MetricsMBean implements DynamicMBean {
+
+        public Object getAttribute(String attribute)
+                throws AttributeNotFoundException {
+            Long value = OpenShiftMetrics.snapshot().get(attribute);
+            if (value == null)
+                throw new AttributeNotFoundException(attribute);
+            return value;
+        }
+
+        public void setAttribute(Attribute attribute)
+                throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("read only: "
+                    + attribute.getName());
+        }
+
+        public AttributeList getAttributes(String[] attributes) {
+            Map<String, Long> snapshot = OpenShiftMetrics.snapshot();
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                Long value = snapshot.get(attribute);
+                if (value != null)
+                    list.add(new Attribute(attribute, value));
+            }
+            return list;
+        }
+
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        public Object invoke(String actionName, Object[] params,
+                String[] signature) throws ReflectionException {
+            // the MBean has no operations
+            throw new ReflectionException(new NoSuchMethodException(
+                    actionName));
+        }
+
+        public MBeanInfo getMBeanInfo() {
+            Map<String, Long> snapshot = OpenShiftMetrics.snapshot();
+            MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[snapshot
+                    .size()];
+            int i = 0;
+            for (String name : snapshot.keySet()) {
+                attributes[i++] = new MBeanAttributeInfo(name,
+                        Long.class.getName(), name, true, false, false);
+            }
+            return new MBeanInfo(MetricsMBean.class.getName(),
+                    "OpenShift Login plugin metrics", attributes, null,
+                    new MBeanOperationInfo[0], null);
+        }
+    }
+}
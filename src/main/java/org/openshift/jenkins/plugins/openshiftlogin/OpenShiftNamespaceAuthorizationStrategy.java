@@ -0,0 +1,254 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.openshift.jenkins.plugins.openshiftlogin;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import hudson.Extension;
+import hudson.model.AbstractItem;
+import hudson.model.Item;
+import hudson.model.ItemGroup;
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.model.User;
+import hudson.model.View;
+import hudson.scm.SCM;
+import hudson.security.ACL;
+import hudson.security.GlobalMatrixAuthorizationStrategy;
+import hudson.security.Permission;
+import hudson.security.PermissionGroup;
+import hudson.security.ProjectMatrixAuthorizationStrategy;
+import jenkins.model.Jenkins;
+
+import org.acegisecurity.Authentication;
+import org.acegisecurity.context.SecurityContext;
+import org.acegisecurity.context.SecurityContextHolder;
+import org.acegisecurity.providers.UsernamePasswordAuthenticationToken;
+
+import com.thoughtworks.xstream.mapper.Mapper;
+
+/**
+ * A project matrix that, with OPENSHIFT_NAMESPACE_AUTHORIZATION=true, also
+ * maps each top level folder to the OpenShift namespace of the same name: a
+ * user's role in that namespace grants them the Jenkins permissions of the
+ * role on the folder and everything in it, on top of whatever the matrix
+ * grants them.
+ *
+ * Admins select it as "OpenShift project matrix-based security" in Configure
+ * Global Security; the realm keeps it when it adds users to the matrix. The
+ * roles are resolved by {@link OpenShiftNamespaceRoles}, and only grant the
+ * job, build, SCM and view permissions of the role; what a role means for
+ * Jenkins as a whole, such as administering it or running scripts, comes
+ * from the matrix alone.
+ */
+public class OpenShiftNamespaceAuthorizationStrategy extends
+        ProjectMatrixAuthorizationStrategy {
+
+    // the permissions a namespace role can grant on a folder
+    private static final List<PermissionGroup> SCOPED = Arrays.asList(
+            Item.PERMISSIONS, Run.PERMISSIONS, SCM.PERMISSIONS,
+            View.PERMISSIONS);
+
+    // the folder permissions of each role, keyed by the role name
+    private static volatile Map<String, Set<Permission>> rolePermissions;
+
+    static final String DISPLAY_NAME = "OpenShift project matrix-based security";
+
+    @Override
+    public ACL getACL(Job<?, ?> project) {
+        return withNamespace(project, super.getACL(project));
+    }
+
+    @Override
+    public ACL getACL(AbstractItem item) {
+        return withNamespace(item, super.getACL(item));
+    }
+
+    /**
+     * @return whether OPENSHIFT_NAMESPACE_AUTHORIZATION=true and the admin
+     *         has selected this strategy
+     */
+    static boolean isInUse() {
+        Jenkins jenkins = Jenkins.getInstance();
+        return OpenShiftNamespaceRoles.isEnabled() && jenkins != null
+                && jenkins.getAuthorizationStrategy() instanceof OpenShiftNamespaceAuthorizationStrategy;
+    }
+
+    private static ACL withNamespace(Item item, ACL acl) {
+        String namespace = getNamespace(item);
+        return namespace != null ? new NamespaceACL(namespace, acl) : acl;
+    }
+
+    /**
+     * @return the name of the top level folder the item is, or is in, or null
+     *         for a top level item that is not a folder
+     */
+    static String getNamespace(Item item) {
+        Item top = item;
+        ItemGroup<?> parent = item.getParent();
+        while (parent instanceof Item) {
+            top = (Item) parent;
+            parent = top.getParent();
+        }
+        if (top == item && !(item instanceof ItemGroup))
+            return null;
+        return top.getName();
+    }
+
+    /**
+     * @return the top level folders, all of which are namespaces
+     */
+    static List<String> getNamespaces() {
+        List<String> namespaces = new ArrayList<String>();
+        // the items are filtered by what the caller may read, which is what
+        // we are in the middle of working out
+        SecurityContext old = ACL.impersonate(ACL.SYSTEM);
+        try {
+            for (Item item : Jenkins.getInstance().getItems()) {
+                if (item instanceof ItemGroup)
+                    namespaces.add(item.getName());
+            }
+        } finally {
+            SecurityContextHolder.setContext(old);
+        }
+        return namespaces;
+    }
+
+    static boolean isGranted(Set<String> roles, Permission permission) {
+        if (!SCOPED.contains(permission.group))
+            return false;
+        Map<String, Set<Permission>> granted = rolePermissions;
+        if (granted == null) {
+            GlobalMatrixAuthorizationStrategy matrix = new GlobalMatrixAuthorizationStrategy();
+            for (String role : OpenShiftOAuth2SecurityRealm.getRoles()) {
+                OpenShiftOAuth2SecurityRealm.addRolePermissions(matrix, role,
+                        Collections.singleton(role));
+            }
+            granted = new HashMap<String, Set<Permission>>();
+            for (String role : OpenShiftOAuth2SecurityRealm.getRoles()) {
+                Set<Permission> permissions = new HashSet<Permission>();
+                for (Permission p : Permission.getAll()) {
+                    if (SCOPED.contains(p.group)
+                            && matrix.hasPermission(role, p))
+                        permissions.add(p);
+                }
+                granted.put(role, permissions);
+            }
+            rolePermissions = granted;
+        }
+        for (String role : roles) {
+            Set<Permission> permissions = granted.get(role);
+            if (permissions != null && permissions.contains(permission))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * The matrix's own ACL for an item, and failing that the user's role in
+     * the item's namespace, as far as it is cached.
+     */
+    static class NamespaceACL extends ACL {
+
+        private final String namespace;
+        private final ACL inherited;
+
+        NamespaceACL(String namespace, ACL inherited) {
+            this.namespace = namespace;
+            this.inherited = inherited;
+        }
+
+        @Override
+        public boolean hasPermission(Authentication a, Permission permission) {
+            if (inherited.hasPermission(a, permission))
+                return true;
+            if (!(a instanceof UsernamePasswordAuthenticationToken))
+                return false;
+            Jenkins jenkins = Jenkins.getInstance();
+            if (jenkins == null
+                    || !(jenkins.getSecurityRealm() instanceof OpenShiftOAuth2SecurityRealm)
+                    || !SCOPED.contains(permission.group))
+                return false;
+            User user = User.get(a.getName(), false,
+                    Collections.<String, Object> emptyMap());
+            OpenShiftUserInfo info = user != null ? user
+                    .getProperty(OpenShiftUserInfo.class) : null;
+            if (info == null || info.getName() == null)
+                return false;
+            return isGranted(OpenShiftNamespaceRoles.getInstance()
+                    .getRoles(info, namespace), permission);
+        }
+    }
+
+    /**
+     * Configured through the project matrix's own pages, which Jenkins finds
+     * through the class hierarchy.
+     */
+    @Extension
+    public static final class DescriptorImpl extends
+            GlobalMatrixAuthorizationStrategy.DescriptorImpl {
+
+        public DescriptorImpl() {
+            super(OpenShiftNamespaceAuthorizationStrategy.class);
+        }
+
+        @Override
+        protected GlobalMatrixAuthorizationStrategy create() {
+            return new OpenShiftNamespaceAuthorizationStrategy();
+        }
+
+        @Override
+        public String getDisplayName() {
+            return DISPLAY_NAME;
+        }
+    }
+
+    /**
+     * Persists the strategy as the project matrix does.
+     */
+    public static class ConverterImpl extends
+            ProjectMatrixAuthorizationStrategy.ConverterImpl {
+
+        public ConverterImpl(Mapper m) {
+            super(m);
+        }
+
+        @Override
+        protected GlobalMatrixAuthorizationStrategy create() {
+            return new OpenShiftNamespaceAuthorizationStrategy();
+        }
+
+        @Override
+        public boolean canConvert(@SuppressWarnings("rawtypes") Class type) {
+            return type == OpenShiftNamespaceAuthorizationStrategy.class;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.openshift.jenkins.plugins.openshiftlogin;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * The roles users have in the OpenShift namespaces that top level folders
+ * map to. They are looked up in the background, when the user logs in and
+ * each time their permissions are polled, and kept per user and namespace
+ * for OPENSHIFT_NAMESPACE_CACHE_TTL seconds; folder ACLs only ever read what
+ * is cached, so checking a permission never waits on the API server.
+ *
+ * Each refresh starts the lookups of up to OPENSHIFT_NAMESPACE_BATCH of the
+ * user's folders that are not cached, as long as the rate limiter has the
+ * permits for them. No role, and a lookup that failed, are both kept for
+ * the shorter OPENSHIFT_NAMESPACE_NEGATIVE_CACHE_TTL, which is what the
+ * folder gets in the meantime.
+ */
+public class OpenShiftNamespaceRoles {
+
+    static final String OPENSHIFT_NAMESPACE_AUTHORIZATION = "OPENSHIFT_NAMESPACE_AUTHORIZATION";
+    static final String OPENSHIFT_NAMESPACE_CACHE_SIZE = "OPENSHIFT_NAMESPACE_CACHE_SIZE";
+    static final String OPENSHIFT_NAMESPACE_CACHE_TTL = "OPENSHIFT_NAMESPACE_CACHE_TTL"; // seconds
+    static final String OPENSHIFT_NAMESPACE_NEGATIVE_CACHE_TTL = "OPENSHIFT_NAMESPACE_NEGATIVE_CACHE_TTL"; // seconds
+    static final String OPENSHIFT_NAMESPACE_BATCH = "OPENSHIFT_NAMESPACE_BATCH";
+
+    static final int DEFAULT_NAMESPACE_CACHE_SIZE = 5000;
+    // longer than the default poll interval, so that the poll refreshes an
+    // entry before it expires
+    static final long DEFAULT_NAMESPACE_CACHE_TTL = 10 * 60;
+    static final long DEFAULT_NAMESPACE_NEGATIVE_CACHE_TTL = 30;
+    static final int DEFAULT_NAMESPACE_BATCH = 50;
+
+    /**
+     * Where the roles come from; the realm, outside of tests.
+     */
+    interface Source {
+        /**
+         * @return the roles the user has in the namespace
+         */
+        ListenableFuture<Set<String>> getRoles(OpenShiftUserInfo user,
+                String namespace);
+    }
+
+    private static volatile OpenShiftNamespaceRoles instance;
+
+    private final OpenShiftTtlCache<String, Set<String>> roles;
+    private final OpenShiftTtlCache<String, Set<String>> none;
+    private final ConcurrentMap<String, Boolean> inFlight = new ConcurrentHashMap<String, Boolean>();
+    private final int batchSize;
+
+    OpenShiftNamespaceRoles(int maxEntries, long ttlMillis,
+            long negativeTtlMillis, int batchSize) {
+        this.roles = new OpenShiftTtlCache<String, Set<String>>(maxEntries,
+                ttlMillis);
+        this.none = new OpenShiftTtlCache<String, Set<String>>(maxEntries,
+                negativeTtlMillis);
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    static boolean isEnabled() {
+        return OpenShiftEnvVars.getBoolean(OPENSHIFT_NAMESPACE_AUTHORIZATION,
+                false);
+    }
+
+    static OpenShiftNamespaceRoles getInstance() {
+        if (instance == null) {
+            synchronized (OpenShiftNamespaceRoles.class) {
+                if (instance == null) {
+                    instance = new OpenShiftNamespaceRoles(
+                            OpenShiftEnvVars.getInt(
+                                    OPENSHIFT_NAMESPACE_CACHE_SIZE,
+                                    DEFAULT_NAMESPACE_CACHE_SIZE),
+                            TimeUnit.SECONDS.toMillis(OpenShiftEnvVars.getLong(
+                                    OPENSHIFT_NAMESPACE_CACHE_TTL,
+                                    DEFAULT_NAMESPACE_CACHE_TTL)),
+                            TimeUnit.SECONDS.toMillis(OpenShiftEnvVars.getLong(
+                                    OPENSHIFT_NAMESPACE_NEGATIVE_CACHE_TTL,
+                                    DEFAULT_NAMESPACE_NEGATIVE_CACHE_TTL)),
+                            OpenShiftEnvVars.getInt(OPENSHIFT_NAMESPACE_BATCH,
+                                    DEFAULT_NAMESPACE_BATCH));
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * @return the roles the user has in the namespace, empty if they have
+     *         none or they are not known yet
+     */
+    Set<String> getRoles(OpenShiftUserInfo user, String namespace) {
+        Set<String> cached = getCached(key(user, namespace));
+        if (cached != null) {
+            OpenShiftMetrics.recordNamespaceRolesHit();
+            return cached;
+        }
+        OpenShiftMetrics.recordNamespaceRolesMiss();
+        return Collections.emptySet();
+    }
+
+    /**
+     * Starts looking up the roles of the namespaces the user has none cached
+     * for, without waiting for them.
+     *
+     * @param permits
+     *            what one lookup costs the rate limiter
+     * @return the number of lookups started
+     */
+    int refresh(Source source, OpenShiftUserInfo user,
+            Iterable<String> namespaces, OpenShiftRateLimiter limiter,
+            int permits) {
+        int started = 0;
+        for (String namespace : namespaces) {
+            if (started >= batchSize)
+                break;
+            String key = key(user, namespace);
+            if (getCached(key) != null || inFlight.containsKey(key))
+                continue;
+            // the rest waits for a later refresh
+            if (!limiter.tryAcquire(permits))
+                break;
+            if (inFlight.putIfAbsent(key, Boolean.TRUE) != null)
+                continue;
+            lookup(source, user, namespace, key);
+            started++;
+        }
+        return started;
+    }
+
+    private void lookup(Source source, OpenShiftUserInfo user,
+            final String namespace, final String key) {
+        ListenableFuture<Set<String>> review;
+        try {
+            review = source.getRoles(user, namespace);
+        } catch (RuntimeException e) {
+            review = Futures.immediateFailedFuture(e);
+        }
+        Futures.addCallback(review, new FutureCallback<Set<String>>() {
+            public void onSuccess(Set<String> allowed) {
+                if (allowed.isEmpty()) {
+                    none.put(key, Collections.<String> emptySet());
+                } else {
+                    roles.put(key, Collections
+                            .unmodifiableSet(new HashSet<String>(allowed)));
+                    none.remove(key);
+                }
+                inFlight.remove(key);
+            }
+
+            public void onFailure(Throwable t) {
+                // the folder is a no until the negative entry expires,
+                // rather than every permission check asking again
+                none.put(key, Collections.<String> emptySet());
+                roles.remove(key);
+                inFlight.remove(key);
+                OpenShiftOAuth2SecurityRealm.LOG.log(Level.WARNING,
+                        "namespaceRoles",
+                        "OpenShift OAuth: could not look up roles in namespace "
+                                + namespace, t);
+            }
+        });
+    }
+
+    private Set<String> getCached(String key) {
+        Set<String> cached = roles.get(key);
+        return cached != null ? cached : none.get(key);
+    }
+
+    private static String key(OpenShiftUserInfo user, String namespace) {
+        return user.getName() + '\u0000' + namespace;
+    }
+
+    int size() {
+        return roles.size() + none.size();
+    }
+
+    /**
+     * Exposed for testing.
+     */
+    void clear() {
+        roles.clear();
+        none.clear();
+    }
+}
@@ -30,7 +30,6 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.security.GeneralSecurityException;
@@ -38,9 +37,16 @@ import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -51,6 +57,7 @@ import org.acegisecurity.AuthenticationException;
 import org.acegisecurity.AuthenticationManager;
 import org.acegisecurity.BadCredentialsException;
 import org.acegisecurity.GrantedAuthority;
+import org.acegisecurity.GrantedAuthorityImpl;
 import org.acegisecurity.context.SecurityContextHolder;
 import org.acegisecurity.providers.UsernamePasswordAuthenticationToken;
 import org.acegisecurity.providers.anonymous.AnonymousAuthenticationToken;
@@ -66,14 +73,18 @@ import com.google.api.client.auth.oauth2.AuthorizationCodeFlow;
 import com.google.api.client.auth.oauth2.BearerToken;
 import com.google.api.client.auth.oauth2.ClientParametersAuthentication;
 import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.client.auth.oauth2.TokenResponseException;
 import com.google.api.client.auth.openidconnect.IdTokenResponse;
 import com.google.api.client.http.GenericUrl;
 import com.google.api.client.http.HttpContent;
+import com.google.api.client.http.HttpHeaders;
 import com.google.api.client.http.HttpRequest;
 import com.google.api.client.http.HttpRequestFactory;
 import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponseException;
 import com.google.api.client.http.HttpTransport;
 import com.google.api.client.http.javanet.NetHttpTransport;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.api.client.json.JsonFactory;
 import com.google.api.client.json.JsonObjectParser;
 import com.google.api.client.json.jackson2.JacksonFactory;
@@ -107,6 +118,8 @@ import jenkins.model.Jenkins;
 public class OpenShiftOAuth2SecurityRealm extends SecurityRealm {
     static final Logger LOGGER = Logger
             .getLogger(OpenShiftOAuth2SecurityRealm.class.getName());
+    // for statements made on every login, poll or request
+    static final OpenShiftLog LOG = new OpenShiftLog(LOGGER);
 
     /**
      * OAuth 2 scope. This is enough to call a variety of userinfo api's.
@@ -126,22 +139,40 @@ public class OpenShiftOAuth2SecurityRealm extends SecurityRealm {
 
     private static final String[] ROLES = new String[] { "admin", "edit",
             "view" };
+    private static final List<String> ROLE_LIST = Collections
+            .unmodifiableList(Arrays.asList(ROLES));
+    // for users with roles in folder namespaces only; see grant
+    private static final String NAMESPACES_ONLY_SUFFIX = "-namespaces";
 
     private static final String USER_URI = "/oapi/v1/users/~";
     private static final String SAR_URI = "/oapi/v1/subjectaccessreviews";
     private static final String OAUTH_PROVIDER_URI = "/.well-known/oauth-authorization-server";
+    private static final String TOKEN_URI = "/oauth/token";
+    private static final String TOKEN_REVIEW_URI = "/apis/authentication.k8s.io/v1/tokenreviews";
+    private static final String GROUPS_URI = "/oapi/v1/groups";
+    private static final String ROLE_BINDINGS_URI = "/oapi/v1/namespaces/%s/rolebindings";
 
     private static final String K8S_HOST_ENV_VAR = "KUBERNETES_SERVICE_HOST";
     private static final String K8S_PORT_ENV_VAR = "KUBERNETES_SERVICE_PORT";
 
     private static final String LOGOUT = "logout";
 
+    // audience service account tokens must carry to be verified locally;
+    // defaults to the issuer
+    private static final String OPENSHIFT_JWT_AUDIENCE = "OPENSHIFT_JWT_AUDIENCE";
+    // seconds between fetches of the service account token signing keys
+    private static final String OPENSHIFT_JWKS_REFRESH_INTERVAL = "OPENSHIFT_JWKS_REFRESH_INTERVAL";
+    private static final long DEFAULT_JWKS_REFRESH_INTERVAL = 60 * 60;
+
     static final String LOGGING_OUT = "loggingOut";
 
     /**
      * Global instance of the JSON factory.
      */
     private static final JsonFactory JSON_FACTORY = new JacksonFactory();
+    // the SAR bodies for the namespace we run in, rebuilt whenever that
+    // changes
+    private static volatile OpenShiftSubjectAccessReviewBodies sarBodies;
 
     static final HttpTransport HTTP_TRANSPORT = new NetHttpTransport();
 
@@ -315,7 +346,18 @@ public class OpenShiftOAuth2SecurityRealm extends SecurityRealm {
         }
     }
 
+    /**
+     * For paths that need the namespace and service account token but,
+     * unlike login, should not pay for a round of discovery calls each time.
+     */
+    void populateDefaultsIfNeeded() throws IOException,
+            GeneralSecurityException {
+        if (namespace == null)
+            populateDefaults();
+    }
+
     boolean populateDefaults() throws IOException, GeneralSecurityException {
+        long start = System.nanoTime();
         createFilter();
         boolean runningInOpenShiftPodWithRequiredOAuthFeatures = EnvVars.masterEnvVars
                 .get(K8S_HOST_ENV_VAR) != null
@@ -326,46 +368,57 @@ public class OpenShiftOAuth2SecurityRealm extends SecurityRealm {
         boolean withinAPod = runningInOpenShiftPodWithRequiredOAuthFeatures
                 || (new File(getDefaultedServiceAccountDirectory())).exists();
 
-        FileInputStream fis = null;
-        BufferedReader br = null;
+        final File namespaceFile = new File(
+                getDefaultedServiceAccountDirectory(), NAMESPACE);
+        final File tokenFile = new File(getDefaultedServiceAccountDirectory(),
+                TOKEN);
+        // the trust store only needs the CA, so it is built while the
+        // namespace and token are read (which stay one after the other, as
+        // both are tiny); as before, without those files we are not in a pod
+        // and the CA is not looked at
+        Future<HttpTransport> trustingTransport = null;
+        if (namespaceFile.exists() && tokenFile.exists()) {
+            final File caCert = new File(getDefaultedServiceAccountDirectory(),
+                    CA_CRT);
+            trustingTransport = OpenShiftExecutors.submit(
+                    OpenShiftExecutors.discovery(),
+                    new Callable<HttpTransport>() {
+                        public HttpTransport call() throws Exception {
+                            return newTrustingTransport(caCert);
+                        }
+                    });
+        }
         try {
-            br = new BufferedReader(new FileReader(new File(
-                    getDefaultedServiceAccountDirectory(), NAMESPACE)));
-            namespace = br.readLine();
+            namespace = readFirstLine(namespaceFile);
+            if (namespace != null)
+                sarBodies = OpenShiftSubjectAccessReviewBodies.build(
+                        JSON_FACTORY, namespace, ROLES);
             runningInOpenShiftPodWithRequiredOAuthFeatures = runningInOpenShiftPodWithRequiredOAuthFeatures
                     && (namespace != null ? namespace.length() > 0 : false);
-            br = new BufferedReader(new FileReader(new File(
-                    getDefaultedServiceAccountDirectory(), TOKEN)));
-            defaultedClientSecret = br.readLine();
+            defaultedClientSecret = readFirstLine(tokenFile);
             runningInOpenShiftPodWithRequiredOAuthFeatures = runningInOpenShiftPodWithRequiredOAuthFeatures
                     && (defaultedClientSecret != null ? defaultedClientSecret
                             .length() > 0 : false);
-            fis = new FileInputStream(new File(
-                    getDefaultedServiceAccountDirectory(), CA_CRT));
-            KeyStore keyStore = SecurityUtils.getDefaultKeyStore();
-            try {
-                keyStore.size();
-            } catch (KeyStoreException e) {
-                keyStore.load(null);
-            }
-            SecurityUtils.loadKeyStoreFromCertificates(keyStore,
-                    SecurityUtils.getX509CertificateFactory(), fis);
-            transport = new NetHttpTransport.Builder().trustCertificates(
-                    keyStore).build();
         } catch (FileNotFoundException e) {
             runningInOpenShiftPodWithRequiredOAuthFeatures = false;
             if (LOGGER.isLoggable(Level.FINE) || withinAPod)
                 LOGGER.log(Level.FINE, "populatateDefaults", e);
-        } finally {
-            if (fis != null)
-                fis.close();
-            if (br != null)
-                br.close();
         }
+        try {
+            if (trustingTransport != null)
+                transport = OpenShiftExecutors.await(trustingTransport);
+        } catch (FileNotFoundException e) {
+            runningInOpenShiftPodWithRequiredOAuthFeatures = false;
+            if (LOGGER.isLoggable(Level.FINE) || withinAPod)
+                LOGGER.log(Level.FINE, "populatateDefaults", e);
+        }
+        long serviceAccountLoaded = System.nanoTime();
 
-        final Credential credential = new Credential(
-                BearerToken.authorizationHeaderAccessMethod())
-                .setAccessToken(getDefaultedClientSecret().getPlainText());
+        final Credential credential = serviceAccountCredential();
+        // the provider discovery does not depend on who we are, so it runs
+        // alongside the users/~ call
+        Future<OpenShiftProviderInfo> providerDiscovery = getApiClient()
+                .getOAuthProvider(credential, transport);
         try {
             OpenShiftUserInfo user = getOpenShiftUserInfo(credential, transport);
             String[] userNameParts = user.getName().split(":");
@@ -378,10 +431,11 @@ public class OpenShiftOAuth2SecurityRealm extends SecurityRealm {
             defaultedClientId = "system:serviceaccount:" + namespace + ":"
                     + getDefaultedServiceAccountName();
 
-            provider = getOpenShiftOAuthProvider(credential, transport);
+            provider = OpenShiftExecutors.await(providerDiscovery);
+            providerDiscovery = null;
             if (withinAPod)
-                LOGGER.info(String.format("OpenShift OAuth: provider: %s",
-                        provider));
+                LOG.log(Level.INFO, "populateDefaults.provider",
+                        "OpenShift OAuth: provider", "provider", provider);
             if (provider != null) {
                 // the issuer is the public address of the k8s svc; use this vs.
                 // the hostname or ip/port that is only available within the
@@ -395,7 +449,13 @@ public class OpenShiftOAuth2SecurityRealm extends SecurityRealm {
             if (LOGGER.isLoggable(Level.FINE))
                 LOGGER.log(Level.FINE, "populateDefaults", t);
             else if (withinAPod)
-                LOGGER.log(Level.INFO, "populateDefaults", t);
+                LOG.log(Level.INFO, "populateDefaults.failure",
+                        "populateDefaults", t);
+        } finally {
+            // users/~ failed before the discovery was waited for; it is of
+            // no use now, and would hold an API thread and a guard permit
+            if (providerDiscovery != null)
+                providerDiscovery.cancel(true);
         }
 
         if (!runningInOpenShiftPodWithRequiredOAuthFeatures) {
@@ -418,21 +478,86 @@ public class OpenShiftOAuth2SecurityRealm extends SecurityRealm {
         }
 
         if (withinAPod)
-            LOGGER.info(String
-                    .format("OpenShift OAuth returning %s with namespace %s SA dir %s default %s SA name %s default %s client ID %s default %s secret %s default %s redirect %s default %s server %s default %s",
-                            runningInOpenShiftPodWithRequiredOAuthFeatures,
-                            this.namespace, this.serviceAccountDirectory,
-                            this.defaultedServiceAccountDirectory,
-                            this.serviceAccountName,
-                            this.defaultedServiceAccountName, this.clientId,
-                            this.defaultedClientId, (Secret.toString(this.clientSecret).length() > 6 ? Secret.toString(this.clientSecret).substring(0, 5) + "......." : "null"),
-                            (this.defaultedClientSecret != null && this.defaultedClientSecret.length() > 6 ? this.defaultedClientSecret.substring(0, 5) + "......." : "null"), this.redirectURL,
-                            this.defaultedRedirectURL, this.serverPrefix,
-                            this.defaultedServerPrefix));
-
+            LOG.log(Level.INFO, "populateDefaults", "OpenShift OAuth defaults",
+                    "returning", runningInOpenShiftPodWithRequiredOAuthFeatures,
+                    "namespace", this.namespace,
+                    "saDir", this.serviceAccountDirectory,
+                    "saDirDefault", this.defaultedServiceAccountDirectory,
+                    "saName", this.serviceAccountName,
+                    "saNameDefault", this.defaultedServiceAccountName,
+                    "clientId", this.clientId,
+                    "clientIdDefault", this.defaultedClientId,
+                    "secret", OpenShiftLog.masked(Secret.toString(this.clientSecret)),
+                    "secretDefault", OpenShiftLog.masked(this.defaultedClientSecret),
+                    "redirect", this.redirectURL,
+                    "redirectDefault", this.defaultedRedirectURL,
+                    "server", this.serverPrefix,
+                    "serverDefault", this.defaultedServerPrefix);
+
+        OpenShiftMetrics.recordPopulateDefaults(System.nanoTime() - start,
+                serviceAccountLoaded - start);
+        if (runningInOpenShiftPodWithRequiredOAuthFeatures)
+            OpenShiftLoginPrefetch.getInstance().markRefreshed();
         return runningInOpenShiftPodWithRequiredOAuthFeatures;
     }
 
+    /**
+     * Re-runs populateDefaults unless {@link OpenShiftLoginPrefetch} has
+     * just done so.
+     */
+    private void populateDefaultsUnlessPrefetched() throws IOException,
+            GeneralSecurityException {
+        if (OpenShiftLoginPrefetch.isEnabled()
+                && OpenShiftLoginPrefetch.getInstance().isFresh()) {
+            OpenShiftMetrics.recordPrefetchHit();
+            return;
+        }
+        populateDefaults();
+    }
+
+    OpenShiftLoginPrefetch.Target prefetchTarget() {
+        return new OpenShiftLoginPrefetch.Target() {
+            public boolean refresh() throws Exception {
+                return populateDefaults();
+            }
+
+            public void warm() throws Exception {
+                // the discovery document is small and served by the same
+                // host and port as /oauth/token
+                getOpenShiftOAuthProvider(serviceAccountCredential(),
+                        transport);
+            }
+        };
+    }
+
+    private static String readFirstLine(File file) throws IOException {
+        BufferedReader br = new BufferedReader(new FileReader(file));
+        try {
+            return br.readLine();
+        } finally {
+            br.close();
+        }
+    }
+
+    private static HttpTransport newTrustingTransport(File caCert)
+            throws IOException, GeneralSecurityException {
+        FileInputStream fis = new FileInputStream(caCert);
+        try {
+            KeyStore keyStore = SecurityUtils.getDefaultKeyStore();
+            try {
+                keyStore.size();
+            } catch (KeyStoreException e) {
+                keyStore.load(null);
+            }
+            SecurityUtils.loadKeyStoreFromCertificates(keyStore,
+                    SecurityUtils.getX509CertificateFactory(), fis);
+            return new NetHttpTransport.Builder().trustCertificates(keyStore)
+                    .build();
+        } finally {
+            fis.close();
+        }
+    }
+
     public String getServiceAccountDirectory() {
         return serviceAccountDirectory;
     }
@@ -509,87 +634,215 @@ public class OpenShiftOAuth2SecurityRealm extends SecurityRealm {
         return LOGIN_URL;
     }
 
-    private OpenShiftProviderInfo getOpenShiftOAuthProvider(
+    OpenShiftProviderInfo getOpenShiftOAuthProvider(
             final Credential credential, final HttpTransport transport)
             throws IOException {
         HttpRequestFactory requestFactory = transport
-                .createRequestFactory(new HttpRequestInitializer() {
-                    public void initialize(HttpRequest request)
-                            throws IOException {
-                        credential.initialize(request);
-                        request.setParser(new JsonObjectParser(JSON_FACTORY));
-                    }
-                });
+                .createRequestFactory(credential);
         GenericUrl url = new GenericUrl(getDefaultedServerPrefix()
                 + OAUTH_PROVIDER_URI);
 
         HttpRequest request = requestFactory.buildGetRequest(url);
 
-        OpenShiftProviderInfo info = request.execute().parseAs(
-                OpenShiftProviderInfo.class);
+        OpenShiftProviderInfo info = executeAndRead(request,
+                OpenShiftJsonCodec.PROVIDER_INFO,
+                OpenShiftMetrics.Endpoint.OAUTH_PROVIDER);
         return info;
     }
 
-    private OpenShiftUserInfo getOpenShiftUserInfo(final Credential credential,
+    OpenShiftUserInfo getOpenShiftUserInfo(final Credential credential,
             final HttpTransport transport) throws IOException {
         HttpRequestFactory requestFactory = transport
-                .createRequestFactory(new HttpRequestInitializer() {
-                    public void initialize(HttpRequest request)
-                            throws IOException {
-                        credential.initialize(request);
-                        request.setParser(new JsonObjectParser(JSON_FACTORY));
-                    }
-                });
+                .createRequestFactory(credential);
         GenericUrl url = new GenericUrl(getDefaultedServerPrefix() + USER_URI);
+        OpenShiftRateLimiter.getInstance().charge(1);
 
         HttpRequest request = requestFactory.buildGetRequest(url);
 
-        OpenShiftUserInfo info = request.execute().parseAs(
-                OpenShiftUserInfo.class);
+        OpenShiftUserInfo info = executeAndRead(request,
+                OpenShiftJsonCodec.USER_INFO,
+                OpenShiftMetrics.Endpoint.USER_INFO);
         return info;
     }
 
-    private String buildSARJson(String namespace, String verb)
-            throws IOException {
+    /**
+     * Runs the request through the {@link OpenShiftApiGuard} and parses the
+     * response, recording the call count and latency for the endpoint in
+     * {@link OpenShiftMetrics}.
+     */
+    private <T> T executeAndParse(HttpRequest request, Class<T> type,
+            OpenShiftMetrics.Endpoint endpoint) throws IOException {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            T result = OpenShiftApiGuard.getInstance().execute(request)
+                    .parseAs(type);
+            failed = false;
+            return result;
+        } finally {
+            OpenShiftMetrics.recordCall(endpoint, System.nanoTime() - start,
+                    failed);
+        }
+    }
+
+    /**
+     * Like {@link #executeAndParse(HttpRequest, Class, OpenShiftMetrics.Endpoint)}
+     * but reads only what the {@link OpenShiftJsonCodec} reader asks for.
+     */
+    private <T> T executeAndRead(HttpRequest request,
+            OpenShiftJsonCodec.Reader<T> reader,
+            OpenShiftMetrics.Endpoint endpoint) throws IOException {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            T result = OpenShiftJsonCodec.read(JSON_FACTORY, OpenShiftApiGuard
+                    .getInstance().execute(request).getContent(), reader);
+            failed = false;
+            return result;
+        } finally {
+            OpenShiftMetrics.recordCall(endpoint, System.nanoTime() - start,
+                    failed);
+        }
+    }
+
+    private HttpContent buildSARBody(String namespace, String verb,
+            OpenShiftUserInfo subject) throws IOException {
+        if (subject == null) {
+            OpenShiftSubjectAccessReviewBodies bodies = sarBodies;
+            if (bodies == null || !bodies.isFor(namespace)) {
+                bodies = OpenShiftSubjectAccessReviewBodies.build(
+                        JSON_FACTORY, namespace, ROLES);
+                sarBodies = bodies;
+            }
+            HttpContent body = bodies.get(verb);
+            if (body != null)
+                return body;
+        }
         OpenShiftSubjectAccessReviewRequest request = new OpenShiftSubjectAccessReviewRequest();
         request.namespace = namespace;
         request.verb = verb;
-        String json = JSON_FACTORY.toString(request);
-        return json;
+        if (subject != null) {
+            request.user = subject.getName();
+            if (subject.getGroups() != null)
+                request.groups.addAll(subject.getGroups());
+        }
+        return new OpenShiftJsonContent(JSON_FACTORY.toByteArray(request));
     }
 
-    private HttpRequest buildPostSARRequest(HttpRequestFactory requestFactory,
-            GenericUrl url, final String json) throws IOException {
-        HttpContent contentAdmin = new HttpContent() {
+    private HttpRequest buildPostJsonRequest(HttpRequestFactory requestFactory,
+            GenericUrl url, HttpContent body) throws IOException {
+        return requestFactory.buildPostRequest(url, body);
+    }
 
-            @Override
-            public long getLength() throws IOException {
-                return (long) (json.getBytes().length);
-            }
+    /**
+     * Runs a SAR per role with the given credential.
+     *
+     * @param subject
+     *            the user to evaluate the SARs for, or null for the owner of
+     *            the credential
+     */
+    private Set<String> postSAR(final Credential credential,
+            final HttpTransport transport, OpenShiftUserInfo subject)
+            throws IOException {
+        // impersonated SARs come from the scheduler, which has already taken
+        // its permits from the budget
+        if (subject == null)
+            OpenShiftRateLimiter.getInstance().charge(ROLES.length);
 
-            @Override
-            public String getType() {
-                return "application/json";
-            }
+        // the SARs for the roles do not depend on each other, so they are
+        // all in flight at once
+        try {
+            return OpenShiftExecutors.await(getApiClient().getAllowedVerbs(
+                    credential, transport, ROLES, subject));
+        } catch (GeneralSecurityException e) {
+            // not thrown by a SAR
+            throw new IOException(e);
+        }
+    }
 
-            @Override
-            public boolean retrySupported() {
-                return false;
-            }
+    /**
+     * Runs a single SAR with the given credential.
+     */
+    boolean isAllowed(Credential credential, HttpTransport transport,
+            String verb, OpenShiftUserInfo subject) throws IOException {
+        return isAllowed(credential, transport, namespace, verb, subject);
+    }
 
-            @Override
-            public void writeTo(OutputStream out) throws IOException {
-                out.write(json.getBytes());
-                out.flush();
-            }
+    /**
+     * Runs a single SAR with the given credential in the given namespace.
+     */
+    boolean isAllowed(Credential credential, HttpTransport transport,
+            String namespace, String verb, OpenShiftUserInfo subject)
+            throws IOException {
+        HttpRequestFactory requestFactory = transport
+                .createRequestFactory(credential);
+        GenericUrl url = new GenericUrl(getDefaultedServerPrefix() + SAR_URI);
+        HttpRequest request = this.buildPostJsonRequest(requestFactory, url,
+                buildSARBody(namespace, verb, subject));
+        OpenShiftSubjectAccessReviewResponse review = executeAndRead(request,
+                OpenShiftJsonCodec.SUBJECT_ACCESS_REVIEW,
+                OpenShiftMetrics.Endpoint.SAR);
+        if (review == null)
+            return false;
+        LOG.log(Level.FINE, "postSAR", "postSAR: response", "verb", verb,
+                "namespace", review.namespace, "allowed", review.allowed,
+                "reason", review.reason);
+        return review.allowed;
+    }
 
-        };
-        return requestFactory.buildPostRequest(url, contentAdmin);
+    OpenShiftAsyncClient getApiClient() {
+        return new OpenShiftAsyncClient(this, OpenShiftExecutors.api());
     }
 
-    private Set<String> postSAR(final Credential credential,
-            final HttpTransport transport) throws IOException {
-        HashSet<String> allowedVerbs = new HashSet<String>();
+    /**
+     * @return the number of SARs it takes to evaluate a user's roles
+     */
+    static int getRoleCount() {
+        return ROLES.length;
+    }
+
+    /**
+     * Evaluates the user's roles with SARs run by our service account on the
+     * user's behalf, which needs no token of the user's; the service account
+     * must be allowed to create subjectaccessreviews.
+     */
+    Set<String> postImpersonatedSAR(OpenShiftUserInfo subject)
+            throws IOException, GeneralSecurityException {
+        populateDefaultsIfNeeded();
+        return postSAR(serviceAccountCredential(), transport, subject);
+    }
+
+    /**
+     * Starts looking up, in the background, the roles the user has in the
+     * OpenShift namespaces of the top level folders that are not cached yet;
+     * see {@link OpenShiftNamespaceAuthorizationStrategy}.
+     */
+    void refreshNamespaceRoles(OpenShiftUserInfo user) {
+        final Credential credential = serviceAccountCredential();
+        OpenShiftNamespaceRoles.getInstance().refresh(
+                new OpenShiftNamespaceRoles.Source() {
+                    public ListenableFuture<Set<String>> getRoles(
+                            OpenShiftUserInfo subject, String inNamespace) {
+                        return getApiClient().getAllowedVerbs(credential,
+                                transport, inNamespace, ROLES, subject);
+                    }
+                }, user,
+                OpenShiftNamespaceAuthorizationStrategy.getNamespaces(),
+                OpenShiftRateLimiter.getInstance(), ROLES.length);
+    }
+
+    /**
+     * Asks the API server, as the service account, who a bearer token belongs
+     * to. Unlike users/~ this also returns the user's groups, and it needs
+     * only the one call.
+     *
+     * @throws HttpResponseException
+     *             with a 401 status if the token is not valid
+     */
+    OpenShiftUserInfo reviewToken(String token) throws IOException,
+            GeneralSecurityException {
+        populateDefaultsIfNeeded();
+        final Credential credential = serviceAccountCredential();
         HttpRequestFactory requestFactory = transport
                 .createRequestFactory(new HttpRequestInitializer() {
                     public void initialize(HttpRequest request)
@@ -598,26 +851,49 @@ public class OpenShiftOAuth2SecurityRealm extends SecurityRealm {
                         request.setParser(new JsonObjectParser(JSON_FACTORY));
                     }
                 });
-        GenericUrl url = new GenericUrl(getDefaultedServerPrefix() + SAR_URI);
-
-        for (String verb : ROLES) {
-            String json = buildSARJson(namespace, verb);
-            HttpRequest request = this.buildPostSARRequest(requestFactory, url,
-                    json);
-            OpenShiftSubjectAccessReviewResponse review = request.execute()
-                    .parseAs(OpenShiftSubjectAccessReviewResponse.class);
-            if (review != null) {
-                if (LOGGER.isLoggable(Level.FINE))
-                    LOGGER.fine(String
-                            .format("postSAR: response for verb %s hydrated into obj: namespace %s allowed %s reason %s",
-                                    verb, review.namespace,
-                                    Boolean.toString(review.allowed),
-                                    review.reason));
-                if (review.allowed)
-                    allowedVerbs.add(verb);
-            }
+        GenericUrl url = new GenericUrl(getDefaultedServerPrefix()
+                + TOKEN_REVIEW_URI);
+        HttpRequest request = buildPostJsonRequest(requestFactory, url,
+                new OpenShiftJsonContent(JSON_FACTORY
+                        .toByteArray(new OpenShiftTokenReview(token))));
+        OpenShiftTokenReview review = executeAndParse(request,
+                OpenShiftTokenReview.class,
+                OpenShiftMetrics.Endpoint.TOKEN_REVIEW);
+        if (review == null || !review.isAuthenticated()) {
+            String error = review != null && review.status != null ? review.status.error
+                    : null;
+            throw new HttpResponseException.Builder(401, "Unauthorized",
+                    new HttpHeaders()).setMessage(
+                    "token review failed: " + error).build();
         }
-        return allowedVerbs;
+        LOG.log(Level.FINE, "reviewToken", "reviewToken: token reviewed",
+                "user", review.status.user.username, "groups",
+                review.status.user.groups);
+        return review.toUserInfo();
+    }
+
+    /**
+     * @return a verifier for service account tokens, which looks up the
+     *         signing keys as our service account
+     */
+    OpenShiftJwtVerifier newJwtVerifier() throws IOException,
+            GeneralSecurityException {
+        populateDefaultsIfNeeded();
+        return new OpenShiftJwtVerifier(transport, serviceAccountCredential(),
+                JSON_FACTORY, getDefaultedServerPrefix(),
+                OpenShiftEnvVars.getString(OPENSHIFT_JWT_AUDIENCE, null),
+                TimeUnit.SECONDS.toMillis(OpenShiftEnvVars.getLong(
+                        OPENSHIFT_JWKS_REFRESH_INTERVAL,
+                        DEFAULT_JWKS_REFRESH_INTERVAL)));
+    }
+
+    /**
+     * The service account token doubles as the OAuth client secret when no
+     * explicit client is configured.
+     */
+    private Credential serviceAccountCredential() {
+        return new Credential(BearerToken.authorizationHeaderAccessMethod())
+                .setAccessToken(getDefaultedClientSecret().getPlainText());
     }
 
     /**
@@ -657,7 +933,7 @@ public class OpenShiftOAuth2SecurityRealm extends SecurityRealm {
         // use the configured server prefix, where if not explicitly configured
         // we go with the internally accessible default
         final GenericUrl tokenServerURL = new GenericUrl(
-                getDefaultedServerPrefix() + "/oauth/token");
+                getDefaultedServerPrefix() + TOKEN_URI);
         final String authorizationServerURL = getDefaultedRedirectURL()
                 + "/oauth/authorize";
 
@@ -666,8 +942,11 @@ public class OpenShiftOAuth2SecurityRealm extends SecurityRealm {
                 JSON_FACTORY, tokenServerURL,
                 new ClientParametersAuthentication(getDefaultedClientId(),
                         getDefaultedClientSecret().getPlainText()),
-                getDefaultedClientId(), authorizationServerURL).setScopes(
-                Arrays.asList(SCOPE_INFO, SCOPE_CHECK_ACCESS)).build();
+                getDefaultedClientId(), authorizationServerURL)
+                .setScopes(Arrays.asList(SCOPE_INFO, SCOPE_CHECK_ACCESS))
+                .setRequestInitializer(
+                        OpenShiftApiGuard.getInstance()
+                                .getTimeoutInitializer()).build();
 
         final OpenShiftOAuth2SecurityRealm secRealm = this;
         final String url = buildOAuthRedirectUrl(redirectOnFinish);
@@ -675,16 +954,11 @@ public class OpenShiftOAuth2SecurityRealm extends SecurityRealm {
         return new OAuthSession(flow, from, url) {
             @Override
             public HttpResponse onSuccess(String authorizationCode) {
+                if (OpenShiftAsyncLogin.isEnabled())
+                    return new OpenShiftAsyncLogin(secRealm, flow,
+                            authorizationCode, url, redirectOnFinish);
                 try {
-                    IdTokenResponse response = IdTokenResponse.execute(flow
-                            .newTokenRequest(authorizationCode).setRedirectUri(
-                                    url));
-                    final Credential credential = new Credential(
-                            BearerToken.authorizationHeaderAccessMethod())
-                            .setFromTokenResponse(response);
-                    this.setCredential(credential);
-                    secRealm.updateAuthorizationStrategy(credential);
-
+                    completeLogin(secRealm.login(flow, authorizationCode, url));
                     return new HttpRedirect(redirectOnFinish);
 
                 } catch (Throwable e) {
@@ -697,24 +971,197 @@ public class OpenShiftOAuth2SecurityRealm extends SecurityRealm {
         };
     }
 
+    /**
+     * Exchanges the authorization code for a token and determines the user's
+     * permissions.
+     *
+     * @return what the HTTP session needs to keep for the rest of the login
+     */
+    OpenShiftSessionState login(AuthorizationCodeFlow flow,
+            String authorizationCode, String redirectUri) throws IOException,
+            GeneralSecurityException {
+        IdTokenResponse response = null;
+        OpenShiftApiGuard guard = OpenShiftApiGuard.getInstance();
+        boolean probe = guard.acquire();
+        boolean healthy = false;
+        long start = System.nanoTime();
+        try {
+            response = IdTokenResponse.execute(flow.newTokenRequest(
+                    authorizationCode).setRedirectUri(redirectUri));
+            healthy = true;
+        } catch (TokenResponseException e) {
+            // the master answered, the code was just not good
+            healthy = e.getStatusCode() < 500;
+            throw e;
+        } finally {
+            guard.release(probe, healthy);
+            OpenShiftMetrics.recordCall(OpenShiftMetrics.Endpoint.TOKEN,
+                    System.nanoTime() - start, response == null);
+        }
+        // built against the token endpoint so that any refresh token in the
+        // response can be used later on
+        final Credential credential = newCredential().setFromTokenResponse(
+                response);
+        populateDefaultsUnlessPrefetched();
+        OpenShiftUserInfo info = getOpenShiftUserInfo(credential, transport);
+        OpenShiftSessionState state = new OpenShiftSessionState(info,
+                credential);
+        state.setDecision(updateAuthorizationStrategy(credential, info),
+                System.currentTimeMillis());
+        return state;
+    }
+
+    /**
+     * Creates an empty credential which, once populated from a token
+     * response, can renew itself with the refresh token against our token
+     * endpoint.
+     */
+    Credential newCredential() {
+        return new SessionCredential(new Credential.Builder(
+                BearerToken.authorizationHeaderAccessMethod())
+                .setTransport(transport)
+                .setJsonFactory(JSON_FACTORY)
+                .setTokenServerUrl(
+                        new GenericUrl(getDefaultedServerPrefix() + TOKEN_URI))
+                .setClientAuthentication(
+                        new ClientParametersAuthentication(
+                                getDefaultedClientId(),
+                                getDefaultedClientSecret().getPlainText()))
+                .setRequestInitializer(
+                        OpenShiftApiGuard.getInstance()
+                                .getTimeoutInitializer()));
+    }
+
+    /**
+     * A credential that never renews its own token. Left to itself, a
+     * Credential with a token server URL refreshes the token on a 401, or
+     * when it is about to expire, in the middle of whichever call it is
+     * used for, bypassing the session's refresh lock, the
+     * {@link OpenShiftApiGuard} and the identity check; renewals only go
+     * through {@link OpenShiftSessionState#refreshIfNeeded} instead.
+     */
+    static class SessionCredential extends Credential {
+
+        SessionCredential(Credential.Builder builder) {
+            super(builder);
+        }
+
+        @Override
+        public void intercept(HttpRequest request) throws IOException {
+            getMethod().intercept(request, getAccessToken());
+        }
+
+        @Override
+        public boolean handleResponse(HttpRequest request,
+                com.google.api.client.http.HttpResponse response,
+                boolean supportsRetry) {
+            return false;
+        }
+    }
+
+    OpenShiftSessionState.Renewer tokenRenewer() {
+        return new OpenShiftSessionState.Renewer() {
+            public boolean renew(Credential credential) throws IOException {
+                return refreshCredential(credential);
+            }
+
+            public String getUserName(Credential credential)
+                    throws IOException {
+                return getOpenShiftUserName(credential);
+            }
+        };
+    }
+
+    /**
+     * Renews the access token of a credential created by
+     * {@link #newCredential()} using its refresh token.
+     *
+     * @return false if there was no refresh token to use
+     */
+    boolean refreshCredential(Credential credential) throws IOException {
+        OpenShiftApiGuard guard = OpenShiftApiGuard.getInstance();
+        boolean probe = guard.acquire();
+        boolean healthy = false;
+        boolean refreshed = false;
+        long start = System.nanoTime();
+        try {
+            refreshed = credential.refreshToken();
+            healthy = true;
+        } catch (TokenResponseException e) {
+            // a rejected refresh token says nothing about the master's health
+            healthy = e.getStatusCode() < 500;
+            throw e;
+        } finally {
+            guard.release(probe, healthy);
+            OpenShiftMetrics.recordCall(OpenShiftMetrics.Endpoint.TOKEN,
+                    System.nanoTime() - start, !refreshed);
+        }
+        return refreshed;
+    }
+
+    /**
+     * @return the name of the OpenShift user the credential belongs to
+     */
+    String getOpenShiftUserName(Credential credential) throws IOException {
+        return getOpenShiftUserInfo(credential, transport).getName();
+    }
+
     public UsernamePasswordAuthenticationToken updateAuthorizationStrategy(
             Credential credential) throws IOException, GeneralSecurityException {
         populateDefaults();
         OpenShiftUserInfo info = getOpenShiftUserInfo(credential, transport);
-        Set<String> allowedRoles = postSAR(credential, transport);
-        GrantedAuthority[] authorities = new GrantedAuthority[] { SecurityRealm.AUTHENTICATED_AUTHORITY };
+        return updateAuthorizationStrategy(credential, info);
+    }
+
+    UsernamePasswordAuthenticationToken updateAuthorizationStrategy(
+            Credential credential, OpenShiftUserInfo info)
+            throws IOException, GeneralSecurityException {
+        populateDefaultsIfNeeded();
+        UsernamePasswordAuthenticationToken token = grant(info,
+                postSAR(credential, transport, null));
+        if (token != null)
+            SecurityContextHolder.getContext().setAuthentication(token);
+        return token;
+    }
+
+    /**
+     * Re-evaluates the roles of a user we have seen before, without their
+     * token; see {@link #postImpersonatedSAR(OpenShiftUserInfo)}.
+     */
+    UsernamePasswordAuthenticationToken revalidate(OpenShiftUserInfo info)
+            throws IOException, GeneralSecurityException {
+        return grant(info, postImpersonatedSAR(info));
+    }
+
+    /**
+     * Maps the user's OpenShift roles, and with
+     * OPENSHIFT_GROUP_AUTHORIZATION=true those of their groups, to a Jenkins
+     * identity, adding what it needs to the authorization matrix if it is
+     * not there yet, and records the decision with
+     * {@link OpenShiftActiveUsers}; leaves the security context of the
+     * current thread alone.
+     *
+     * @param allowedRoles
+     *            the roles the user has in their own right
+     * @return the identity to log the user in as, or null if they have none
+     *         of the roles
+     */
+    UsernamePasswordAuthenticationToken grant(OpenShiftUserInfo info,
+            Set<String> allowedRoles) throws IOException,
+            GeneralSecurityException {
+        Map<String, Set<String>> groupRoles = getGroupRoles(info);
+        List<GrantedAuthority> authorities = new ArrayList<GrantedAuthority>();
+        authorities.add(SecurityRealm.AUTHENTICATED_AUTHORITY);
+        for (Map.Entry<String, Set<String>> group : groupRoles.entrySet())
+            authorities.add(new GrantedAuthorityImpl(group.getKey()
+                    + getRoleSuffix(group.getValue())));
 
         // we append the role suffix to the name stored into Jenkins, since a
         // given user is able to log in at varying scope/permission
         // levels in openshift; however, for now, we make sure the display name
         // for Jenkins does not include this suffix
-        String suffix = null;
-        if (allowedRoles.contains("admin"))
-            suffix = "-admin";
-        else if (allowedRoles.contains("edit"))
-            suffix = "-edit";
-        else if (allowedRoles.contains("view"))
-            suffix = "-view";
+        String suffix = getRoleSuffix(getEffectiveRoles(allowedRoles,
+                groupRoles));
 
         // logs this user in.... with the index of
         // UsernamePasswordAuthenticationToken token being matrixKey, that will
@@ -732,154 +1179,422 @@ public class OpenShiftOAuth2SecurityRealm extends SecurityRealm {
         // will be "foo-admin-view", and only have the jenkins permissions we've
         // assigned to the view role
         UsernamePasswordAuthenticationToken token = null;
+        GrantedAuthority[] granted = authorities
+                .toArray(new GrantedAuthority[authorities.size()]);
         if (suffix != null) {
-            String matrixKey = info.getName() + suffix;
-            token = new UsernamePasswordAuthenticationToken(matrixKey, "",
-                    authorities);
-            SecurityContextHolder.getContext().setAuthentication(token);
+            token = new UsernamePasswordAuthenticationToken(info.getName()
+                    + suffix, "", granted);
+            updateUser(token, info);
+            addToMatrix(info.getName(),
+                    getMatrixKeys(info.getName(), allowedRoles, groupRoles));
+        } else if (OpenShiftNamespaceAuthorizationStrategy.isInUse()) {
+            // with roles in other namespaces only, the user still logs in,
+            // under a key that never matches one in the matrix, and gets
+            // their permissions from the folders of those namespaces
+            token = new UsernamePasswordAuthenticationToken(info.getName()
+                    + NAMESPACES_ONLY_SUFFIX, "", granted);
+            updateUser(token, info);
+        }
+        // the folder ACLs only read what this leaves in the cache
+        if (token != null && OpenShiftNamespaceAuthorizationStrategy.isInUse())
+            refreshNamespaceRoles(info);
+
+        OpenShiftActiveUsers.recordDecision(info, token);
+        return token;
+    }
+
+    /**
+     * With OPENSHIFT_GROUP_AUTHORIZATION=true, the roles of the user's
+     * OpenShift groups. Each group with a role is stored in the matrix once,
+     * as the group name with the role suffix, and the user gets that as an
+     * authority, so the matrix grows with the groups rather than with their
+     * members.
+     *
+     * @return the roles of each of the user's groups that has any, or an
+     *         empty map if group authorization is off
+     */
+    private Map<String, Set<String>> getGroupRoles(OpenShiftUserInfo info)
+            throws IOException, GeneralSecurityException {
+        if (!OpenShiftGroupIndex.isEnabled() || info.getName() == null)
+            return Collections.emptyMap();
+        return OpenShiftGroupIndex.getInstance().getGroupRoles(groupSource(),
+                info);
+    }
+
+    /**
+     * @return the user's own roles together with those of their groups; the
+     *         user logs in under the highest of them
+     */
+    static Set<String> getEffectiveRoles(Set<String> allowedRoles,
+            Map<String, Set<String>> groupRoles) {
+        Set<String> roles = new HashSet<String>(allowedRoles);
+        for (Set<String> group : groupRoles.values())
+            roles.addAll(group);
+        return roles;
+    }
+
+    /**
+     * @return the matrix entries a login needs: one per group with a role,
+     *         and the user's own key when their own roles are what make it
+     *         the highest, as otherwise one of the group authorities
+     *         already carries those permissions
+     */
+    static Map<String, Set<String>> getMatrixKeys(String user,
+            Set<String> allowedRoles, Map<String, Set<String>> groupRoles) {
+        Map<String, Set<String>> matrixKeys = new LinkedHashMap<String, Set<String>>();
+        String suffix = getRoleSuffix(allowedRoles);
+        if (suffix != null
+                && suffix.equals(getRoleSuffix(getEffectiveRoles(
+                        allowedRoles, groupRoles))))
+            matrixKeys.put(user + suffix, allowedRoles);
+        for (Map.Entry<String, Set<String>> group : groupRoles.entrySet())
+            // as with users, a group only ever gets the permissions of the
+            // role in its key
+            matrixKeys.put(group.getKey() + getRoleSuffix(group.getValue()),
+                    group.getValue());
+        return matrixKeys;
+    }
+
+    private OpenShiftGroupIndex.Source groupSource() {
+        return new OpenShiftGroupIndex.Source() {
+            public Map<String, List<String>> listGroups() throws IOException,
+                    GeneralSecurityException {
+                return OpenShiftOAuth2SecurityRealm.this.listGroups();
+            }
+
+            public Set<String> getGroupRoles(String group) throws IOException,
+                    GeneralSecurityException {
+                return postGroupSAR(group);
+            }
+        };
+    }
+
+    /**
+     * Lists the OpenShift groups and their members as the service account,
+     * which must be allowed to list groups at the cluster level.
+     */
+    Map<String, List<String>> listGroups() throws IOException,
+            GeneralSecurityException {
+        populateDefaultsIfNeeded();
+        final Credential credential = serviceAccountCredential();
+        HttpRequestFactory requestFactory = transport
+                .createRequestFactory(new HttpRequestInitializer() {
+                    public void initialize(HttpRequest request)
+                            throws IOException {
+                        credential.initialize(request);
+                        request.setParser(new JsonObjectParser(JSON_FACTORY));
+                    }
+                });
+        OpenShiftRateLimiter.getInstance().charge(1);
+        HttpRequest request = requestFactory.buildGetRequest(new GenericUrl(
+                getDefaultedServerPrefix() + GROUPS_URI));
+        OpenShiftGroupList groups = executeAndParse(request,
+                OpenShiftGroupList.class, OpenShiftMetrics.Endpoint.GROUPS);
+        return groups != null ? groups.getMembers()
+                : new HashMap<String, List<String>>();
+    }
 
-            User u = User.get(token.getName());
-            info.updateProfile(u);
-            // this controls the user name that is displayed atop the Jenkins
-            // browser window;
-            // we'll display the "core" user name without the admin/edit/view
-            // suffix
-            u.setFullName(info.getName());
-            u.save();
-
-            // So if you look at GlobalSecurityConfiguration and
-            // GlobalMatrixAuthorizationStrategy (including its DescriptorImpl)
-            // and the associated config.jelly files,
-            // you'll see that the AuthourizationStrategy object stored in
-            // Jenkins is *essentially* immutable (except for adds, with
-            // comments saying only to use durin contruction),
-            // and that when users manipulate
-            // the panel "Configure Global Security", new instances of
-            // Global/ProjectMatrixAuthorizationStrategy are created, where
-            // existing users are set up again.
-            // we'll mimic what the "Configure Global Security" config page does
-
-            // NOTE, Jenkins currently does not employ any sort of
-            // synchronization around their paths for updating the authorization
-            // strategy;
-            // However, with user login now driving the addition of users and
-            // their permissions, that does not seem prudent when users are
-            // logging in concurrently.
-
-            synchronized (USER_UPDATE_LOCK) {
-                GlobalMatrixAuthorizationStrategy existingAuthMgr = (GlobalMatrixAuthorizationStrategy) Jenkins
-                        .getInstance().getAuthorizationStrategy();
-                Set<String> usersGroups = existingAuthMgr.getGroups();
-
-                if (LOGGER.isLoggable(Level.FINE))
-                    LOGGER.fine(String
-                            .format("updateAuthorizationStrategy: got users %s where this user is %s",
-                                    usersGroups.toString(), info.getName()));
-
-                if (usersGroups.contains(matrixKey)) {
+    /**
+     * Evaluates the roles of a group, with SARs run by the service account
+     * for a subject that is only a member of that group.
+     */
+    Set<String> postGroupSAR(String group) throws IOException,
+            GeneralSecurityException {
+        populateDefaultsIfNeeded();
+        OpenShiftUserInfo subject = new OpenShiftUserInfo();
+        subject.metadata = new OpenShiftUserInfo.Metadata();
+        // with no user, the API server evaluates the groups alone
+        subject.metadata.name = "";
+        subject.groups = new ArrayList<String>(Collections.singletonList(group));
+        OpenShiftRateLimiter.getInstance().charge(ROLES.length);
+        return postSAR(serviceAccountCredential(), transport, subject);
+    }
+
+    /**
+     * @return the OpenShift roles that map to Jenkins permissions, highest
+     *         first
+     */
+    static List<String> getRoles() {
+        return ROLE_LIST;
+    }
+
+    /**
+     * @return the role and those below it, which a holder of the role is
+     *         also allowed; empty for roles other than admin, edit and view
+     */
+    static Set<String> getImpliedRoles(String role) {
+        int i = ROLE_LIST.indexOf(role);
+        if (i < 0)
+            return Collections.emptySet();
+        return new HashSet<String>(ROLE_LIST.subList(i, ROLE_LIST.size()));
+    }
+
+    /**
+     * @return the suffix for the highest of the roles, or null if there are
+     *         none
+     */
+    static String getRoleSuffix(Set<String> allowedRoles) {
+        if (allowedRoles.contains("admin"))
+            return "-admin";
+        else if (allowedRoles.contains("edit"))
+            return "-edit";
+        else if (allowedRoles.contains("view"))
+            return "-view";
+        return null;
+    }
+
+    private void updateUser(UsernamePasswordAuthenticationToken token,
+            OpenShiftUserInfo info) throws IOException {
+        User u = User.get(token.getName());
+        info.updateProfile(u);
+        // this controls the user name that is displayed atop the Jenkins
+        // browser window;
+        // we'll display the "core" user name without the admin/edit/view
+        // suffix
+        u.setFullName(info.getName());
+        u.save();
+    }
+
+    /**
+     * Adds whichever of the matrix keys are missing to the authorization
+     * matrix, with the permissions of their roles, in a single rebuild and
+     * save.
+     *
+     * @param user
+     *            the user logging in, or null when provisioning in bulk
+     * @return the number of keys added
+     */
+    private int addToMatrix(String user, Map<String, Set<String>> matrixKeys) {
+        return addToMatrix(user, matrixKeys, true);
+    }
+
+    /**
+     * @param persist
+     *            false for keys that are already stored, such as those
+     *            restored from the {@link OpenShiftGrantJournal}
+     */
+    private int addToMatrix(String user, Map<String, Set<String>> matrixKeys,
+            boolean persist) {
+        // So if you look at GlobalSecurityConfiguration and
+        // GlobalMatrixAuthorizationStrategy (including its DescriptorImpl)
+        // and the associated config.jelly files,
+        // you'll see that the AuthourizationStrategy object stored in
+        // Jenkins is *essentially* immutable (except for adds, with
+        // comments saying only to use durin contruction),
+        // and that when users manipulate
+        // the panel "Configure Global Security", new instances of
+        // Global/ProjectMatrixAuthorizationStrategy are created, where
+        // existing users are set up again.
+        // we'll mimic what the "Configure Global Security" config page does
+
+        // NOTE, Jenkins currently does not employ any sort of
+        // synchronization around their paths for updating the authorization
+        // strategy;
+        // However, with user login now driving the addition of users and
+        // their permissions, that does not seem prudent when users are
+        // logging in concurrently.
+
+        synchronized (USER_UPDATE_LOCK) {
+            GlobalMatrixAuthorizationStrategy existingAuthMgr = (GlobalMatrixAuthorizationStrategy) Jenkins
+                    .getInstance().getAuthorizationStrategy();
+            Set<String> usersGroups = existingAuthMgr.getGroups();
+
+            LOG.log(Level.FINE, "matrix.users",
+                    "updateAuthorizationStrategy: current matrix", "size",
+                    usersGroups.size(), "user", user);
+
+            Map<String, Set<String>> missing = new LinkedHashMap<String, Set<String>>();
+            for (Map.Entry<String, Set<String>> key : matrixKeys.entrySet()) {
+                if (usersGroups.contains(key.getKey())) {
+                    if (user == null)
+                        continue;
                     // since we store username-maxrole in the auth matrix, we
                     // can infer that since this user-role pair already exists
                     // as a key, there is no need to update the matrix
                     // since our permissions are still the same on the openshift
                     // side
-                    LOGGER.info(String
-                            .format("OpenShift OAuth: user %s, stored in the matrix as %s, based on OpenShift roles %s already exists in Jenkins",
-                                    info.getName(), matrixKey, allowedRoles));
+                    LOG.log(Level.INFO, "matrix.exists",
+                            "OpenShift OAuth: user already exists in Jenkins",
+                            "user", user, "key", key.getKey(), "roles",
+                            key.getValue());
                 } else {
-                    List<PermissionGroup> permissionGroups = new ArrayList<PermissionGroup>(
-                            PermissionGroup.getAll());
-                    if (LOGGER.isLoggable(Level.FINE))
-                        LOGGER.fine(String.format(
-                                "updateAuthorizationStrategy: permissions %s",
-                                permissionGroups.toString()));
-
-                    GlobalMatrixAuthorizationStrategy newAuthMgr = null;
-                    if (existingAuthMgr instanceof ProjectMatrixAuthorizationStrategy) {
-                        newAuthMgr = new ProjectMatrixAuthorizationStrategy();
-                    } else {
-                        newAuthMgr = new GlobalMatrixAuthorizationStrategy();
-                    }
-
-                    if (newAuthMgr != null) {
-                        for (String userGroup : usersGroups) {
-                            // copy any of the other users' permissions from the
-                            // prior auth mgr to our new one
-                            for (PermissionGroup pg : permissionGroups) {
-                                for (Permission p : pg.getPermissions()) {
-                                    if (existingAuthMgr.hasPermission(userGroup, p)) {
-                                        newAuthMgr.add(p, userGroup);
-                                    }
-                                }
-                            }
-
-                        }
+                    missing.put(key.getKey(), key.getValue());
+                }
+            }
+            if (missing.isEmpty())
+                return 0;
+
+            List<PermissionGroup> permissionGroups = new ArrayList<PermissionGroup>(
+                    PermissionGroup.getAll());
+            LOG.log(Level.FINE, "matrix.permissions",
+                    "updateAuthorizationStrategy: permissions", "groups",
+                    permissionGroups);
+
+            long rebuildStart = System.nanoTime();
+            GlobalMatrixAuthorizationStrategy newAuthMgr = null;
+            // whichever matrix strategy the admin picked is kept
+            if (existingAuthMgr instanceof OpenShiftNamespaceAuthorizationStrategy) {
+                newAuthMgr = new OpenShiftNamespaceAuthorizationStrategy();
+            } else if (existingAuthMgr instanceof ProjectMatrixAuthorizationStrategy) {
+                newAuthMgr = new ProjectMatrixAuthorizationStrategy();
+            } else {
+                newAuthMgr = new GlobalMatrixAuthorizationStrategy();
+            }
 
-                        LOGGER.info(String
-                                .format("OpenShift OAuth: adding permissions for user %s, stored in the matrix as %s, based on OpenShift roles %s",
-                                        info.getName(), matrixKey, allowedRoles));
-
-                        // map OpenShift user based on role to Jenkins user with
-                        // analogous permissions
-                        if (allowedRoles.contains("view")
-                                || allowedRoles.contains("edit")
-                                || allowedRoles.contains("admin")) {
-                            newAuthMgr.add(Hudson.READ, matrixKey);
-                            newAuthMgr.add(Item.READ, matrixKey);
-                            newAuthMgr.add(Item.DISCOVER, matrixKey);
-                            newAuthMgr.add(CredentialsProvider.VIEW, matrixKey);
-                        }
-                        if (allowedRoles.contains("edit")
-                                || allowedRoles.contains("admin")) {
-                            newAuthMgr.add(Item.BUILD, matrixKey);
-                            newAuthMgr.add(Item.CONFIGURE, matrixKey);
-                            newAuthMgr.add(Item.CREATE, matrixKey);
-                            newAuthMgr.add(Item.DELETE, matrixKey);
-                            newAuthMgr.add(Item.CANCEL, matrixKey);
-                            newAuthMgr.add(Item.WORKSPACE, matrixKey);
-                            newAuthMgr.add(SCM.TAG, matrixKey);
-                            newAuthMgr.add(Jenkins.RUN_SCRIPTS, matrixKey);
-                        }
-                        if (allowedRoles.contains("admin")) {
-                            newAuthMgr.add(Computer.CONFIGURE, matrixKey);
-                            newAuthMgr.add(Computer.DELETE, matrixKey);
-                            newAuthMgr.add(Hudson.ADMINISTER, matrixKey);
-                            newAuthMgr.add(Hudson.READ, matrixKey);
-                            newAuthMgr.add(Run.DELETE, matrixKey);
-                            newAuthMgr.add(Run.UPDATE, matrixKey);
-                            newAuthMgr.add(View.CONFIGURE, matrixKey);
-                            newAuthMgr.add(View.CREATE, matrixKey);
-                            newAuthMgr.add(View.DELETE, matrixKey);
-                            newAuthMgr.add(CredentialsProvider.CREATE,
-                                    matrixKey);
-                            newAuthMgr.add(CredentialsProvider.UPDATE,
-                                    matrixKey);
-                            newAuthMgr.add(CredentialsProvider.DELETE,
-                                    matrixKey);
-                            newAuthMgr.add(CredentialsProvider.MANAGE_DOMAINS,
-                                    matrixKey);
-                        }
-                        
-                        Jenkins.getInstance().setAuthorizationStrategy(
-                                newAuthMgr);
-                        try {
-                            Jenkins.getInstance().save();
-                        } catch (Throwable t) {
-                            // see https://jenkins.io/blog/2018/03/15/jep-200-lts/#after-the-upgrade
-                            // running on 2.107 ... seen intermittent errors here, even after 
-                            // marking transport transient (as the xml stuff does not use standard
-                            // serialization; switch from transient instance var to static var to 
-                            // attempt to avoid xml marshalling;
-                            // Always logging for now, but will monitor and bracket with a FINE 
-                            // logging level check if this becomes very verbose.
-                            LOGGER.log(Level.INFO, "updateAuthorizationStrategy", t);
+            for (String userGroup : usersGroups) {
+                // copy any of the other users' permissions from the
+                // prior auth mgr to our new one
+                for (PermissionGroup pg : permissionGroups) {
+                    for (Permission p : pg.getPermissions()) {
+                        if (existingAuthMgr.hasPermission(userGroup, p)) {
+                            newAuthMgr.add(p, userGroup);
                         }
                     }
                 }
 
             }
+
+            for (Map.Entry<String, Set<String>> key : missing.entrySet()) {
+                // rare and security relevant, so never rate limited
+                if (user != null)
+                    LOGGER.info(String
+                            .format("OpenShift OAuth: adding permissions for user %s, stored in the matrix as %s, based on OpenShift roles %s",
+                                    user, key.getKey(), key.getValue()));
+                addRolePermissions(newAuthMgr, key.getKey(), key.getValue());
+            }
+
+            OpenShiftMetrics.recordMatrixRebuild(System.nanoTime()
+                    - rebuildStart, newAuthMgr.getGroups().size());
+            Jenkins.getInstance().setAuthorizationStrategy(newAuthMgr);
+            if (!persist || appendToJournal(missing))
+                return missing.size();
+            long saveStart = System.nanoTime();
+            try {
+                Jenkins.getInstance().save();
+                OpenShiftMetrics.recordSave(System.nanoTime() - saveStart);
+            } catch (Throwable t) {
+                // see https://jenkins.io/blog/2018/03/15/jep-200-lts/#after-the-upgrade
+                // running on 2.107 ... seen intermittent errors here, even after 
+                // marking transport transient (as the xml stuff does not use standard
+                // serialization; switch from transient instance var to static var to 
+                // attempt to avoid xml marshalling;
+                // Always logging for now, but will monitor and bracket with a FINE 
+                // logging level check if this becomes very verbose.
+                LOGGER.log(Level.INFO, "updateAuthorizationStrategy", t);
+            }
+            return missing.size();
+        }
+    }
+
+    /**
+     * Records the grants in the {@link OpenShiftGrantJournal} if it is
+     * enabled.
+     *
+     * @return false if the Jenkins configuration has to be saved instead
+     */
+    private static boolean appendToJournal(Map<String, Set<String>> added) {
+        if (added.isEmpty() || !OpenShiftGrantJournal.isEnabled())
+            return false;
+        OpenShiftGrantJournal journal = OpenShiftGrantJournal.getInstance();
+        if (journal == null)
+            return false;
+        long start = System.nanoTime();
+        try {
+            journal.append(added);
+            OpenShiftMetrics.recordJournalAppend(System.nanoTime() - start);
+            return true;
+        } catch (IOException e) {
+            LOGGER.log(Level.INFO, "grant journal", e);
+            return false;
         }
+    }
 
-        return token;
+    /**
+     * Merges the grants kept by the {@link OpenShiftGrantJournal} into the
+     * authorization strategy.
+     *
+     * @return the number of entries added
+     */
+    int restoreGrants() throws IOException {
+        OpenShiftGrantJournal journal = OpenShiftGrantJournal.getInstance();
+        if (journal == null
+                || !(Jenkins.getInstance().getAuthorizationStrategy() instanceof GlobalMatrixAuthorizationStrategy))
+            return 0;
+        return addToMatrix(null, journal.load(), false);
+    }
+
+    /**
+     * Adds matrix entries for everyone bound to the admin, edit or view role
+     * in our namespace, as the service account, which must be allowed to
+     * list role bindings there; see {@link OpenShiftRoleBindings}.
+     *
+     * @return the number of entries added
+     */
+    int provisionRoleBindings() throws IOException, GeneralSecurityException {
+        populateDefaultsIfNeeded();
+        if (!(Jenkins.getInstance().getAuthorizationStrategy() instanceof GlobalMatrixAuthorizationStrategy))
+            return 0;
+        final Credential credential = serviceAccountCredential();
+        HttpRequestFactory requestFactory = transport
+                .createRequestFactory(new HttpRequestInitializer() {
+                    public void initialize(HttpRequest request)
+                            throws IOException {
+                        credential.initialize(request);
+                        request.setParser(new JsonObjectParser(JSON_FACTORY));
+                    }
+                });
+        OpenShiftRateLimiter.getInstance().charge(1);
+        HttpRequest request = requestFactory.buildGetRequest(new GenericUrl(
+                getDefaultedServerPrefix()
+                        + String.format(ROLE_BINDINGS_URI,
+                                getDefaultedNamespace())));
+        OpenShiftRoleBindingList bindings = executeAndParse(request,
+                OpenShiftRoleBindingList.class,
+                OpenShiftMetrics.Endpoint.ROLE_BINDINGS);
+        if (bindings == null)
+            return 0;
+        return addToMatrix(null, OpenShiftRoleBindings.getMatrixKeys(bindings,
+                getDefaultedNamespace(), OpenShiftGroupIndex.isEnabled()));
+    }
+
+    /**
+     * Maps an OpenShift role to Jenkins permissions analogous to it.
+     */
+    static void addRolePermissions(
+            GlobalMatrixAuthorizationStrategy newAuthMgr, String matrixKey,
+            Set<String> allowedRoles) {
+        if (allowedRoles.contains("view") || allowedRoles.contains("edit")
+                || allowedRoles.contains("admin")) {
+            newAuthMgr.add(Hudson.READ, matrixKey);
+            newAuthMgr.add(Item.READ, matrixKey);
+            newAuthMgr.add(Item.DISCOVER, matrixKey);
+            newAuthMgr.add(CredentialsProvider.VIEW, matrixKey);
+        }
+        if (allowedRoles.contains("edit") || allowedRoles.contains("admin")) {
+            newAuthMgr.add(Item.BUILD, matrixKey);
+            newAuthMgr.add(Item.CONFIGURE, matrixKey);
+            newAuthMgr.add(Item.CREATE, matrixKey);
+            newAuthMgr.add(Item.DELETE, matrixKey);
+            newAuthMgr.add(Item.CANCEL, matrixKey);
+            newAuthMgr.add(Item.WORKSPACE, matrixKey);
+            newAuthMgr.add(SCM.TAG, matrixKey);
+            newAuthMgr.add(Jenkins.RUN_SCRIPTS, matrixKey);
+        }
+        if (allowedRoles.contains("admin")) {
+            newAuthMgr.add(Computer.CONFIGURE, matrixKey);
+            newAuthMgr.add(Computer.DELETE, matrixKey);
+            newAuthMgr.add(Hudson.ADMINISTER, matrixKey);
+            newAuthMgr.add(Hudson.READ, matrixKey);
+            newAuthMgr.add(Run.DELETE, matrixKey);
+            newAuthMgr.add(Run.UPDATE, matrixKey);
+            newAuthMgr.add(View.CONFIGURE, matrixKey);
+            newAuthMgr.add(View.CREATE, matrixKey);
+            newAuthMgr.add(View.DELETE, matrixKey);
+            newAuthMgr.add(CredentialsProvider.CREATE, matrixKey);
+            newAuthMgr.add(CredentialsProvider.UPDATE, matrixKey);
+            newAuthMgr.add(CredentialsProvider.DELETE, matrixKey);
+            newAuthMgr.add(CredentialsProvider.MANAGE_DOMAINS, matrixKey);
+        }
     }
 
     /**
@@ -891,9 +1606,15 @@ public class OpenShiftOAuth2SecurityRealm extends SecurityRealm {
             LOGGER.entering(OpenShiftOAuth2SecurityRealm.class.getName(),
                     START_METHOD, new Object[] { from, referer });
 
-        // refresh defaults just in case the jenkins pod was recycled, etc.
+        // refresh defaults just in case the jenkins pod was recycled, etc.;
+        // with the prefetch on, that happens while the user is at the
+        // OpenShift login page instead
+        boolean prefetch = OpenShiftLoginPrefetch.isEnabled();
         try {
-            populateDefaults();
+            if (prefetch)
+                populateDefaultsIfNeeded();
+            else
+                populateDefaults();
         } catch (GeneralSecurityException e) {
             throw new RuntimeException(e);
         }
@@ -916,7 +1637,12 @@ public class OpenShiftOAuth2SecurityRealm extends SecurityRealm {
             redirectOnFinish = Jenkins.getInstance().getRootUrl();
         }
 
-        return newOAuthSession(from, redirectOnFinish).doCommenceLogin();
+        HttpResponse response = newOAuthSession(from, redirectOnFinish)
+                .doCommenceLogin();
+        if (prefetch)
+            OpenShiftLoginPrefetch.getInstance().start(
+                    OpenShiftExecutors.background(), prefetchTarget());
+        return response;
     }
 
     private String buildOAuthRedirectUrl(String redirect)
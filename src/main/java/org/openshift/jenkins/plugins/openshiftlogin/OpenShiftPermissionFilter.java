@@ -27,9 +27,8 @@ package org.openshift.jenkins.plugins.openshiftlogin;
 import hudson.EnvVars;
 
 import java.io.IOException;
-import java.util.LinkedHashMap;
-import java.util.Map;
-import java.util.Map.Entry;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
 import javax.servlet.Filter;
@@ -61,7 +60,6 @@ import jenkins.model.Jenkins;
  */
 public class OpenShiftPermissionFilter implements Filter {
 
-    private static final String LAST_SELF_SAR_POLL_TIME = "self-sar-time";
     private static final long SELF_SAR_POLL_INTERVAL = 5 * 60 * 1000; // 5
                                                                       // minutes
                                                                       // * 60
@@ -75,7 +73,23 @@ public class OpenShiftPermissionFilter implements Filter {
                                                                                                              // in
                                                                                                              // seconds
     private static final String OPENSHIFT_ACCESS_VIA_BEARER_TOKEN = "OPENSHIFT_ACCESS_VIA_BEARER_TOKEN";
+    // how long, in seconds past the poll interval, a previous role decision
+    // keeps being honored while the API server is unreachable
+    private static final String OPENSHIFT_PERMISSIONS_GRACE_PERIOD = "OPENSHIFT_PERMISSIONS_GRACE_PERIOD";
+    private static final long DEFAULT_PERMISSIONS_GRACE_PERIOD = 5 * 60;
+    private static final String OPENSHIFT_BEARER_CACHE_SIZE = "OPENSHIFT_BEARER_CACHE_SIZE";
     private static final int MAX_BEARER_CACHE_ENTRIES = 50;
+    // "sar" (the default) has the token look itself up via users/~;
+    // "tokenreview" has the service account look it up with a TokenReview
+    private static final String OPENSHIFT_BEARER_VALIDATION = "OPENSHIFT_BEARER_VALIDATION";
+    static final String BEARER_VALIDATION_TOKEN_REVIEW = "tokenreview";
+    // seconds a token's reviewed identity is reused for; the role decision is
+    // still refreshed every poll interval
+    private static final String OPENSHIFT_IDENTITY_CACHE_TTL = "OPENSHIFT_IDENTITY_CACHE_TTL";
+    private static final long DEFAULT_IDENTITY_CACHE_TTL = 60 * 60;
+    // verify service account tokens locally against the cluster's signing
+    // keys before falling back to either of the above
+    private static final String OPENSHIFT_BEARER_JWT_VERIFICATION = "OPENSHIFT_BEARER_JWT_VERIFICATION";
     private static String NEED_TO_AUTH = "\nYou need to supply credentials that allow you to be authenticated by OpenShift OAuth as a valid user who is assigned either the view, edit, or admin roles in the OpenShift project running this Jenkins instance. \n"
             + "If operating from a browser, provide your user credentials when solicited by the OpenShift login page.  Otherwise, supply as a part of any HTTP requests you generate a HTTP Authorization Bearer header\n"
             + "containing a token that correlates to your user credentials.\n";
@@ -91,23 +105,22 @@ public class OpenShiftPermissionFilter implements Filter {
     // so this is not persisted across restarts
     transient boolean initCalled = false;
 
-    class BearerCacheEntry {
-        long lastCheck;
-        UsernamePasswordAuthenticationToken token;
-    }
-
-    transient LinkedHashMap<String, BearerCacheEntry> bearerCache = new LinkedHashMap<String, BearerCacheEntry>(
-            MAX_BEARER_CACHE_ENTRIES) {
+    // keyed by a digest of the token, see OpenShiftTokenDigest
+    transient OpenShiftBearerCache bearerCache = new OpenShiftBearerCache(
+            OpenShiftEnvVars.getInt(OPENSHIFT_BEARER_CACHE_SIZE,
+                    MAX_BEARER_CACHE_ENTRIES));
 
-        @Override
-        protected boolean removeEldestEntry(
-                Entry<String, BearerCacheEntry> eldest) {
-            return size() > MAX_BEARER_CACHE_ENTRIES;
-        }
+    // identities from TokenReviews, also keyed by token digest
+    transient OpenShiftTtlCache<OpenShiftTokenDigest, OpenShiftUserInfo> identityCache = new OpenShiftTtlCache<OpenShiftTokenDigest, OpenShiftUserInfo>(
+            OpenShiftEnvVars.getInt(OPENSHIFT_BEARER_CACHE_SIZE,
+                    MAX_BEARER_CACHE_ENTRIES),
+            TimeUnit.SECONDS.toMillis(OpenShiftEnvVars.getLong(
+                    OPENSHIFT_IDENTITY_CACHE_TTL, DEFAULT_IDENTITY_CACHE_TTL)));
 
-    };
+    transient volatile OpenShiftJwtVerifier jwtVerifier;
 
     public OpenShiftPermissionFilter() {
+        OpenShiftDecisionSnapshot.attach(bearerCache);
     }
 
     @Override
@@ -118,47 +131,92 @@ public class OpenShiftPermissionFilter implements Filter {
     @Override
     public void doFilter(ServletRequest request, ServletResponse response,
             FilterChain chain) throws IOException, ServletException {
+        long start = System.nanoTime();
         try {
             boolean updated = OpenShiftSetOAuth.setOauth(false);
             final HttpServletRequest httpRequest = (HttpServletRequest) request;
-            long interval = SELF_SAR_POLL_INTERVAL;
-            String var = EnvVars.masterEnvVars
-                    .get(OPENSHIFT_PERMISSIONS_POLL_INTERVAL);
-            if (var != null) {
-                try {
-                    interval = Long.parseLong(var);
-                } catch (Throwable t) {
-
-                }
-            }
+            long interval = getPollInterval();
+            long gracePeriod = getGracePeriod();
             HttpSession s = httpRequest.getSession(false);
             if (s != null) {
 
-                OAuthSession oauth = (OAuthSession) s
-                        .getAttribute(OAuthSession.SESSION_NAME);
-                if (oauth != null && oauth.getCredential() != null) {
+                OpenShiftSessionState state = (OpenShiftSessionState) s
+                        .getAttribute(OpenShiftSessionState.SESSION_NAME);
+                if (state != null) {
                     try {
-                        Long lastPermissionPoll = (Long) s
-                                .getAttribute(OAuthSession.SESSION_NAME
-                                        + LAST_SELF_SAR_POLL_TIME);
-                        if (lastPermissionPoll == null) {
-                            lastPermissionPoll = new Long(
-                                    System.currentTimeMillis());
-                            s.setAttribute(OAuthSession.SESSION_NAME
-                                    + LAST_SELF_SAR_POLL_TIME,
-                                    new Long(System.currentTimeMillis()));
+                        if (state.getCredential() == null
+                                || state.isIdentityChanged()) {
+                            // either the session was restored without its
+                            // tokens, or they now belong to someone else
+                            clearSession(s);
+                            return;
+                        }
+                        state.refreshIfNeeded((OpenShiftOAuth2SecurityRealm) Jenkins
+                                .getInstance().getSecurityRealm());
+                        long lastPermissionPoll = state.getLastPoll();
+                        SessionAction action = getSessionAction(
+                                state.getExpiresAt(), lastPermissionPoll,
+                                interval * 1000, System.currentTimeMillis());
+                        if (action == SessionAction.CLEAR) {
+                            // a SAR with this token can only fail now, and
+                            // it could not be refreshed, so rather than
+                            // poll, send the user back through login
+                            if (OpenShiftOAuth2SecurityRealm.LOGGER
+                                    .isLoggable(Level.FINE))
+                                OpenShiftOAuth2SecurityRealm.LOGGER
+                                        .fine("filter: access token for session expired, clearing session");
+                            clearSession(s);
+                            return;
                         }
+                        OpenShiftActiveUsers.seen(state.getUserName());
 
-                        if (updated
-                                || (System.currentTimeMillis()
-                                        - lastPermissionPoll.longValue() > (interval * 1000))) {
+                        if (updated || action == SessionAction.POLL) {
+                            OpenShiftActiveUsers.Record scheduled = null;
+                            if (!updated
+                                    && OpenShiftPermissionScheduler.isEnabled())
+                                scheduled = OpenShiftActiveUsers.getDecision(
+                                        state.getUserName(),
+                                        (interval + gracePeriod) * 1000);
+                            if (scheduled != null) {
+                                // the scheduler keeps this user's decision
+                                // current; we only read it, and only poll
+                                // here if it has fallen too far behind
+                                if (scheduled.token != null)
+                                    SecurityContextHolder.getContext()
+                                            .setAuthentication(scheduled.token);
+                                state.setDecision(scheduled.token,
+                                        scheduled.decidedAt);
+                                return;
+                            }
                             OpenShiftOAuth2SecurityRealm secRealm = (OpenShiftOAuth2SecurityRealm) Jenkins
                                     .getInstance().getSecurityRealm();
-                            secRealm.updateAuthorizationStrategy(oauth
-                                    .getCredential());
-                            s.setAttribute(OAuthSession.SESSION_NAME
-                                    + LAST_SELF_SAR_POLL_TIME,
-                                    new Long(System.currentTimeMillis()));
+                            try {
+                                state.setDecision(secRealm
+                                        .updateAuthorizationStrategy(state
+                                                .getCredential()), System
+                                        .currentTimeMillis());
+                            } catch (OpenShiftApiUnavailableException e) {
+                                // the master is unhealthy; the role decision
+                                // from the last poll stays in the session
+                                // until the grace period runs out; we leave
+                                // the poll time alone so the next request
+                                // tries again (which fails fast while the
+                                // circuit is open)
+                                if (System.currentTimeMillis()
+                                        - lastPermissionPoll > ((interval + gracePeriod) * 1000)) {
+                                    OpenShiftOAuth2SecurityRealm.LOGGER
+                                            .log(Level.WARNING,
+                                                    "OpenShift OAuth: permissions could not be revalidated within the grace period, logging out session",
+                                                    e);
+                                    clearSession(s);
+                                } else {
+                                    OpenShiftMetrics.recordStaleDecision();
+                                    if (OpenShiftOAuth2SecurityRealm.LOGGER
+                                            .isLoggable(Level.FINE))
+                                        OpenShiftOAuth2SecurityRealm.LOGGER
+                                                .log(Level.FINE, "filter", e);
+                                }
+                            }
                         }
                     } catch (Throwable t) {
                         OpenShiftOAuth2SecurityRealm.LOGGER.log(Level.SEVERE,
@@ -181,12 +239,15 @@ public class OpenShiftPermissionFilter implements Filter {
                             String[] words = authHdr.split(" ");
                             if (words.length > 1) {
                                 String token = words[1];
+                                OpenShiftTokenDigest digest = OpenShiftTokenDigest
+                                        .of(token);
 
-                                BearerCacheEntry entry = bearerCache.get(token);
+                                OpenShiftBearerCache.Entry entry = bearerCache
+                                        .get(digest);
                                 boolean firstTime = false;
                                 if (entry == null) {
-                                    entry = new BearerCacheEntry();
-                                    bearerCache.put(token, entry);
+                                    entry = new OpenShiftBearerCache.Entry();
+                                    bearerCache.put(digest, entry);
                                     entry.lastCheck = 0;
                                     // we check for first time in case system time is say reset to 1970
                                     // (perhaps we are in a VM that just spun up and the time has not been set)
@@ -197,17 +258,29 @@ public class OpenShiftPermissionFilter implements Filter {
                                 if (updated || firstTime
                                         || System.currentTimeMillis()
                                                 - entry.lastCheck > (interval * 1000)) {
-                                    entry.lastCheck = new Long(
-                                            System.currentTimeMillis());
+                                    OpenShiftMetrics.recordBearerCacheMiss();
+                                    entry.lastCheck = System
+                                            .currentTimeMillis();
                                     final Credential credential = new Credential(
                                             BearerToken
                                                     .authorizationHeaderAccessMethod())
                                             .setAccessToken(token);
                                     OpenShiftOAuth2SecurityRealm secRealm = (OpenShiftOAuth2SecurityRealm) Jenkins
                                             .getInstance().getSecurityRealm();
-                                    //REMINDER - updateAuthorizationStrategy will call SecurityContextHolder.getContext().setAuthentication
-                                    UsernamePasswordAuthenticationToken jenkinsToken = secRealm
-                                            .updateAuthorizationStrategy(credential);
+                                    UsernamePasswordAuthenticationToken jenkinsToken = null;
+                                    try {
+                                        //REMINDER - updateAuthorizationStrategy will call SecurityContextHolder.getContext().setAuthentication
+                                        jenkinsToken = validateBearerToken(
+                                                secRealm, credential, digest,
+                                                (interval + gracePeriod) * 1000);
+                                    } catch (OpenShiftApiUnavailableException e) {
+                                        serveLastKnownDecision(digest, entry,
+                                                (interval + gracePeriod) * 1000,
+                                                (HttpServletResponse) response,
+                                                e);
+                                        return;
+                                    }
+                                    entry.lastSuccess = entry.lastCheck;
 
                                     // TODO can we assume that once a token is
                                     // invalid, it is always invalid? If so, we
@@ -217,11 +290,14 @@ public class OpenShiftPermissionFilter implements Filter {
                                     // note, if token is invalid, an
                                     // exception is thrown and we don't get to
                                     // this line
-                                    entry.token = jenkinsToken;
-                                } else if (entry.token != null) {
+                                    entry.setDecision(jenkinsToken);
+                                } else if (entry.hasDecision()) {
+                                    OpenShiftMetrics.recordBearerCacheHit();
                                     SecurityContextHolder.getContext()
-                                            .setAuthentication(entry.token);
+                                            .setAuthentication(
+                                                    entry.toAuthentication());
                                 } else {
+                                    OpenShiftMetrics.recordBearerCacheHit();
                                     HttpServletResponse httpResponse = (HttpServletResponse) response;
                                     httpResponse.sendError(401, NEED_TO_AUTH);
                                 }
@@ -239,10 +315,208 @@ public class OpenShiftPermissionFilter implements Filter {
             }
 
         } finally {
+            OpenShiftMetrics.recordFilter(System.nanoTime() - start);
             chain.doFilter(request, response);
         }
     }
 
+    /**
+     * Resolves who the token belongs to and what OpenShift role they have in
+     * our namespace, either entirely with the token itself or, with
+     * OPENSHIFT_BEARER_VALIDATION=tokenreview, by a service account
+     * TokenReview (cached for OPENSHIFT_IDENTITY_CACHE_TTL) followed by the
+     * token's own SARs. With OPENSHIFT_BEARER_JWT_VERIFICATION=true, service
+     * account tokens get their identity from {@link OpenShiftJwtVerifier}
+     * instead, and only the SARs go to the API server.
+     */
+    private UsernamePasswordAuthenticationToken validateBearerToken(
+            OpenShiftOAuth2SecurityRealm secRealm, Credential credential,
+            OpenShiftTokenDigest digest, long maxDecisionAgeMillis)
+            throws IOException, GeneralSecurityException {
+        if (OpenShiftEnvVars.getBoolean(OPENSHIFT_BEARER_JWT_VERIFICATION,
+                false)) {
+            OpenShiftUserInfo identity = getJwtVerifier(secRealm).verify(
+                    credential.getAccessToken());
+            OpenShiftMetrics.recordJwtVerification(identity != null);
+            if (identity != null)
+                return authorize(secRealm, credential, digest, identity,
+                        false, maxDecisionAgeMillis);
+        }
+        if (!isTokenReview())
+            return secRealm.updateAuthorizationStrategy(credential);
+        OpenShiftUserInfo identity = identityCache.get(digest);
+        boolean reviewed = identity == null;
+        if (reviewed) {
+            OpenShiftMetrics.recordIdentityCacheMiss();
+            identity = secRealm.reviewToken(credential.getAccessToken());
+            identityCache.put(digest, identity);
+        } else {
+            OpenShiftMetrics.recordIdentityCacheHit();
+        }
+        try {
+            return authorize(secRealm, credential, digest, identity,
+                    reviewed, maxDecisionAgeMillis);
+        } catch (HttpResponseException e) {
+            // most likely the token was revoked since it was reviewed
+            identityCache.remove(digest);
+            throw e;
+        }
+    }
+
+    private static boolean isTokenReview() {
+        return BEARER_VALIDATION_TOKEN_REVIEW.equalsIgnoreCase(OpenShiftEnvVars
+                .getString(OPENSHIFT_BEARER_VALIDATION, "sar"));
+    }
+
+    /**
+     * Takes the {@link OpenShiftPermissionScheduler}'s decision for a known
+     * identity if there is a recent enough one, otherwise runs the token's
+     * own SARs. As the scheduler's decision does not involve the token,
+     * taking it means first checking with the API server that the token is
+     * still good, unless the identity was just reviewed; this runs once per
+     * poll interval, as does every validation of a given token.
+     *
+     * @param reviewed
+     *            whether the identity comes from a TokenReview made for this
+     *            validation, rather than from the identity cache or a local
+     *            JWT verification
+     */
+    private UsernamePasswordAuthenticationToken authorize(
+            OpenShiftOAuth2SecurityRealm secRealm, Credential credential,
+            OpenShiftTokenDigest digest, OpenShiftUserInfo identity,
+            boolean reviewed, long maxDecisionAgeMillis) throws IOException,
+            GeneralSecurityException {
+        if (OpenShiftPermissionScheduler.isEnabled()) {
+            OpenShiftActiveUsers.seen(identity.getName());
+            OpenShiftActiveUsers.Record scheduled = OpenShiftActiveUsers
+                    .getDecision(identity.getName(), maxDecisionAgeMillis);
+            if (scheduled != null) {
+                // a revoked or deleted token fails here with a 401
+                if (!reviewed)
+                    confirmToken(secRealm, credential, digest);
+                if (scheduled.token != null)
+                    SecurityContextHolder.getContext().setAuthentication(
+                            scheduled.token);
+                return scheduled.token;
+            }
+        }
+        return secRealm.updateAuthorizationStrategy(credential, identity);
+    }
+
+    /**
+     * Asks the API server whether the token is still valid, with a
+     * TokenReview under OPENSHIFT_BEARER_VALIDATION=tokenreview, and
+     * otherwise with a users/~ call made with the token itself.
+     */
+    private void confirmToken(OpenShiftOAuth2SecurityRealm secRealm,
+            Credential credential, OpenShiftTokenDigest digest)
+            throws IOException, GeneralSecurityException {
+        if (isTokenReview())
+            identityCache.put(digest,
+                    secRealm.reviewToken(credential.getAccessToken()));
+        else
+            secRealm.getOpenShiftUserName(credential);
+    }
+
+    private OpenShiftJwtVerifier getJwtVerifier(
+            OpenShiftOAuth2SecurityRealm secRealm) throws IOException,
+            GeneralSecurityException {
+        OpenShiftJwtVerifier verifier = jwtVerifier;
+        if (verifier == null) {
+            verifier = secRealm.newJwtVerifier();
+            jwtVerifier = verifier;
+        }
+        return verifier;
+    }
+
+    /**
+     * @return the permissions poll interval, in seconds
+     */
+    static long getPollInterval() {
+        return OpenShiftEnvVars.getLong(OPENSHIFT_PERMISSIONS_POLL_INTERVAL,
+                SELF_SAR_POLL_INTERVAL / 1000);
+    }
+
+    /**
+     * @return how long, in seconds past the poll interval, a previous role
+     *         decision is honored while the API server is unreachable
+     */
+    static long getGracePeriod() {
+        return OpenShiftEnvVars.getLong(OPENSHIFT_PERMISSIONS_GRACE_PERIOD,
+                DEFAULT_PERMISSIONS_GRACE_PERIOD);
+    }
+
+    /**
+     * @return true if the token expiry, as reported by the OAuth token
+     *         response, has passed; tokens without a known expiry never
+     *         expire as far as we are concerned
+     */
+    static boolean isExpired(Long expiresAt, long now) {
+        return expiresAt != null && now >= expiresAt.longValue();
+    }
+
+    /**
+     * What a browser request does with its session.
+     */
+    enum SessionAction {
+        /** the access token expired and could not be refreshed */
+        CLEAR,
+        /** the permissions are due to be polled */
+        POLL,
+        /** the role decision in the session stands */
+        SERVE
+    }
+
+    /**
+     * An expired token clears the session rather than being polled with, as
+     * a SAR with it can only fail; otherwise the permissions are polled once
+     * the poll interval has passed since the last poll.
+     */
+    static SessionAction getSessionAction(Long expiresAt, long lastPoll,
+            long intervalMillis, long now) {
+        if (isExpired(expiresAt, now))
+            return SessionAction.CLEAR;
+        if (now > lastPoll + intervalMillis)
+            return SessionAction.POLL;
+        return SessionAction.SERVE;
+    }
+
+    /**
+     * Called when the API server could not be asked about a bearer token;
+     * keeps honoring the previous decision for the token if it is recent
+     * enough, otherwise answers 503.
+     */
+    private void serveLastKnownDecision(OpenShiftTokenDigest digest,
+            OpenShiftBearerCache.Entry entry,
+            long maxAgeMillis, HttpServletResponse response,
+            OpenShiftApiUnavailableException e) throws IOException {
+        if (entry.hasDecision()
+                && System.currentTimeMillis() - entry.lastSuccess <= maxAgeMillis) {
+            OpenShiftMetrics.recordStaleDecision();
+            // retry on the next request rather than after a full interval
+            entry.lastCheck = entry.lastSuccess;
+            SecurityContextHolder.getContext().setAuthentication(
+                    entry.toAuthentication());
+            return;
+        }
+        // don't let the failure be cached as an invalid token
+        bearerCache.remove(digest);
+        response.sendError(503, e.getMessage());
+    }
+
+    /**
+     * Logs the browser session out, so the user is sent back through the
+     * OpenShift login the next time around.
+     */
+    static void clearSession(HttpSession s) {
+        SecurityContextHolder.clearContext();
+        try {
+            s.invalidate();
+        } catch (IllegalStateException e) {
+            // already invalidated
+        }
+    }
+
     @Override
     public void destroy() {
     }
@@ -0,0 +1,218 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.openshift.jenkins.plugins.openshiftlogin;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.init.Terminator;
+import hudson.security.SecurityRealm;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+
+/**
+ * With OPENSHIFT_IMPERSONATED_SAR=true, owns the revalidation of every
+ * recently seen user's roles, using SARs the service account runs on their
+ * behalf; request threads only read the decisions from
+ * {@link OpenShiftActiveUsers}.
+ *
+ * Each user comes due once per poll interval, less a random share of up to
+ * OPENSHIFT_PERMISSIONS_POLL_JITTER percent fixed when we first see them, so
+ * users who all logged in right after a restart are spread out rather than
+ * revalidated in one wave. Due users are taken most recently active first,
+ * for as long as the {@link OpenShiftRateLimiter} budget allows; the rest
+ * wait for a later tick.
+ */
+public class OpenShiftPermissionScheduler {
+
+    static final String OPENSHIFT_IMPERSONATED_SAR = "OPENSHIFT_IMPERSONATED_SAR";
+    // how many users are revalidated at once
+    private static final String OPENSHIFT_PERMISSIONS_SWEEP_PARALLELISM = "OPENSHIFT_PERMISSIONS_SWEEP_PARALLELISM";
+    private static final int DEFAULT_SWEEP_PARALLELISM = 4;
+    private static final String OPENSHIFT_PERMISSIONS_POLL_JITTER = "OPENSHIFT_PERMISSIONS_POLL_JITTER"; // percent
+    private static final long DEFAULT_POLL_JITTER = 20;
+    // users not seen for this many poll intervals are no longer revalidated
+    private static final int IDLE_INTERVALS = 3;
+    private static final long TICK_SECONDS = 5;
+    private static final int QUEUE_SIZE = 1000;
+
+    private static ScheduledFuture<?> ticker;
+    private static ThreadPoolExecutor pool;
+
+    private OpenShiftPermissionScheduler() {
+    }
+
+    static boolean isEnabled() {
+        return OpenShiftEnvVars.getBoolean(OPENSHIFT_IMPERSONATED_SAR, false);
+    }
+
+    @Initializer(after = InitMilestone.PLUGINS_STARTED)
+    public static synchronized void start() {
+        if (ticker != null)
+            return;
+        pool = OpenShiftExecutors.newBoundedPool(
+                "OpenShift permission scheduler", OpenShiftEnvVars.getInt(
+                        OPENSHIFT_PERMISSIONS_SWEEP_PARALLELISM,
+                        DEFAULT_SWEEP_PARALLELISM), QUEUE_SIZE);
+        ticker = Timer.get().scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    tick();
+                } catch (Throwable t) {
+                    OpenShiftOAuth2SecurityRealm.LOGGER.log(Level.INFO,
+                            "permission scheduler", t);
+                }
+            }
+        }, TICK_SECONDS, TICK_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @Terminator
+    public static synchronized void stop() {
+        if (ticker != null) {
+            ticker.cancel(false);
+            ticker = null;
+        }
+        if (pool != null) {
+            pool.shutdownNow();
+            pool = null;
+        }
+    }
+
+    private static void tick() {
+        if (!isEnabled())
+            return;
+        SecurityRealm realm = Jenkins.getInstance().getSecurityRealm();
+        if (!(realm instanceof OpenShiftOAuth2SecurityRealm))
+            return;
+        ThreadPoolExecutor executor;
+        synchronized (OpenShiftPermissionScheduler.class) {
+            executor = pool;
+        }
+        if (executor == null)
+            return;
+        long interval = TimeUnit.SECONDS.toMillis(OpenShiftPermissionFilter
+                .getPollInterval());
+        List<OpenShiftActiveUsers.Record> due = selectDue(
+                OpenShiftActiveUsers.active(IDLE_INTERVALS * interval),
+                System.currentTimeMillis(), interval, getJitter());
+        submit((OpenShiftOAuth2SecurityRealm) realm, due, executor,
+                OpenShiftRateLimiter.getInstance());
+    }
+
+    private static double getJitter() {
+        long percent = OpenShiftEnvVars.getLong(
+                OPENSHIFT_PERMISSIONS_POLL_JITTER, DEFAULT_POLL_JITTER);
+        return Math.max(0, Math.min(percent, 100)) / 100.0;
+    }
+
+    /**
+     * @return when the user's decision should be revalidated
+     */
+    static long dueAt(OpenShiftActiveUsers.Record record, long intervalMillis,
+            double jitter) {
+        return record.decidedAt + intervalMillis
+                - (long) (intervalMillis * jitter * record.jitter);
+    }
+
+    /**
+     * @return the users due for revalidation and not already queued, most
+     *         recently seen first
+     */
+    static List<OpenShiftActiveUsers.Record> selectDue(
+            List<OpenShiftActiveUsers.Record> active, long now,
+            long intervalMillis, double jitter) {
+        List<OpenShiftActiveUsers.Record> due = new ArrayList<OpenShiftActiveUsers.Record>();
+        for (OpenShiftActiveUsers.Record record : active) {
+            if (!record.scheduled.get()
+                    && now >= dueAt(record, intervalMillis, jitter))
+                due.add(record);
+        }
+        Collections.sort(due, new Comparator<OpenShiftActiveUsers.Record>() {
+            public int compare(OpenShiftActiveUsers.Record a,
+                    OpenShiftActiveUsers.Record b) {
+                return a.lastSeen > b.lastSeen ? -1
+                        : a.lastSeen < b.lastSeen ? 1 : 0;
+            }
+        });
+        return due;
+    }
+
+    /**
+     * Queues revalidations for as many of the due users as the budget
+     * allows.
+     *
+     * @return the number queued
+     */
+    static int submit(final OpenShiftOAuth2SecurityRealm realm,
+            List<OpenShiftActiveUsers.Record> due, ThreadPoolExecutor executor,
+            OpenShiftRateLimiter limiter) {
+        int cost = OpenShiftOAuth2SecurityRealm.getRoleCount();
+        int submitted = 0;
+        for (int i = 0; i < due.size(); i++) {
+            final OpenShiftActiveUsers.Record user = due.get(i);
+            // a user already queued costs nothing
+            if (!user.scheduled.compareAndSet(false, true))
+                continue;
+            if (!limiter.tryAcquire(cost)) {
+                user.scheduled.set(false);
+                OpenShiftMetrics.recordRevalidationsDeferred(due.size() - i);
+                break;
+            }
+            try {
+                executor.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            realm.revalidate(user.info);
+                            OpenShiftMetrics.recordRevalidation(true);
+                        } catch (Throwable t) {
+                            // the user's decision ages, and past the grace
+                            // period their next request polls inline
+                            OpenShiftMetrics.recordRevalidation(false);
+                            if (OpenShiftOAuth2SecurityRealm.LOGGER
+                                    .isLoggable(Level.FINE))
+                                OpenShiftOAuth2SecurityRealm.LOGGER.log(
+                                        Level.FINE, "revalidate", t);
+                        } finally {
+                            user.scheduled.set(false);
+                        }
+                    }
+                });
+                submitted++;
+            } catch (RejectedExecutionException e) {
+                user.scheduled.set(false);
+                break;
+            }
+        }
+        return submitted;
+    }
+}
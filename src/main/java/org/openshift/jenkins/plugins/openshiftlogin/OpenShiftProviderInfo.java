@@ -54,6 +54,13 @@ public class OpenShiftProviderInfo {
     @Key
     public String token_endpoint;
 
+    /**
+     * Only in the OpenID discovery document served at
+     * https://SERVER/.well-known/openid-configuration
+     */
+    @Key
+    public String jwks_uri;
+
     @Override
     public String toString() {
         return "OpenShiftProviderInfo: issuer: " + issuer + " auth ep: "
@@ -0,0 +1,111 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.openshift.jenkins.plugins.openshiftlogin;
+
+/**
+ * A token bucket budgeting the SAR and users/~ calls this Jenkins makes
+ * against the API server, shared by everything that makes them.
+ *
+ * Background revalidation asks for permits and backs off when there are none;
+ * calls a user is waiting on are charged against the budget but never held
+ * back, so they only leave less for the background work.
+ */
+public class OpenShiftRateLimiter {
+
+    static final String OPENSHIFT_API_RATE_LIMIT = "OPENSHIFT_API_RATE_LIMIT"; // calls per second
+    static final String OPENSHIFT_API_RATE_BURST = "OPENSHIFT_API_RATE_BURST";
+
+    static final long DEFAULT_RATE_LIMIT = 10;
+    static final long DEFAULT_RATE_BURST = 50;
+
+    private static volatile OpenShiftRateLimiter instance;
+
+    private final double permitsPerNano;
+    private final double capacity;
+
+    // guarded by this
+    private double available;
+    private long refilledAt;
+
+    public OpenShiftRateLimiter(double permitsPerSecond, double capacity) {
+        this.permitsPerNano = permitsPerSecond / 1e9;
+        this.capacity = capacity;
+        this.available = capacity;
+        this.refilledAt = System.nanoTime();
+    }
+
+    public static OpenShiftRateLimiter getInstance() {
+        if (instance == null) {
+            synchronized (OpenShiftRateLimiter.class) {
+                if (instance == null) {
+                    instance = new OpenShiftRateLimiter(
+                            OpenShiftEnvVars.getLong(OPENSHIFT_API_RATE_LIMIT,
+                                    DEFAULT_RATE_LIMIT),
+                            OpenShiftEnvVars.getLong(OPENSHIFT_API_RATE_BURST,
+                                    DEFAULT_RATE_BURST));
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Exposed for testing.
+     */
+    static void setInstance(OpenShiftRateLimiter limiter) {
+        instance = limiter;
+    }
+
+    /**
+     * Takes the permits if they are all available right now.
+     */
+    public synchronized boolean tryAcquire(int permits) {
+        refill();
+        if (available < permits)
+            return false;
+        available -= permits;
+        return true;
+    }
+
+    /**
+     * Takes the permits regardless; the bucket can go into debt by at most
+     * its capacity.
+     */
+    public synchronized void charge(int permits) {
+        refill();
+        available = Math.max(available - permits, -capacity);
+    }
+
+    public synchronized long getAvailable() {
+        refill();
+        return (long) available;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        available = Math.min(capacity, available + (now - refilledAt)
+                * permitsPerNano);
+        refilledAt = now;
+    }
+}
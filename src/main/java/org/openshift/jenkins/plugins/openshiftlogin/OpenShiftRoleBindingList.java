@@ -0,0 +1,63 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.openshift.jenkins.plugins.openshiftlogin;
+
+import java.util.List;
+
+import com.google.api.client.util.Key;
+
+/**
+ * The role bindings of a namespace.
+ *
+ * This is from https://SERVER/oapi/v1/namespaces/NAMESPACE/rolebindings
+ */
+public class OpenShiftRoleBindingList {
+
+    public static class RoleRef {
+        @Key
+        public String name;
+    }
+
+    public static class Subject {
+        @Key
+        public String kind;
+
+        @Key
+        public String name;
+
+        @Key
+        public String namespace;
+    }
+
+    public static class RoleBinding {
+        @Key
+        public RoleRef roleRef;
+
+        @Key
+        public List<Subject> subjects;
+    }
+
+    @Key
+    public List<RoleBinding> items;
+}
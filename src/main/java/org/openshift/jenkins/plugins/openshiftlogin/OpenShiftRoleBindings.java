@@ -0,0 +1,140 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.openshift.jenkins.plugins.openshiftlogin;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+
+/**
+ * With OPENSHIFT_PREPROVISION_ROLEBINDINGS=true, adds a matrix entry for
+ * everyone bound to the admin, edit or view role in our namespace once
+ * Jenkins starts, in a single rebuild and save, so that their logins find
+ * their entry already there instead of each rebuilding and saving the
+ * matrix.
+ */
+public class OpenShiftRoleBindings {
+
+    static final String OPENSHIFT_PREPROVISION_ROLEBINDINGS = "OPENSHIFT_PREPROVISION_ROLEBINDINGS";
+
+    private static final String SERVICE_ACCOUNT_PREFIX = "system:serviceaccount:";
+
+    private static final AtomicBoolean provisioned = new AtomicBoolean();
+
+    private OpenShiftRoleBindings() {
+    }
+
+    /**
+     * Provisions the matrix on a background thread, once per start.
+     */
+    static void provisionAsync(final OpenShiftOAuth2SecurityRealm realm) {
+        if (!OpenShiftEnvVars.getBoolean(OPENSHIFT_PREPROVISION_ROLEBINDINGS,
+                false) || !provisioned.compareAndSet(false, true))
+            return;
+        try {
+            OpenShiftExecutors.background().execute(new Runnable() {
+                public void run() {
+                    long start = System.nanoTime();
+                    try {
+                        int count = realm.provisionRoleBindings();
+                        OpenShiftOAuth2SecurityRealm.LOGGER.info(String
+                                .format("OpenShift OAuth: provisioned %d matrix entries from role bindings in %d ms",
+                                        count, (System.nanoTime() - start)
+                                                / 1000000));
+                    } catch (Throwable t) {
+                        // users are added as they log in, as without this
+                        OpenShiftOAuth2SecurityRealm.LOGGER.log(Level.INFO,
+                                "OpenShift OAuth: could not provision the matrix from role bindings",
+                                t);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            provisioned.set(false);
+        }
+    }
+
+    /**
+     * @param namespace
+     *            the namespace the bindings are from, for service accounts
+     *            bound without one
+     * @param groups
+     *            whether group subjects get entries of their own; see
+     *            {@link OpenShiftGroupIndex}
+     * @return the matrix key of each subject bound to one of the roles, with
+     *         the roles it stands for, as a login's SARs would find them
+     */
+    static Map<String, Set<String>> getMatrixKeys(
+            OpenShiftRoleBindingList bindings, String namespace, boolean groups) {
+        Map<String, Set<String>> rolesBySubject = new LinkedHashMap<String, Set<String>>();
+        if (bindings.items != null) {
+            for (OpenShiftRoleBindingList.RoleBinding binding : bindings.items) {
+                if (binding == null || binding.roleRef == null
+                        || binding.subjects == null)
+                    continue;
+                Set<String> granted = OpenShiftOAuth2SecurityRealm
+                        .getImpliedRoles(binding.roleRef.name);
+                if (granted.isEmpty())
+                    continue;
+                for (OpenShiftRoleBindingList.Subject subject : binding.subjects) {
+                    String name = getName(subject, namespace, groups);
+                    if (name == null)
+                        continue;
+                    Set<String> roles = rolesBySubject.get(name);
+                    if (roles == null) {
+                        roles = new HashSet<String>();
+                        rolesBySubject.put(name, roles);
+                    }
+                    roles.addAll(granted);
+                }
+            }
+        }
+        Map<String, Set<String>> keys = new LinkedHashMap<String, Set<String>>();
+        for (Map.Entry<String, Set<String>> subject : rolesBySubject.entrySet()) {
+            keys.put(subject.getKey()
+                    + OpenShiftOAuth2SecurityRealm.getRoleSuffix(subject
+                            .getValue()), subject.getValue());
+        }
+        return keys;
+    }
+
+    private static String getName(OpenShiftRoleBindingList.Subject subject,
+            String namespace, boolean groups) {
+        if (subject == null || subject.name == null || subject.kind == null)
+            return null;
+        if ("User".equals(subject.kind))
+            return subject.name;
+        if ("ServiceAccount".equals(subject.kind))
+            return SERVICE_ACCOUNT_PREFIX
+                    + (subject.namespace != null ? subject.namespace
+                            : namespace) + ":" + subject.name;
+        if ("Group".equals(subject.kind) && groups)
+            return subject.name;
+        return null;
+    }
+}
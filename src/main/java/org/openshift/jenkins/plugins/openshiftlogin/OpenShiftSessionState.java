@@ -0,0 +1,291 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.openshift.jenkins.plugins.openshiftlogin;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+
+import org.acegisecurity.providers.UsernamePasswordAuthenticationToken;
+
+import com.google.api.client.auth.oauth2.Credential;
+
+/**
+ * What the HTTP session keeps about a user once their OpenShift login has
+ * completed, in place of the {@link OAuthSession} used during the login.
+ *
+ * Only the identity, the role decision, a digest of the access token and the
+ * poll bookkeeping are serialized; the tokens themselves stay in memory, so a
+ * session restored from disk or replicated to another node has no credential
+ * and the user logs in again.
+ */
+public class OpenShiftSessionState implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    static final String SESSION_NAME = OpenShiftSessionState.class.getName();
+
+    // seconds before expiry at which we start renewing the access token
+    private static final String OPENSHIFT_TOKEN_REFRESH_WINDOW = "OPENSHIFT_TOKEN_REFRESH_WINDOW";
+    private static final long DEFAULT_TOKEN_REFRESH_WINDOW = 5 * 60;
+    // how long a request for an already expired token waits on a refresh
+    // started by another request (say another browser tab)
+    private static final long REFRESH_WAIT_SECONDS = 10;
+
+    /**
+     * The OpenShift user that logged in with this session.
+     */
+    private final String userName;
+    private final String uid;
+
+    /**
+     * The key of the user's permissions in the authorization matrix, e.g.
+     * "alice-edit", or null if they were granted none of the roles.
+     */
+    private volatile String matrixKey;
+
+    private volatile long tokenDigestHigh;
+    private volatile long tokenDigestLow;
+    // 0 if the token response did not say
+    private volatile long expiresAt;
+    private volatile long lastPoll;
+
+    /**
+     * Set if a refreshed token turned out to belong to someone else.
+     */
+    private volatile boolean identityChanged;
+
+    /**
+     * How a session renews its token, implemented by the realm.
+     */
+    interface Renewer {
+        /**
+         * @return false if there was no refresh token to use
+         */
+        boolean renew(Credential credential) throws IOException;
+
+        /**
+         * @return the name of the OpenShift user the credential belongs to
+         */
+        String getUserName(Credential credential) throws IOException;
+    }
+
+    private transient volatile Credential credential;
+    private transient ReentrantLock refreshLock = new ReentrantLock();
+    private transient AtomicBoolean refreshScheduled = new AtomicBoolean();
+
+    public OpenShiftSessionState(OpenShiftUserInfo info, Credential credential) {
+        this.userName = info.getName();
+        this.uid = info.metadata != null ? info.metadata.uid : null;
+        setCredential(credential);
+        this.lastPoll = System.currentTimeMillis();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException,
+            ClassNotFoundException {
+        in.defaultReadObject();
+        refreshLock = new ReentrantLock();
+        refreshScheduled = new AtomicBoolean();
+    }
+
+    public String getUserName() {
+        return userName;
+    }
+
+    public String getUid() {
+        return uid;
+    }
+
+    public String getMatrixKey() {
+        return matrixKey;
+    }
+
+    /**
+     * Records the outcome of a permissions poll.
+     */
+    void setDecision(UsernamePasswordAuthenticationToken token, long polledAt) {
+        matrixKey = token != null ? token.getName() : null;
+        lastPoll = polledAt;
+    }
+
+    public long getLastPoll() {
+        return lastPoll;
+    }
+
+    void setLastPoll(long lastPoll) {
+        this.lastPoll = lastPoll;
+    }
+
+    /**
+     * @return null after the session was restored from disk or another node
+     */
+    public Credential getCredential() {
+        return credential;
+    }
+
+    private void setCredential(Credential credential) {
+        this.credential = credential;
+        tokenChanged();
+    }
+
+    private void tokenChanged() {
+        Credential cred = credential;
+        if (cred == null)
+            return;
+        OpenShiftTokenDigest digest = OpenShiftTokenDigest.of(cred
+                .getAccessToken());
+        tokenDigestHigh = digest.getHigh();
+        tokenDigestLow = digest.getLow();
+        Long expiry = cred.getExpirationTimeMilliseconds();
+        expiresAt = expiry != null ? expiry.longValue() : 0;
+    }
+
+    /**
+     * @return when the access token expires, or null if we don't know
+     */
+    public Long getExpiresAt() {
+        return expiresAt != 0 ? Long.valueOf(expiresAt) : null;
+    }
+
+    /**
+     * @return a digest of the current access token, which unlike the token
+     *         survives serialization
+     */
+    public OpenShiftTokenDigest getTokenDigest() {
+        return new OpenShiftTokenDigest(tokenDigestHigh, tokenDigestLow);
+    }
+
+    public boolean isIdentityChanged() {
+        return identityChanged;
+    }
+
+    /**
+     * Renews the access token with the refresh token, if the OAuth server
+     * gave us one, so the user does not have to go through the login
+     * redirects again. Tokens close to expiry are renewed in the background
+     * while the current token keeps serving requests; an already expired
+     * token is renewed on the calling thread.
+     */
+    void refreshIfNeeded(OpenShiftOAuth2SecurityRealm realm) {
+        refreshIfNeeded(realm.tokenRenewer(), OpenShiftExecutors.background());
+    }
+
+    /**
+     * @param pool
+     *            where tokens close to expiry are renewed
+     */
+    void refreshIfNeeded(final Renewer renewer, Executor pool) {
+        Credential cred = credential;
+        if (cred == null || cred.getRefreshToken() == null)
+            return;
+        Long expiresAt = cred.getExpirationTimeMilliseconds();
+        if (expiresAt == null)
+            return;
+        long now = System.currentTimeMillis();
+        try {
+            if (now >= expiresAt.longValue()) {
+                refresh(renewer, true);
+            } else if (expiresAt.longValue() - now <= getRefreshWindowMillis()
+                    && refreshScheduled.compareAndSet(false, true)) {
+                try {
+                    pool.execute(new Runnable() {
+                        public void run() {
+                            try {
+                                refresh(renewer, false);
+                            } catch (Throwable t) {
+                                if (OpenShiftOAuth2SecurityRealm.LOGGER
+                                        .isLoggable(Level.FINE))
+                                    OpenShiftOAuth2SecurityRealm.LOGGER.log(
+                                            Level.FINE, "refreshIfNeeded", t);
+                            } finally {
+                                refreshScheduled.set(false);
+                            }
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    refreshScheduled.set(false);
+                }
+            }
+        } catch (Throwable t) {
+            if (OpenShiftOAuth2SecurityRealm.LOGGER.isLoggable(Level.FINE))
+                OpenShiftOAuth2SecurityRealm.LOGGER.log(Level.FINE,
+                        "refreshIfNeeded", t);
+        }
+    }
+
+    /**
+     * @param wait
+     *            whether to wait for a refresh already in progress on another
+     *            thread rather than give up right away
+     * @return true if the credential holds a usable, renewed token
+     */
+    boolean refresh(Renewer renewer, boolean wait)
+            throws IOException {
+        boolean locked;
+        try {
+            locked = wait ? refreshLock.tryLock(REFRESH_WAIT_SECONDS,
+                    TimeUnit.SECONDS) : refreshLock.tryLock();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        if (!locked)
+            return false;
+        try {
+            Credential cred = credential;
+            Long expiresAt = cred.getExpirationTimeMilliseconds();
+            // another request may have refreshed while we waited for the lock
+            if (expiresAt != null
+                    && expiresAt.longValue() - System.currentTimeMillis() > getRefreshWindowMillis())
+                return true;
+            if (!renewer.renew(cred))
+                return false;
+            tokenChanged();
+            String refreshedName = renewer.getUserName(cred);
+            if (userName != null && !userName.equals(refreshedName)) {
+                OpenShiftOAuth2SecurityRealm.LOGGER.warning(String.format(
+                        "OpenShift OAuth: refreshed token for %s belongs to %s",
+                        userName, refreshedName));
+                identityChanged = true;
+                return false;
+            }
+            // same identity, so the role decision already held by the session
+            // stands; the next permission poll uses the new token
+            return true;
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+
+    private static long getRefreshWindowMillis() {
+        return TimeUnit.SECONDS.toMillis(OpenShiftEnvVars.getLong(
+                OPENSHIFT_TOKEN_REFRESH_WINDOW, DEFAULT_TOKEN_REFRESH_WINDOW));
+    }
+}
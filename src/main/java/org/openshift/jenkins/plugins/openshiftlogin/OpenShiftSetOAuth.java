@@ -30,6 +30,9 @@ import hudson.security.SecurityRealm;
 import java.io.IOException;
 import java.security.GeneralSecurityException;
 import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -40,13 +43,103 @@ public class OpenShiftSetOAuth {
     static final Logger LOGGER = Logger.getLogger(OpenShiftSetOAuth.class
             .getName());
     static final String OPENSHIFT_ENABLE_OAUTH = "OPENSHIFT_ENABLE_OAUTH";
+    // failures here repeat on every item change until they are fixed
+    static final OpenShiftLog LOG = new OpenShiftLog(LOGGER);
     static long lastCheck = 0;
-    static int lastLog = 0;
+
+    // set while a detection from setOauthAsync is queued but not yet running
+    private static final AtomicBoolean pending = new AtomicBoolean();
+    // released once the first asynchronous detection has finished, whatever
+    // its outcome
+    private static final CountDownLatch started = new CountDownLatch(1);
 
     static boolean setOauth() {
         return setOauth(true);
     }
 
+    /**
+     * Runs {@link #setOauth()} on a background thread, so the Jenkins thread
+     * that noticed a change, be it the one loading Jenkins or one handling a
+     * job update, does not wait for the service account files and the calls
+     * to the API server. Calls made while one is already queued are folded
+     * into it.
+     */
+    static void setOauthAsync() {
+        if (!pending.compareAndSet(false, true))
+            return;
+        final long submitted = System.nanoTime();
+        try {
+            OpenShiftExecutors.background().execute(new Runnable() {
+                public void run() {
+                    detect(submitted);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            detect(submitted);
+        }
+    }
+
+    private static void detect(long submitted) {
+        pending.set(false);
+        long start = System.nanoTime();
+        try {
+            setOauth();
+            Jenkins jenkins = Jenkins.getInstance();
+            if (jenkins != null
+                    && jenkins.getSecurityRealm() instanceof OpenShiftOAuth2SecurityRealm)
+                startRealm((OpenShiftOAuth2SecurityRealm) jenkins
+                        .getSecurityRealm());
+        } catch (Throwable t) {
+            LOGGER.log(Level.SEVERE, "OpenShiftSetOAuth", t);
+        } finally {
+            // however it ended, requests held by the startup gate go ahead
+            if (started.getCount() > 0) {
+                long end = System.nanoTime();
+                OpenShiftMetrics.recordStartup(end - start, end - submitted);
+                started.countDown();
+            }
+        }
+    }
+
+    /**
+     * Replays the grant journal and starts provisioning the matrix from role
+     * bindings, each once per start. Only ever runs on a background thread,
+     * and on startup before the gate lets requests through, so no request
+     * waits on the journal IO.
+     */
+    private static void startRealm(OpenShiftOAuth2SecurityRealm realm) {
+        OpenShiftGrantJournal.restore(realm);
+        OpenShiftRoleBindings.provisionAsync(realm);
+    }
+
+    /**
+     * @return true until the first detection from {@link #setOauthAsync()}
+     *         has finished
+     */
+    static boolean isStarting() {
+        return started.getCount() > 0;
+    }
+
+    /**
+     * @return the latch released once the first detection from
+     *         {@link #setOauthAsync()} has finished
+     */
+    static CountDownLatch getStartup() {
+        return started;
+    }
+
+    /**
+     * @return true if this pod is meant to use OpenShift OAuth but the realm
+     *         has not been switched over yet
+     */
+    static boolean isOauthPending() {
+        Jenkins jenkins = Jenkins.getInstance();
+        String enabled = EnvVars.masterEnvVars.get(OPENSHIFT_ENABLE_OAUTH);
+        return jenkins != null && enabled != null
+                && !enabled.equalsIgnoreCase("false")
+                && !(jenkins.getSecurityRealm() instanceof OpenShiftOAuth2SecurityRealm);
+    }
+
     static boolean setOauth(boolean force) {
         final Jenkins jenkins = Jenkins.getInstance();
         String enabled = EnvVars.masterEnvVars.get(OPENSHIFT_ENABLE_OAUTH);
@@ -78,33 +171,28 @@ public class OpenShiftSetOAuth {
                             try {
                                 inOpenShiftPod = osrealm.populateDefaults();
                             } catch (Throwable t) {
-                                if ((lastLog % 100) == 0) {
-                                    LOGGER.log(Level.SEVERE, "OpenShiftSetOAuth", t);
-                                }
-                                lastLog++;
+                                LOG.log(Level.SEVERE, "populateDefaults",
+                                        "OpenShiftSetOAuth", t);
                             }
                             LOGGER.info("OpenShift OAuth: running in OpenShift pod with required OAuth features: "
                                     + inOpenShiftPod);
                             if (inOpenShiftPod) {
                                 jenkins.setSecurityRealm(osrealm);
                                 LOGGER.info("OpenShift OAuth: Jenkins security realm set to OpenShift OAuth");
+                                // a detection does this itself, once done
+                                if (!force)
+                                    startRealmAsync(osrealm);
                                 return true;
                             }
                         } catch (IOException e1) {
-                            if ((lastLog % 100) == 0) {
-                                LOGGER.log(Level.SEVERE, "OpenShiftSetOAuth", e1);
-                            }
-                            lastLog++;
+                            LOG.log(Level.SEVERE, "setOauth",
+                                    "OpenShiftSetOAuth", e1);
                         } catch (GeneralSecurityException e1) {
-                            if ((lastLog % 100) == 0) {
-                                LOGGER.log(Level.SEVERE, "OpenShiftSetOAuth", e1);
-                            }
-                            lastLog++;
+                            LOG.log(Level.SEVERE, "setOauth",
+                                    "OpenShiftSetOAuth", e1);
                         } catch (Throwable t) {
-                            if ((lastLog % 100) == 0) {
-                                LOGGER.log(Level.SEVERE, "OpenShiftSetOAuth", t);
-                            }
-                            lastLog++;
+                            LOG.log(Level.SEVERE, "setOauth",
+                                    "OpenShiftSetOAuth", t);
                         }
                     }
                 }
@@ -116,4 +204,17 @@ public class OpenShiftSetOAuth {
         }
         return false;
     }
+
+    private static void startRealmAsync(
+            final OpenShiftOAuth2SecurityRealm realm) {
+        try {
+            OpenShiftExecutors.background().execute(new Runnable() {
+                public void run() {
+                    startRealm(realm);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // the next detection, on the next item change, does it instead
+        }
+    }
 }
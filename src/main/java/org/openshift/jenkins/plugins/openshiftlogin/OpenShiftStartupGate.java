@@ -0,0 +1,112 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.openshift.jenkins.plugins.openshiftlogin;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+
+import hudson.util.PluginServletFilter;
+
+/**
+ * Stands in front of Jenkins while {@link OpenShiftSetOAuth} works out, off
+ * the startup path, whether the OpenShift OAuth realm applies. Requests wait
+ * up to OPENSHIFT_STARTUP_WAIT seconds for it to finish and are answered
+ * with a 503 after that, so nobody is served under the realm Jenkins was
+ * loaded with in the meantime.
+ *
+ * Once the detection is done this is a single volatile read per request.
+ */
+public class OpenShiftStartupGate implements Filter {
+
+    private static final String OPENSHIFT_STARTUP_WAIT = "OPENSHIFT_STARTUP_WAIT"; // seconds
+    private static final long DEFAULT_STARTUP_WAIT = 5;
+    private static final String RETRY_AFTER_SECONDS = "5";
+    private static final String STARTING = "\nJenkins is determining its OpenShift OAuth configuration, please retry shortly.\n";
+
+    private static OpenShiftStartupGate installed;
+
+    private final long waitMillis;
+    private final CountDownLatch started;
+
+    OpenShiftStartupGate(long waitMillis, CountDownLatch started) {
+        this.waitMillis = waitMillis;
+        this.started = started;
+    }
+
+    static synchronized void install() {
+        if (installed != null || !OpenShiftSetOAuth.isStarting())
+            return;
+        OpenShiftStartupGate gate = new OpenShiftStartupGate(
+                TimeUnit.SECONDS.toMillis(OpenShiftEnvVars.getLong(
+                        OPENSHIFT_STARTUP_WAIT, DEFAULT_STARTUP_WAIT)),
+                OpenShiftSetOAuth.getStartup());
+        try {
+            PluginServletFilter.addFilter(gate);
+            installed = gate;
+        } catch (ServletException e) {
+            OpenShiftOAuth2SecurityRealm.LOGGER.log(Level.SEVERE,
+                    "startup gate", e);
+        }
+    }
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response,
+            FilterChain chain) throws IOException, ServletException {
+        if (started.getCount() > 0 && !awaitStartup()) {
+            OpenShiftMetrics.recordStartupRejection();
+            HttpServletResponse httpResponse = (HttpServletResponse) response;
+            httpResponse.setHeader("Retry-After", RETRY_AFTER_SECONDS);
+            httpResponse.sendError(503, STARTING);
+            return;
+        }
+        chain.doFilter(request, response);
+    }
+
+    private boolean awaitStartup() {
+        try {
+            return started.await(waitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @Override
+    public void destroy() {
+    }
+}
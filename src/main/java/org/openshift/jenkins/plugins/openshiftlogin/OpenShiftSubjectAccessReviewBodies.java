@@ -0,0 +1,77 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.openshift.jenkins.plugins.openshiftlogin;
+
+import java.io.IOException;
+
+import com.google.api.client.json.JsonFactory;
+
+/**
+ * The SubjectAccessReview bodies for evaluating the owner of a token in one
+ * namespace, one per verb. They only depend on the namespace, so the realm
+ * builds them once when it learns its namespace rather than on every poll.
+ */
+public class OpenShiftSubjectAccessReviewBodies {
+
+    private final String namespace;
+    private final String[] verbs;
+    private final OpenShiftJsonContent[] bodies;
+
+    private OpenShiftSubjectAccessReviewBodies(String namespace,
+            String[] verbs, OpenShiftJsonContent[] bodies) {
+        this.namespace = namespace;
+        this.verbs = verbs;
+        this.bodies = bodies;
+    }
+
+    static OpenShiftSubjectAccessReviewBodies build(JsonFactory jsonFactory,
+            String namespace, String[] verbs) throws IOException {
+        String[] copy = verbs.clone();
+        OpenShiftJsonContent[] bodies = new OpenShiftJsonContent[copy.length];
+        for (int i = 0; i < copy.length; i++) {
+            OpenShiftSubjectAccessReviewRequest request = new OpenShiftSubjectAccessReviewRequest();
+            request.namespace = namespace;
+            request.verb = copy[i];
+            bodies[i] = new OpenShiftJsonContent(
+                    jsonFactory.toByteArray(request));
+        }
+        return new OpenShiftSubjectAccessReviewBodies(namespace, copy, bodies);
+    }
+
+    public boolean isFor(String namespace) {
+        return this.namespace == null ? namespace == null : this.namespace
+                .equals(namespace);
+    }
+
+    /**
+     * @return the body for the verb, or null if it is not one of ours
+     */
+    public OpenShiftJsonContent get(String verb) {
+        for (int i = 0; i < verbs.length; i++) {
+            if (verbs[i].equals(verb))
+                return bodies[i];
+        }
+        return null;
+    }
+}
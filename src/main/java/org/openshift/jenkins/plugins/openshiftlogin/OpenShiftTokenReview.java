@@ -0,0 +1,109 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.openshift.jenkins.plugins.openshiftlogin;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.api.client.util.Key;
+
+/**
+ * A TokenReview, posted with the service account token to ask the API server
+ * who a bearer token belongs to; the request fills in the spec, the response
+ * the status.
+ */
+public class OpenShiftTokenReview {
+
+    public static final String TOKEN_REVIEW = "TokenReview";
+    public static final String V1 = "authentication.k8s.io/v1";
+
+    public OpenShiftTokenReview() {
+        kind = TOKEN_REVIEW;
+        apiVersion = V1;
+    }
+
+    public OpenShiftTokenReview(String token) {
+        this();
+        spec = new Spec();
+        spec.token = token;
+    }
+
+    public static class Spec {
+        @Key
+        public String token;
+    }
+
+    public static class UserInfo {
+        @Key
+        public String username;
+
+        @Key
+        public String uid;
+
+        @Key
+        public List<String> groups;
+    }
+
+    public static class Status {
+        @Key
+        public boolean authenticated;
+
+        @Key
+        public UserInfo user;
+
+        @Key
+        public String error;
+    }
+
+    @Key
+    public String kind;
+
+    @Key
+    public String apiVersion;
+
+    @Key
+    public Spec spec;
+
+    @Key
+    public Status status;
+
+    public boolean isAuthenticated() {
+        return status != null && status.authenticated && status.user != null
+                && status.user.username != null;
+    }
+
+    /**
+     * @return the reviewed identity in the shape users/~ returns it, so the
+     *         rest of the realm does not care which of the two it came from
+     */
+    public OpenShiftUserInfo toUserInfo() {
+        OpenShiftUserInfo info = new OpenShiftUserInfo();
+        info.metadata = new OpenShiftUserInfo.Metadata();
+        info.metadata.name = status.user.username;
+        info.metadata.uid = status.user.uid;
+        info.groups = status.user.groups != null ? new ArrayList<String>(
+                status.user.groups) : new ArrayList<String>();
+        return info;
+    }
+}
@@ -32,6 +32,7 @@ import hudson.model.UserPropertyDescriptor;
 import hudson.tasks.Mailer;
 
 import java.io.IOException;
+import java.util.List;
 
 /**
  * Represents an identity information from the oauth provider.
@@ -54,10 +55,17 @@ public class OpenShiftUserInfo extends UserProperty {
     @Key
     public String email;
 
+    @Key
+    public List<String> groups;
+
     public String getEmail() {
         return email;
     }
 
+    public List<String> getGroups() {
+        return groups;
+    }
+
     public String getName() {
         if (metadata == null)
             return null;
@@ -0,0 +1,75 @@
+package org.openshift.jenkins.plugins.openshiftlogin;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import org.acegisecurity.GrantedAuthority;
+import org.acegisecurity.providers.UsernamePasswordAuthenticationToken;
+import org.junit.After;
+import org.junit.Test;
+
+public class OpenShiftActiveUsersTest {
+
+    @After
+    public void tearDown() {
+        OpenShiftActiveUsers.clear();
+    }
+
+    private static OpenShiftUserInfo user(String name) {
+        OpenShiftUserInfo info = new OpenShiftUserInfo();
+        info.metadata = new OpenShiftUserInfo.Metadata();
+        info.metadata.name = name;
+        return info;
+    }
+
+    @Test
+    public void testDecision() throws Exception {
+        UsernamePasswordAuthenticationToken token = new UsernamePasswordAuthenticationToken(
+                "alice-edit", "", new GrantedAuthority[0]);
+        OpenShiftActiveUsers.recordDecision(user("alice"), token);
+
+        OpenShiftActiveUsers.Record record = OpenShiftActiveUsers.getDecision(
+                "alice", 60000);
+        assertThat(record, is(notNullValue()));
+        assertThat(record.token, is(sameInstance(token)));
+        assertThat(OpenShiftActiveUsers.getDecision("bob", 60000),
+                is(nullValue()));
+
+        Thread.sleep(5);
+        assertThat(OpenShiftActiveUsers.getDecision("alice", 1),
+                is(nullValue()));
+    }
+
+    @Test
+    public void testIdleUsersDropOut() throws Exception {
+        OpenShiftActiveUsers.recordDecision(user("alice"), null);
+        OpenShiftActiveUsers.recordDecision(user("bob"), null);
+        Thread.sleep(200);
+        OpenShiftActiveUsers.seen("bob");
+
+        assertThat(OpenShiftActiveUsers.active(100).size(), is(1));
+        assertThat(OpenShiftActiveUsers.active(100).get(0).info.getName(),
+                is("bob"));
+        assertThat(OpenShiftActiveUsers.size(), is(1));
+    }
+
+    @Test
+    public void testRecordKeptAcrossDecisions() throws Exception {
+        OpenShiftActiveUsers.recordDecision(user("alice"), null);
+        OpenShiftActiveUsers.Record record = OpenShiftActiveUsers.getDecision(
+                "alice", 60000);
+        record.scheduled.set(true);
+
+        // a revalidation produces a new identity for the same user
+        OpenShiftUserInfo revalidated = user("alice");
+        OpenShiftActiveUsers.recordDecision(revalidated, null);
+        OpenShiftActiveUsers.Record after = OpenShiftActiveUsers.getDecision(
+                "alice", 60000);
+        assertThat(after, is(sameInstance(record)));
+        assertThat(after.info, is(sameInstance(revalidated)));
+        assertThat(after.scheduled.get(), is(true));
+    }
+}
@@ -0,0 +1,144 @@
+package org.openshift.jenkins.plugins.openshiftlogin;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+
+public class OpenShiftApiGuardTest {
+
+    private final AtomicInteger status = new AtomicInteger(200);
+    private final AtomicInteger calls = new AtomicInteger();
+
+    private final MockHttpTransport transport = new MockHttpTransport() {
+        @Override
+        public LowLevelHttpRequest buildRequest(String method, String url)
+                throws IOException {
+            return new MockLowLevelHttpRequest() {
+                @Override
+                public LowLevelHttpResponse execute() throws IOException {
+                    calls.incrementAndGet();
+                    MockLowLevelHttpResponse response = new MockLowLevelHttpResponse();
+                    response.setStatusCode(status.get());
+                    response.setContentType("application/json");
+                    response.setContent("{}");
+                    return response;
+                }
+            };
+        }
+    };
+
+    private HttpRequest request() throws IOException {
+        return transport.createRequestFactory().buildGetRequest(
+                new GenericUrl("https://openshift.default.svc/oapi/v1/users/~"));
+    }
+
+    private void expectStatus(OpenShiftApiGuard guard, int expected)
+            throws IOException {
+        try {
+            guard.execute(request());
+            fail("expected " + expected);
+        } catch (HttpResponseException e) {
+            assertThat(e.getStatusCode(), is(expected));
+        }
+    }
+
+    private void expectUnavailable(OpenShiftApiGuard guard) throws IOException {
+        try {
+            guard.execute(request());
+            fail("expected the call to be rejected");
+        } catch (OpenShiftApiUnavailableException e) {
+        }
+    }
+
+    @Test
+    public void testServerErrorsOpenCircuit() throws Exception {
+        OpenShiftApiGuard guard = new OpenShiftApiGuard(5, 1000, 3, 60000);
+        status.set(500);
+        for (int i = 0; i < 3; i++) {
+            expectStatus(guard, 500);
+        }
+        assertThat(guard.getState(), is(OpenShiftApiGuard.State.OPEN));
+
+        expectUnavailable(guard);
+        assertThat(calls.get(), is(3));
+        assertThat(guard.getCircuitRejections(), is(1L));
+        assertThat(guard.getCircuitOpened(), is(1L));
+    }
+
+    @Test
+    public void testClientErrorsKeepCircuitClosed() throws Exception {
+        OpenShiftApiGuard guard = new OpenShiftApiGuard(5, 1000, 3, 60000);
+        status.set(401);
+        for (int i = 0; i < 5; i++) {
+            expectStatus(guard, 401);
+        }
+        assertThat(guard.getState(), is(OpenShiftApiGuard.State.CLOSED));
+        assertThat(guard.getInFlight(), is(0));
+    }
+
+    @Test
+    public void testHalfOpenRecovers() throws Exception {
+        OpenShiftApiGuard guard = new OpenShiftApiGuard(5, 1000, 1, 50);
+        status.set(503);
+        expectStatus(guard, 503);
+        assertThat(guard.getState(), is(OpenShiftApiGuard.State.OPEN));
+
+        Thread.sleep(100);
+        status.set(200);
+        guard.execute(request());
+        assertThat(guard.getState(), is(OpenShiftApiGuard.State.CLOSED));
+        assertThat(calls.get(), is(2));
+    }
+
+    @Test
+    public void testBulkheadRejectsWhenFull() throws Exception {
+        OpenShiftApiGuard guard = new OpenShiftApiGuard(1, 1000, 3, 60000);
+        boolean probe = guard.acquire();
+        try {
+            expectUnavailable(guard);
+            assertThat(guard.getBulkheadRejections(), is(1L));
+            assertThat(calls.get(), is(0));
+        } finally {
+            guard.release(probe, true);
+        }
+        guard.execute(request());
+        assertThat(calls.get(), is(1));
+    }
+
+    @Test
+    public void testOnlyProbeClosesCircuit() throws Exception {
+        OpenShiftApiGuard guard = new OpenShiftApiGuard(5, 1000, 1, 50);
+        // a slow call that started while the breaker was still closed
+        boolean straggler = guard.acquire();
+        assertThat(straggler, is(false));
+        status.set(503);
+        expectStatus(guard, 503);
+        assertThat(guard.getState(), is(OpenShiftApiGuard.State.OPEN));
+
+        guard.release(straggler, true);
+        assertThat(guard.getState(), is(OpenShiftApiGuard.State.OPEN));
+
+        Thread.sleep(100);
+        boolean probe = guard.acquire();
+        assertThat(probe, is(true));
+        assertThat(guard.getState(), is(OpenShiftApiGuard.State.HALF_OPEN));
+        guard.release(probe, false);
+        assertThat(guard.getState(), is(OpenShiftApiGuard.State.OPEN));
+        assertThat(guard.getCircuitOpened(), is(2L));
+        assertThat(guard.getInFlight(), is(0));
+    }
+}
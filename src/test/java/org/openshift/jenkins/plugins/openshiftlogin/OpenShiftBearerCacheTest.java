@@ -0,0 +1,132 @@
+package org.openshift.jenkins.plugins.openshiftlogin;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.acegisecurity.GrantedAuthority;
+import org.acegisecurity.GrantedAuthorityImpl;
+import org.acegisecurity.providers.UsernamePasswordAuthenticationToken;
+import org.junit.Test;
+
+public class OpenShiftBearerCacheTest {
+
+    @Test
+    public void testDigest() {
+        OpenShiftTokenDigest a = OpenShiftTokenDigest.of("token-a");
+        assertThat(a, is(OpenShiftTokenDigest.of("token-a")));
+        assertThat(a, not(OpenShiftTokenDigest.of("token-b")));
+        assertThat(a.toString().contains("token"), is(false));
+    }
+
+    @Test
+    public void testPutGetRemove() {
+        OpenShiftBearerCache cache = new OpenShiftBearerCache(10);
+        OpenShiftTokenDigest key = OpenShiftTokenDigest.of("token");
+        OpenShiftBearerCache.Entry entry = new OpenShiftBearerCache.Entry();
+        cache.put(key, entry);
+        assertThat(cache.get(OpenShiftTokenDigest.of("token")),
+                sameInstance(entry));
+        assertThat(cache.size(), is(1));
+        assertThat(cache.remove(key), sameInstance(entry));
+        assertThat(cache.get(key), nullValue());
+        assertThat(cache.size(), is(0));
+    }
+
+    @Test
+    public void testCollidingKeys() {
+        // identical low words all probe from the same home slot
+        OpenShiftBearerCache cache = new OpenShiftBearerCache(64);
+        List<OpenShiftTokenDigest> keys = new ArrayList<OpenShiftTokenDigest>();
+        for (int i = 0; i < 64; i++) {
+            OpenShiftTokenDigest key = new OpenShiftTokenDigest(i, 42);
+            keys.add(key);
+            cache.put(key, new OpenShiftBearerCache.Entry());
+        }
+        for (int i = 0; i < 64; i += 2) {
+            assertThat(cache.remove(keys.get(i)), notNullValue());
+        }
+        for (int i = 0; i < 64; i++) {
+            if (i % 2 == 0)
+                assertThat(cache.get(keys.get(i)), nullValue());
+            else
+                assertThat(cache.get(keys.get(i)), notNullValue());
+        }
+        assertThat(cache.size(), is(32));
+    }
+
+    @Test
+    public void testRandomChurn() {
+        OpenShiftBearerCache cache = new OpenShiftBearerCache(1000);
+        Random random = new Random(1);
+        List<OpenShiftTokenDigest> keys = new ArrayList<OpenShiftTokenDigest>();
+        for (int i = 0; i < 1000; i++) {
+            OpenShiftTokenDigest key = new OpenShiftTokenDigest(
+                    random.nextLong(), random.nextInt(64));
+            keys.add(key);
+            cache.put(key, new OpenShiftBearerCache.Entry());
+        }
+        for (int i = 0; i < 500; i++) {
+            cache.remove(keys.get(i));
+        }
+        for (int i = 500; i < 1000; i++) {
+            assertThat(cache.get(keys.get(i)), notNullValue());
+        }
+        assertThat(cache.size(), is(500));
+    }
+
+    @Test
+    public void testEvictsUnreferencedFirst() {
+        OpenShiftMetrics.reset();
+        OpenShiftBearerCache cache = new OpenShiftBearerCache(3);
+        OpenShiftTokenDigest a = OpenShiftTokenDigest.of("a");
+        OpenShiftTokenDigest b = OpenShiftTokenDigest.of("b");
+        OpenShiftTokenDigest c = OpenShiftTokenDigest.of("c");
+        cache.put(a, new OpenShiftBearerCache.Entry());
+        cache.put(b, new OpenShiftBearerCache.Entry());
+        cache.put(c, new OpenShiftBearerCache.Entry());
+
+        // nothing has been looked up again, so the first entry the clock
+        // hand reaches goes
+        cache.put(OpenShiftTokenDigest.of("d"), new OpenShiftBearerCache.Entry());
+        assertThat(cache.size(), is(3));
+        assertThat(OpenShiftMetrics.getBearerCacheEvictions(), is(1L));
+
+        // touch whatever survived of a, b and c; the next eviction must
+        // then pick the untouched d
+        List<OpenShiftTokenDigest> survivors = new ArrayList<OpenShiftTokenDigest>();
+        for (OpenShiftTokenDigest key : new OpenShiftTokenDigest[] { a, b, c }) {
+            if (cache.get(key) != null)
+                survivors.add(key);
+        }
+        assertThat(survivors.size(), is(2));
+        cache.put(OpenShiftTokenDigest.of("e"), new OpenShiftBearerCache.Entry());
+        assertThat(cache.get(OpenShiftTokenDigest.of("d")), nullValue());
+        for (OpenShiftTokenDigest key : survivors) {
+            assertThat(cache.get(key), notNullValue());
+        }
+    }
+
+    @Test
+    public void testEntryDecision() {
+        OpenShiftBearerCache.Entry entry = new OpenShiftBearerCache.Entry();
+        assertThat(entry.hasDecision(), is(false));
+        assertThat(entry.toAuthentication(), nullValue());
+
+        entry.setDecision(new UsernamePasswordAuthenticationToken(
+                "developer-edit", "",
+                new GrantedAuthority[] { new GrantedAuthorityImpl(
+                        "authenticated") }));
+        assertThat(entry.hasDecision(), is(true));
+        UsernamePasswordAuthenticationToken auth = entry.toAuthentication();
+        assertThat(auth.getName(), is("developer-edit"));
+        assertThat(auth.getAuthorities().length, is(1));
+    }
+}
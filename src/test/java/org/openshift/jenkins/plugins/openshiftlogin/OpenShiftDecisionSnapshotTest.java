@@ -0,0 +1,83 @@
+package org.openshift.jenkins.plugins.openshiftlogin;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.acegisecurity.GrantedAuthority;
+import org.acegisecurity.GrantedAuthorityImpl;
+import org.acegisecurity.providers.UsernamePasswordAuthenticationToken;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class OpenShiftDecisionSnapshotTest {
+
+    private static final long NOW = 1000000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static OpenShiftBearerCache.Entry entry(String name, long decidedAt) {
+        OpenShiftBearerCache.Entry entry = new OpenShiftBearerCache.Entry();
+        if (name != null)
+            entry.setDecision(new UsernamePasswordAuthenticationToken(name,
+                    "", new GrantedAuthority[] { new GrantedAuthorityImpl(
+                            "authenticated") }));
+        entry.lastCheck = decidedAt;
+        entry.lastSuccess = decidedAt;
+        return entry;
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        Map<OpenShiftTokenDigest, OpenShiftBearerCache.Entry> entries = new LinkedHashMap<OpenShiftTokenDigest, OpenShiftBearerCache.Entry>();
+        entries.put(OpenShiftTokenDigest.of("fresh"), entry("alice-edit", NOW - 1000));
+        entries.put(OpenShiftTokenDigest.of("old"), entry("bob-view", NOW - 60000));
+        entries.put(OpenShiftTokenDigest.of("denied"), entry(null, NOW - 1000));
+        File file = new File(folder.getRoot(), OpenShiftDecisionSnapshot.FILE_NAME);
+        OpenShiftDecisionSnapshot.write(file, entries);
+
+        Map<OpenShiftTokenDigest, OpenShiftBearerCache.Entry> restored = OpenShiftDecisionSnapshot
+                .read(file, NOW, 30000);
+        assertThat(restored.size(), is(1));
+        OpenShiftBearerCache.Entry entry = restored.get(OpenShiftTokenDigest
+                .of("fresh"));
+        assertThat(entry.lastSuccess, is(NOW - 1000));
+        assertThat(entry.lastCheck, is(NOW - 1000));
+        UsernamePasswordAuthenticationToken token = entry.toAuthentication();
+        assertThat(token.getName(), is("alice-edit"));
+        assertThat(token.getAuthorities()[0].getAuthority(), is("authenticated"));
+
+        // everything is kept when the window allows it
+        assertThat(OpenShiftDecisionSnapshot.read(file, NOW, 60000).size(),
+                is(2));
+    }
+
+    @Test
+    public void testTruncatedFileIgnored() throws Exception {
+        Map<OpenShiftTokenDigest, OpenShiftBearerCache.Entry> entries = new LinkedHashMap<OpenShiftTokenDigest, OpenShiftBearerCache.Entry>();
+        entries.put(OpenShiftTokenDigest.of("fresh"), entry("alice-edit", NOW));
+        File file = new File(folder.getRoot(), OpenShiftDecisionSnapshot.FILE_NAME);
+        OpenShiftDecisionSnapshot.write(file, entries);
+        new FileOutputStream(file, true).getChannel().truncate(20).close();
+
+        assertThat(OpenShiftDecisionSnapshot.read(file, NOW, 30000).size(),
+                is(0));
+    }
+
+    @Test
+    public void testForeignFileIgnored() throws Exception {
+        File file = folder.newFile("not-a-snapshot");
+        FileOutputStream out = new FileOutputStream(file);
+        out.write("hello world, this is not a snapshot".getBytes("UTF-8"));
+        out.close();
+
+        assertThat(OpenShiftDecisionSnapshot.read(file, NOW, 30000).size(),
+                is(0));
+    }
+}
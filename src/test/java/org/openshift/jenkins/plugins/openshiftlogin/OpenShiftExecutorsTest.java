@@ -0,0 +1,104 @@
+package org.openshift.jenkins.plugins.openshiftlogin;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.FileNotFoundException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+public class OpenShiftExecutorsTest {
+
+    @Test
+    public void testAwaitRethrowsCause() throws Exception {
+        try {
+            OpenShiftExecutors.await(OpenShiftExecutors.submit(
+                    OpenShiftExecutors.discovery(), new Callable<String>() {
+                        public String call() throws Exception {
+                            throw new FileNotFoundException("ca.crt");
+                        }
+                    }));
+            fail("should have thrown");
+        } catch (FileNotFoundException e) {
+            assertThat(e.getMessage(), is("ca.crt"));
+        }
+    }
+
+    @Test
+    public void testSaturatedPoolRunsInline() throws Exception {
+        ThreadPoolExecutor pool = OpenShiftExecutors.newBoundedPool("test", 1,
+                1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Callable<String> blocker = new Callable<String>() {
+            public String call() throws Exception {
+                release.await(10, TimeUnit.SECONDS);
+                return "blocked";
+            }
+        };
+        try {
+            OpenShiftExecutors.submit(pool, blocker);
+            OpenShiftExecutors.submit(pool, blocker);
+            final Thread caller = Thread.currentThread();
+            String ranOn = OpenShiftExecutors.await(OpenShiftExecutors.submit(
+                    pool, new Callable<String>() {
+                        public String call() {
+                            return Thread.currentThread() == caller ? "caller"
+                                    : "pool";
+                        }
+                    }));
+            assertThat(ranOn, is("caller"));
+        } finally {
+            release.countDown();
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testInstrumentedExecutorCountsActive() throws Exception {
+        OpenShiftExecutors.InstrumentedExecutor executor = new OpenShiftExecutors.InstrumentedExecutor(
+                OpenShiftExecutors.newBoundedPool("test", 1, 1));
+        final CountDownLatch release = new CountDownLatch(1);
+        try {
+            Future<String> running = executor.submit(new Callable<String>() {
+                public String call() throws Exception {
+                    release.await(10, TimeUnit.SECONDS);
+                    return "done";
+                }
+            });
+            assertThat(executor.active.get(), is(1));
+            release.countDown();
+            assertThat(running.get(10, TimeUnit.SECONDS), is("done"));
+            executor.shutdown();
+            assertThat(executor.awaitTermination(10, TimeUnit.SECONDS),
+                    is(true));
+            assertThat(executor.active.get(), is(0));
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testVirtualThreadExecutorWhereSupported() throws Exception {
+        ExecutorService virtual = OpenShiftExecutors.newVirtualThreadExecutor();
+        // only there from Java 21 on
+        Assume.assumeNotNull(virtual);
+        try {
+            assertThat(virtual.submit(new Callable<String>() {
+                public String call() {
+                    return "ran";
+                }
+            }).get(10, TimeUnit.SECONDS), is("ran"));
+        } finally {
+            virtual.shutdown();
+        }
+    }
+}
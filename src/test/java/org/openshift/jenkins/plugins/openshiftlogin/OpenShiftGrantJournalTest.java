@@ -0,0 +1,109 @@
+package org.openshift.jenkins.plugins.openshiftlogin;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class OpenShiftGrantJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Map<String, Set<String>> grant(String key, String... roles) {
+        return Collections.<String, Set<String>> singletonMap(key,
+                new HashSet<String>(Arrays.asList(roles)));
+    }
+
+    @Test
+    public void testReplayedAfterRestart() throws Exception {
+        File dir = folder.getRoot();
+        OpenShiftGrantJournal journal = new OpenShiftGrantJournal(dir, 100);
+        journal.load();
+        journal.append(grant("alice-edit", "edit", "view"));
+        journal.append(grant("devs-view", "view"));
+        journal.close();
+        assertThat(journal.getJournalRecords(), is(2));
+
+        OpenShiftGrantJournal restarted = new OpenShiftGrantJournal(dir, 100);
+        Map<String, Set<String>> grants = restarted.load();
+        assertThat(grants.size(), is(2));
+        assertThat(grants.get("alice-edit"), is((Set<String>) new HashSet<String>(
+                Arrays.asList("edit", "view"))));
+        // folded into the snapshot on load
+        assertThat(restarted.getJournalRecords(), is(0));
+        assertThat(new File(dir, OpenShiftGrantJournal.JOURNAL_FILE_NAME)
+                .length(), is(0L));
+        restarted.close();
+
+        assertThat(new OpenShiftGrantJournal(dir, 100).load().size(), is(2));
+    }
+
+    @Test
+    public void testCompactedAfterThreshold() throws Exception {
+        File dir = folder.getRoot();
+        OpenShiftGrantJournal journal = new OpenShiftGrantJournal(dir, 2);
+        journal.load();
+        journal.append(grant("a-view", "view"));
+        journal.append(grant("b-view", "view"));
+        assertThat(journal.getJournalRecords(), is(0));
+        journal.append(grant("c-admin", "admin", "edit", "view"));
+        journal.close();
+
+        Map<String, Set<String>> grants = new OpenShiftGrantJournal(dir, 2)
+                .load();
+        assertThat(grants.keySet(), is((Set<String>) new HashSet<String>(
+                Arrays.asList("a-view", "b-view", "c-admin"))));
+    }
+
+    @Test
+    public void testIncompleteRecordIgnored() throws Exception {
+        File dir = folder.getRoot();
+        OpenShiftGrantJournal journal = new OpenShiftGrantJournal(dir, 100);
+        journal.load();
+        journal.append(grant("alice-view", "view"));
+        journal.close();
+        // a record cut short by a crash
+        FileOutputStream out = new FileOutputStream(new File(dir,
+                OpenShiftGrantJournal.JOURNAL_FILE_NAME), true);
+        out.write(new byte[] { 0, 10, 'b', 'o' });
+        out.close();
+
+        Map<String, Set<String>> grants = new OpenShiftGrantJournal(dir, 100)
+                .load();
+        assertThat(grants.keySet(), is(Collections.singleton("alice-view")));
+    }
+
+    @Test
+    public void testLoneIncompleteRecordTruncated() throws Exception {
+        File dir = folder.getRoot();
+        File file = new File(dir, OpenShiftGrantJournal.JOURNAL_FILE_NAME);
+        // the only record, cut short by a crash, so nothing is replayed
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[] { 0, 10, 'b', 'o' });
+        out.close();
+
+        OpenShiftGrantJournal journal = new OpenShiftGrantJournal(dir, 100);
+        assertThat(journal.load().isEmpty(), is(true));
+        assertThat(file.length(), is(0L));
+        // appended after the cut rather than after the garbage
+        journal.append(grant("bob-edit", "edit", "view"));
+        journal.append(grant("carol-view", "view"));
+        journal.close();
+
+        Map<String, Set<String>> grants = new OpenShiftGrantJournal(dir, 100)
+                .load();
+        assertThat(grants.keySet(), is((Set<String>) new HashSet<String>(
+                Arrays.asList("bob-edit", "carol-view"))));
+    }
+}
@@ -0,0 +1,165 @@
+package org.openshift.jenkins.plugins.openshiftlogin;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class OpenShiftGroupIndexTest {
+
+    private static class StubSource implements OpenShiftGroupIndex.Source {
+        final Map<String, List<String>> members = new LinkedHashMap<String, List<String>>();
+        final Map<String, Set<String>> roles = new LinkedHashMap<String, Set<String>>();
+        final AtomicInteger listings = new AtomicInteger();
+        final AtomicInteger evaluations = new AtomicInteger();
+        boolean failListing;
+
+        public Map<String, List<String>> listGroups() throws IOException {
+            listings.incrementAndGet();
+            if (failListing)
+                throw new IOException("forbidden");
+            return members;
+        }
+
+        public Set<String> getGroupRoles(String group) {
+            evaluations.incrementAndGet();
+            Set<String> r = roles.get(group);
+            return r != null ? r : Collections.<String> emptySet();
+        }
+    }
+
+    private static OpenShiftUserInfo user(String name, String... groups) {
+        OpenShiftUserInfo info = new OpenShiftUserInfo();
+        info.metadata = new OpenShiftUserInfo.Metadata();
+        info.metadata.name = name;
+        if (groups.length > 0)
+            info.groups = new ArrayList<String>(Arrays.asList(groups));
+        return info;
+    }
+
+    private static Set<String> roles(String... roles) {
+        return new HashSet<String>(Arrays.asList(roles));
+    }
+
+    @Test
+    public void testGroupsFromIdentityAreNotListed() throws Exception {
+        StubSource source = new StubSource();
+        OpenShiftGroupIndex index = new OpenShiftGroupIndex(60000);
+
+        assertThat(index.getGroups(source, user("alice", "devs")),
+                is(Arrays.asList("devs")));
+        assertThat(source.listings.get(), is(0));
+    }
+
+    @Test
+    public void testOneListingCoversManyUsers() throws Exception {
+        StubSource source = new StubSource();
+        source.members.put("devs", Arrays.asList("alice", "bob"));
+        source.members.put("ops", Arrays.asList("bob"));
+        OpenShiftGroupIndex index = new OpenShiftGroupIndex(60000);
+
+        assertThat(index.getGroups(source, user("alice")),
+                is(Arrays.asList("devs")));
+        assertThat(index.getGroups(source, user("bob")),
+                is(Arrays.asList("devs", "ops")));
+        assertThat(index.getGroups(source, user("carol")).isEmpty(), is(true));
+        assertThat(source.listings.get(), is(1));
+    }
+
+    @Test
+    public void testFailedListingIsNotRetriedWithinTtl() throws Exception {
+        StubSource source = new StubSource();
+        source.failListing = true;
+        OpenShiftGroupIndex index = new OpenShiftGroupIndex(60000);
+
+        assertThat(index.getGroups(source, user("alice")).isEmpty(), is(true));
+        assertThat(index.getGroups(source, user("bob")).isEmpty(), is(true));
+        assertThat(source.listings.get(), is(1));
+    }
+
+    @Test
+    public void testGroupRolesEvaluatedOncePerGroup() throws Exception {
+        OpenShiftMetrics.reset();
+        StubSource source = new StubSource();
+        source.roles.put("devs", roles("edit", "view"));
+        OpenShiftGroupIndex index = new OpenShiftGroupIndex(60000);
+
+        Map<String, Set<String>> alice = index.getGroupRoles(source,
+                user("alice", "devs", "everyone"));
+        Map<String, Set<String>> bob = index.getGroupRoles(source,
+                user("bob", "devs", "everyone"));
+
+        // groups with none of the roles are left out
+        assertThat(alice.keySet(), is((Set<String>) new HashSet<String>(
+                Arrays.asList("devs"))));
+        assertThat(bob.get("devs"), is(roles("edit", "view")));
+        assertThat(source.evaluations.get(), is(2));
+        assertThat(OpenShiftMetrics.snapshot().get("groupRoles.misses"), is(2L));
+        assertThat(OpenShiftMetrics.snapshot().get("groupRoles.hits"), is(2L));
+    }
+
+    @Test
+    public void testRoleSuffix() {
+        assertThat(OpenShiftOAuth2SecurityRealm.getRoleSuffix(roles("view",
+                "admin")), is("-admin"));
+        assertThat(OpenShiftOAuth2SecurityRealm.getRoleSuffix(roles("view")),
+                is("-view"));
+        assertThat(OpenShiftOAuth2SecurityRealm.getRoleSuffix(roles()) == null,
+                is(true));
+    }
+
+    @Test
+    public void testDirectRoleHigherThanGroupRole() {
+        Map<String, Set<String>> groupRoles = new LinkedHashMap<String, Set<String>>();
+        groupRoles.put("devs", roles("view"));
+        Set<String> own = roles("admin", "edit", "view");
+
+        // alice is not downgraded to the view role of her group
+        assertThat(OpenShiftOAuth2SecurityRealm
+                .getRoleSuffix(OpenShiftOAuth2SecurityRealm.getEffectiveRoles(
+                        own, groupRoles)), is("-admin"));
+        Map<String, Set<String>> keys = OpenShiftOAuth2SecurityRealm
+                .getMatrixKeys("alice", own, groupRoles);
+        assertThat(keys.keySet(), is((Set<String>) new HashSet<String>(Arrays
+                .asList("alice-admin", "devs-view"))));
+        assertThat(keys.get("alice-admin"), is(own));
+    }
+
+    @Test
+    public void testGroupRoleHigherThanDirectRole() {
+        Map<String, Set<String>> groupRoles = new LinkedHashMap<String, Set<String>>();
+        groupRoles.put("admins", roles("admin", "edit", "view"));
+        Set<String> own = roles("view");
+
+        assertThat(OpenShiftOAuth2SecurityRealm
+                .getRoleSuffix(OpenShiftOAuth2SecurityRealm.getEffectiveRoles(
+                        own, groupRoles)), is("-admin"));
+        // the group authority carries the admin permissions
+        assertThat(OpenShiftOAuth2SecurityRealm.getMatrixKeys("alice", own,
+                groupRoles).keySet(), is((Set<String>) new HashSet<String>(
+                Arrays.asList("admins-admin"))));
+    }
+
+    @Test
+    public void testNoGroupRoles() {
+        Map<String, Set<String>> groupRoles = Collections.emptyMap();
+
+        assertThat(OpenShiftOAuth2SecurityRealm.getMatrixKeys("alice",
+                roles("edit", "view"), groupRoles).keySet(),
+                is((Set<String>) new HashSet<String>(Arrays
+                        .asList("alice-edit"))));
+        assertThat(OpenShiftOAuth2SecurityRealm.getMatrixKeys("alice",
+                roles(), groupRoles).isEmpty(), is(true));
+    }
+}
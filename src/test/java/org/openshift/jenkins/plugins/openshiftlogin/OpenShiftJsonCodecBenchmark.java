@@ -0,0 +1,83 @@
+package org.openshift.jenkins.plugins.openshiftlogin;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.JsonObjectParser;
+import com.google.api.client.json.jackson2.JacksonFactory;
+
+/**
+ * Compares {@link OpenShiftJsonCodec} with the JsonObjectParser binding it
+ * replaced, on the SAR, users/~ and provider documents, and prints the time
+ * per document for each.
+ *
+ * Only runs when the system property
+ * org.openshift.jenkins.plugins.openshiftlogin.benchmark is true, e.g. via
+ * <code>mvn test -P benchmark</code>; the iteration count is read from
+ * org.openshift.jenkins.plugins.openshiftlogin.benchmark.iterations.
+ */
+public class OpenShiftJsonCodecBenchmark {
+
+    static final String PROPERTY_PREFIX = "org.openshift.jenkins.plugins.openshiftlogin.benchmark";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final JsonFactory json = new JacksonFactory();
+    private int iterations;
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue(Boolean.getBoolean(PROPERTY_PREFIX));
+        iterations = Integer.getInteger(PROPERTY_PREFIX + ".iterations",
+                200000);
+    }
+
+    @Test
+    public void testSubjectAccessReview() throws Exception {
+        compare("sar", OpenShiftJsonCodecTest.SAR.getBytes(UTF8),
+                OpenShiftSubjectAccessReviewResponse.class,
+                OpenShiftJsonCodec.SUBJECT_ACCESS_REVIEW);
+    }
+
+    @Test
+    public void testUserInfo() throws Exception {
+        compare("userInfo", OpenShiftJsonCodecTest.USER.getBytes(UTF8),
+                OpenShiftUserInfo.class, OpenShiftJsonCodec.USER_INFO);
+    }
+
+    @Test
+    public void testProviderInfo() throws Exception {
+        compare("oauthProvider", OpenShiftJsonCodecTest.PROVIDER.getBytes(UTF8),
+                OpenShiftProviderInfo.class, OpenShiftJsonCodec.PROVIDER_INFO);
+    }
+
+    private <T> void compare(String name, byte[] body, Class<T> type,
+            OpenShiftJsonCodec.Reader<T> reader) throws Exception {
+        JsonObjectParser binder = new JsonObjectParser(json);
+        // warm both paths up before timing either
+        for (int i = 0; i < iterations / 10; i++) {
+            binder.parseAndClose(new ByteArrayInputStream(body), UTF8, type);
+            OpenShiftJsonCodec.read(json, new ByteArrayInputStream(body),
+                    reader);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            binder.parseAndClose(new ByteArrayInputStream(body), UTF8, type);
+        }
+        long bound = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            OpenShiftJsonCodec.read(json, new ByteArrayInputStream(body),
+                    reader);
+        }
+        long streamed = System.nanoTime() - start;
+        System.out.println(String.format(
+                "%s: JsonObjectParser %d ns/doc, OpenShiftJsonCodec %d ns/doc",
+                name, bound / iterations, streamed / iterations));
+    }
+}
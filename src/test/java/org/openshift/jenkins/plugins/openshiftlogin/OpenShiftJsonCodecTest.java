@@ -0,0 +1,100 @@
+package org.openshift.jenkins.plugins.openshiftlogin;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.jackson2.JacksonFactory;
+
+public class OpenShiftJsonCodecTest {
+
+    static final String USER = "{\"kind\":\"User\",\"apiVersion\":\"user.openshift.io/v1\","
+            + "\"metadata\":{\"name\":\"alice\",\"selfLink\":\"/apis/user.openshift.io/v1/users/alice\","
+            + "\"uid\":\"0c9f5b1a-1f2b-11e8-8d4f-0242ac110002\",\"resourceVersion\":\"1234\","
+            + "\"creationTimestamp\":\"2018-03-05T12:00:00Z\",\"annotations\":{\"a\":\"b\"}},"
+            + "\"fullName\":\"Alice\",\"identities\":[\"htpasswd:alice\"],"
+            + "\"groups\":[\"system:authenticated\",\"system:authenticated:oauth\"]}";
+
+    static final String SAR = "{\"kind\":\"SubjectAccessReviewResponse\",\"apiVersion\":\"v1\","
+            + "\"namespace\":\"myproject\",\"allowed\":true,"
+            + "\"reason\":\"allowed by cluster rule\",\"evaluationError\":\"\"}";
+
+    static final String PROVIDER = "{\"issuer\":\"https://master:8443\","
+            + "\"authorization_endpoint\":\"https://master:8443/oauth/authorize\","
+            + "\"token_endpoint\":\"https://master:8443/oauth/token\","
+            + "\"scopes_supported\":[\"user:full\",\"user:info\",\"user:check-access\"],"
+            + "\"response_types_supported\":[\"code\",\"token\"],"
+            + "\"grant_types_supported\":[\"authorization_code\",\"implicit\"],"
+            + "\"code_challenge_methods_supported\":[\"plain\",\"S256\"]}";
+
+    private final JsonFactory json = new JacksonFactory();
+
+    private <T> T read(String body, OpenShiftJsonCodec.Reader<T> reader)
+            throws IOException {
+        return OpenShiftJsonCodec.read(json,
+                new ByteArrayInputStream(body.getBytes("UTF-8")), reader);
+    }
+
+    @Test
+    public void testUserInfo() throws Exception {
+        OpenShiftUserInfo info = read(USER, OpenShiftJsonCodec.USER_INFO);
+        assertThat(info.getName(), is("alice"));
+        assertThat(info.metadata.uid, is("0c9f5b1a-1f2b-11e8-8d4f-0242ac110002"));
+        assertThat(info.getGroups(), is(Arrays.asList("system:authenticated",
+                "system:authenticated:oauth")));
+        assertThat(info.getEmail(), is(nullValue()));
+    }
+
+    @Test
+    public void testSubjectAccessReview() throws Exception {
+        assertThat(read(SAR, OpenShiftJsonCodec.SUBJECT_ACCESS_REVIEW).allowed,
+                is(true));
+        assertThat(read("{\"namespace\":\"myproject\",\"allowed\":false}",
+                OpenShiftJsonCodec.SUBJECT_ACCESS_REVIEW).allowed, is(false));
+        // a missing or mistyped allowed is never a grant
+        assertThat(read("{\"allowed\":\"true\",\"nested\":{\"allowed\":true}}",
+                OpenShiftJsonCodec.SUBJECT_ACCESS_REVIEW).allowed, is(false));
+    }
+
+    @Test
+    public void testProviderInfo() throws Exception {
+        OpenShiftProviderInfo info = read(PROVIDER,
+                OpenShiftJsonCodec.PROVIDER_INFO);
+        assertThat(info.issuer, is("https://master:8443"));
+        assertThat(info.token_endpoint, is("https://master:8443/oauth/token"));
+        assertThat(info.jwks_uri, is(nullValue()));
+    }
+
+    @Test(expected = EOFException.class)
+    public void testTruncated() throws Exception {
+        read("{\"metadata\":{\"name\":\"alice\"", OpenShiftJsonCodec.USER_INFO);
+    }
+
+    @Test(expected = IOException.class)
+    public void testNotAnObject() throws Exception {
+        read("[]", OpenShiftJsonCodec.USER_INFO);
+    }
+
+    @Test
+    public void testRestOfBodyReadBeforeClose() throws Exception {
+        // the SAR reader stops at allowed, with more of the body to come
+        // than the parser buffers
+        StringBuilder reason = new StringBuilder();
+        for (int i = 0; i < 20000; i++)
+            reason.append('x');
+        ByteArrayInputStream in = new ByteArrayInputStream(
+                ("{\"allowed\":true,\"reason\":\"" + reason + "\"}")
+                        .getBytes("UTF-8"));
+        assertThat(OpenShiftJsonCodec.read(json, in,
+                OpenShiftJsonCodec.SUBJECT_ACCESS_REVIEW).allowed, is(true));
+        assertThat(in.available(), is(0));
+    }
+}
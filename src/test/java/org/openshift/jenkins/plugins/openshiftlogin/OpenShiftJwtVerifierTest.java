@@ -0,0 +1,160 @@
+package org.openshift.jenkins.plugins.openshiftlogin;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.json.webtoken.JsonWebSignature;
+import com.google.api.client.json.webtoken.JsonWebToken;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.client.util.Base64;
+
+public class OpenShiftJwtVerifierTest {
+
+    private static final String SERVER = "https://openshift.default.svc";
+    private static final String ISSUER = "https://kubernetes.default.svc";
+    private static final String SUBJECT = "system:serviceaccount:pipelines:builder";
+
+    private static final JsonFactory JSON = new JacksonFactory();
+
+    private static KeyPair signingKey;
+    private static KeyPair otherKey;
+
+    private final AtomicInteger jwksFetches = new AtomicInteger();
+
+    private final MockHttpTransport transport = new MockHttpTransport() {
+        @Override
+        public LowLevelHttpRequest buildRequest(String method, final String url)
+                throws IOException {
+            return new MockLowLevelHttpRequest() {
+                @Override
+                public LowLevelHttpResponse execute() throws IOException {
+                    MockLowLevelHttpResponse response = new MockLowLevelHttpResponse();
+                    response.setContentType("application/json");
+                    if (url.endsWith(OpenShiftJwtVerifier.DISCOVERY_URI)) {
+                        response.setContent("{\"issuer\":\"" + ISSUER
+                                + "\",\"jwks_uri\":\"" + ISSUER
+                                + "/openid/v1/jwks\"}");
+                    } else if (url.endsWith(OpenShiftJwtVerifier.JWKS_URI)) {
+                        jwksFetches.incrementAndGet();
+                        RSAPublicKey key = (RSAPublicKey) signingKey
+                                .getPublic();
+                        response.setContent("{\"keys\":[{\"kty\":\"RSA\",\"kid\":\"k1\","
+                                + "\"use\":\"sig\",\"alg\":\"RS256\",\"n\":\""
+                                + Base64.encodeBase64URLSafeString(key
+                                        .getModulus().toByteArray())
+                                + "\",\"e\":\""
+                                + Base64.encodeBase64URLSafeString(key
+                                        .getPublicExponent().toByteArray())
+                                + "\"}]}");
+                    } else {
+                        response.setStatusCode(404);
+                    }
+                    return response;
+                }
+            };
+        }
+    };
+
+    @BeforeClass
+    public static void generateKeys() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        signingKey = generator.generateKeyPair();
+        otherKey = generator.generateKeyPair();
+    }
+
+    private OpenShiftJwtVerifier verifier(String audience) {
+        return new OpenShiftJwtVerifier(transport, null, JSON, SERVER,
+                audience, 60 * 60 * 1000);
+    }
+
+    private static JsonWebToken.Payload payload() {
+        long now = System.currentTimeMillis() / 1000;
+        return new JsonWebToken.Payload().setIssuer(ISSUER)
+                .setAudience(Arrays.asList(ISSUER)).setSubject(SUBJECT)
+                .setIssuedAtTimeSeconds(now)
+                .setExpirationTimeSeconds(now + 600);
+    }
+
+    private static String sign(KeyPair keys, String kid,
+            JsonWebToken.Payload payload) throws Exception {
+        JsonWebSignature.Header header = new JsonWebSignature.Header()
+                .setAlgorithm("RS256").setKeyId(kid);
+        return JsonWebSignature.signUsingRsaSha256(keys.getPrivate(), JSON,
+                header, payload);
+    }
+
+    @Test
+    public void testValidServiceAccountToken() throws Exception {
+        OpenShiftUserInfo info = verifier(null).verify(
+                sign(signingKey, "k1", payload()));
+        assertThat(info, is(notNullValue()));
+        assertThat(info.getName(), is(SUBJECT));
+        assertThat(info.getGroups(), is(Arrays.asList(
+                "system:serviceaccounts", "system:serviceaccounts:pipelines",
+                "system:authenticated")));
+    }
+
+    @Test
+    public void testKeysAreCached() throws Exception {
+        OpenShiftJwtVerifier verifier = verifier(null);
+        verifier.verify(sign(signingKey, "k1", payload()));
+        verifier.verify(sign(signingKey, "k1", payload()));
+        assertThat(jwksFetches.get(), is(1));
+    }
+
+    @Test
+    public void testRejected() throws Exception {
+        OpenShiftJwtVerifier verifier = verifier(null);
+        long now = System.currentTimeMillis() / 1000;
+
+        assertThat(verifier.verify(sign(otherKey, "k1", payload())),
+                is(nullValue()));
+        assertThat(verifier.verify(sign(signingKey, "k1", payload()
+                .setExpirationTimeSeconds(now - 600))), is(nullValue()));
+        assertThat(verifier.verify(sign(signingKey, "k1", payload()
+                .setAudience("someone-else"))), is(nullValue()));
+        assertThat(verifier.verify(sign(signingKey, "k1", payload()
+                .setIssuer("kubernetes/serviceaccount"))), is(nullValue()));
+        assertThat(verifier.verify(sign(signingKey, "k1", payload()
+                .setSubject("alice"))), is(nullValue()));
+        assertThat(verifier.verify("not-a-jwt"), is(nullValue()));
+    }
+
+    @Test
+    public void testUnknownKeyIdRefetchIsThrottled() throws Exception {
+        OpenShiftJwtVerifier verifier = verifier(null);
+        verifier.verify(sign(signingKey, "k1", payload()));
+        verifier.verify(sign(otherKey, "k2", payload()));
+        verifier.verify(sign(otherKey, "k2", payload()));
+        assertThat(jwksFetches.get(), is(1));
+    }
+
+    @Test
+    public void testConfiguredAudience() throws Exception {
+        OpenShiftJwtVerifier verifier = verifier("jenkins");
+        assertThat(verifier.verify(sign(signingKey, "k1", payload())),
+                is(nullValue()));
+        assertThat(verifier.verify(sign(signingKey, "k1", payload()
+                .setAudience(Arrays.asList("jenkins", ISSUER)))),
+                is(notNullValue()));
+    }
+}
@@ -0,0 +1,341 @@
+package org.openshift.jenkins.plugins.openshiftlogin;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import com.google.api.client.http.javanet.NetHttpTransport;
+
+import hudson.EnvVars;
+import hudson.security.GlobalMatrixAuthorizationStrategy;
+
+/**
+ * Drives {@link OpenShiftPermissionFilter} and the realm with a mix of browser
+ * sessions and bearer tokens against a {@link StubOpenShiftServer}, and
+ * reports throughput, filter latency and how many upstream API calls each
+ * request cost.
+ *
+ * Only runs when the system property
+ * org.openshift.jenkins.plugins.openshiftlogin.loadtest is true, e.g. via
+ * <code>mvn test -P load-test</code>; the knobs below are read from system
+ * properties with that prefix, e.g.
+ * -Dorg.openshift.jenkins.plugins.openshiftlogin.loadtest.users=5000
+ */
+public class OpenShiftLoadTest {
+
+    static final String PROPERTY_PREFIX = "org.openshift.jenkins.plugins.openshiftlogin.loadtest";
+
+    private static final Logger LOGGER = Logger
+            .getLogger(OpenShiftLoadTest.class.getName());
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    private StubOpenShiftServer stub;
+    private String priorPollInterval;
+    private String priorBearerValidation;
+
+    private int users;
+    private double browserRatio;
+    private int threads;
+    private int requests;
+    private long latencyMillis;
+    private double errorRate;
+    private long pollIntervalSeconds;
+    private String bearerValidation;
+
+    // checked before the JenkinsRule starts a Jenkins, so a default build
+    // does not pay for one
+    @BeforeClass
+    public static void enabled() {
+        Assume.assumeTrue(Boolean.getBoolean(PROPERTY_PREFIX));
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        users = Integer.getInteger(PROPERTY_PREFIX + ".users", 1000);
+        browserRatio = Double.parseDouble(System.getProperty(PROPERTY_PREFIX
+                + ".browserRatio", "0.5"));
+        threads = Integer.getInteger(PROPERTY_PREFIX + ".threads", 32);
+        requests = Integer.getInteger(PROPERTY_PREFIX + ".requests", 20000);
+        latencyMillis = Long.getLong(PROPERTY_PREFIX + ".latencyMillis", 5);
+        errorRate = Double.parseDouble(System.getProperty(PROPERTY_PREFIX
+                + ".errorRate", "0"));
+        pollIntervalSeconds = Long.getLong(PROPERTY_PREFIX
+                + ".pollIntervalSeconds", 5);
+        bearerValidation = System.getProperty(PROPERTY_PREFIX
+                + ".bearerValidation", "sar");
+
+        stub = new StubOpenShiftServer();
+        stub.setLatencyMillis(latencyMillis);
+        stub.setErrorRate(errorRate);
+        stub.start();
+
+        priorPollInterval = EnvVars.masterEnvVars.put(
+                "OPENSHIFT_PERMISSIONS_POLL_INTERVAL",
+                String.valueOf(pollIntervalSeconds));
+        priorBearerValidation = EnvVars.masterEnvVars.put(
+                "OPENSHIFT_BEARER_VALIDATION", bearerValidation);
+        OpenShiftOAuth2SecurityRealm.testTransport = new NetHttpTransport();
+        OpenShiftOAuth2SecurityRealm.redirectUrl = j.getURL()
+                + "securityRealm/finishLogin";
+    }
+
+    @After
+    public void tearDown() {
+        if (stub != null)
+            stub.stop();
+        if (priorPollInterval != null)
+            EnvVars.masterEnvVars.put("OPENSHIFT_PERMISSIONS_POLL_INTERVAL",
+                    priorPollInterval);
+        else
+            EnvVars.masterEnvVars.remove("OPENSHIFT_PERMISSIONS_POLL_INTERVAL");
+        if (priorBearerValidation != null)
+            EnvVars.masterEnvVars.put("OPENSHIFT_BEARER_VALIDATION",
+                    priorBearerValidation);
+        else
+            EnvVars.masterEnvVars.remove("OPENSHIFT_BEARER_VALIDATION");
+        OpenShiftOAuth2SecurityRealm.testTransport = null;
+        OpenShiftOAuth2SecurityRealm.redirectUrl = null;
+    }
+
+    @Test
+    public void testLoad() throws Exception {
+        final OpenShiftOAuth2SecurityRealm realm = new OpenShiftOAuth2SecurityRealm(
+                null, null, stub.getURL(), "jenkins",
+                StubOpenShiftServer.SA_TOKEN, stub.getURL());
+        j.jenkins.setSecurityRealm(realm);
+        j.jenkins
+                .setAuthorizationStrategy(new GlobalMatrixAuthorizationStrategy());
+        final OpenShiftPermissionFilter filter = new OpenShiftPermissionFilter();
+        final int browserUsers = (int) (users * browserRatio);
+
+        // login phase: every browser user goes through the token exchange
+        final HttpSession[] sessions = new HttpSession[browserUsers];
+        OpenShiftLatencyHistogram loginLatency = new OpenShiftLatencyHistogram();
+        long loginNanos = run(browserUsers, loginLatency, new Work() {
+            public void run(int i) throws Exception {
+                OAuthSession oauth = realm.newOAuthSession(
+                        "http://localhost/", "http://localhost/");
+                OpenShiftSessionState state = realm.login(oauth.getFlow(),
+                        "code-" + i, oauth.getRedirectUrl());
+                Map<String, Object> attributes = new ConcurrentHashMap<String, Object>();
+                attributes.put(OpenShiftSessionState.SESSION_NAME, state);
+                sessions[i] = session(attributes);
+            }
+        });
+        report("login", browserUsers, loginNanos, loginLatency);
+
+        // steady state: random mix of browser and bearer token requests
+        stub.resetCalls();
+        OpenShiftMetrics.reset();
+        final AtomicLong rejected = new AtomicLong();
+        final Random random = new Random();
+        final FilterChain chain = new FilterChain() {
+            public void doFilter(ServletRequest request,
+                    ServletResponse response) {
+            }
+        };
+        OpenShiftLatencyHistogram requestLatency = new OpenShiftLatencyHistogram();
+        long requestNanos = run(requests, requestLatency, new Work() {
+            public void run(int i) throws Exception {
+                int user;
+                synchronized (random) {
+                    user = random.nextInt(users);
+                }
+                HttpServletRequest request;
+                if (user < browserUsers)
+                    request = request(sessions[user], null);
+                else
+                    request = request(null, "Bearer token-" + user);
+                filter.doFilter(request, response(rejected), chain);
+            }
+        });
+        report("requests", requests, requestNanos, requestLatency);
+
+        LOGGER.info(String.format(
+                "  upstream calls: users/~ %d tokenreview %d sar %d token %d discovery %d",
+                stub.getCalls(StubOpenShiftServer.USER_PATH),
+                stub.getCalls(StubOpenShiftServer.TOKEN_REVIEW_PATH),
+                stub.getCalls(StubOpenShiftServer.SAR_PATH),
+                stub.getCalls(StubOpenShiftServer.TOKEN_PATH),
+                stub.getCalls(StubOpenShiftServer.PROVIDER_PATH)));
+        LOGGER.info(String.format(
+                "  amplification: %.3f upstream calls per request",
+                (double) stub.getTotalCalls() / requests));
+        LOGGER.info("  rejected: " + rejected.get());
+        StringBuilder metrics = new StringBuilder("  metrics:");
+        for (Entry<String, Long> entry : OpenShiftMetrics.snapshot()
+                .entrySet()) {
+            metrics.append("\n  ").append(entry.getKey()).append(' ')
+                    .append(entry.getValue());
+        }
+        LOGGER.info(metrics.toString());
+
+        assertThat(requestLatency.getCount(), is((long) requests));
+    }
+
+    interface Work {
+        void run(int i) throws Exception;
+    }
+
+    private long run(int count, final OpenShiftLatencyHistogram latency,
+            final Work work) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        final CountDownLatch done = new CountDownLatch(count);
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            final int n = i;
+            pool.execute(new Runnable() {
+                public void run() {
+                    long begin = System.nanoTime();
+                    try {
+                        work.run(n);
+                    } catch (Throwable t) {
+                        LOGGER.log(Level.WARNING, "load test request", t);
+                    } finally {
+                        latency.record(System.nanoTime() - begin);
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        done.await();
+        long elapsed = System.nanoTime() - start;
+        pool.shutdown();
+        pool.awaitTermination(1, TimeUnit.MINUTES);
+        return elapsed;
+    }
+
+    private void report(String phase, int count, long nanos,
+            OpenShiftLatencyHistogram latency) {
+        double seconds = nanos / 1e9;
+        LOGGER.info(String.format(
+                "OpenShift login load test [%s]: users %d browser ratio %.2f threads %d "
+                        + "upstream latency %dms error rate %.3f bearer validation %s",
+                phase, users, browserRatio, threads, latencyMillis, errorRate,
+                bearerValidation));
+        LOGGER.info(String.format(
+                "  %d in %.2fs, throughput %.1f/s", count, seconds,
+                seconds > 0 ? count / seconds : 0));
+        LOGGER.info(String.format(
+                "  latency micros: p50 %d p99 %d max %d",
+                latency.getPercentileMicros(50),
+                latency.getPercentileMicros(99), latency.getMaxMicros()));
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class)
+            return Boolean.FALSE;
+        if (type == int.class)
+            return Integer.valueOf(0);
+        if (type == long.class)
+            return Long.valueOf(0);
+        return null;
+    }
+
+    private static Object proxy(Class<?> type, final InvocationHandler handler) {
+        return Proxy.newProxyInstance(OpenShiftLoadTest.class.getClassLoader(),
+                new Class<?>[] { type }, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method,
+                            Object[] args) throws Throwable {
+                        String name = method.getName();
+                        if (name.equals("hashCode"))
+                            return System.identityHashCode(proxy);
+                        if (name.equals("equals"))
+                            return proxy == args[0];
+                        if (name.equals("toString"))
+                            return "stub " + method.getDeclaringClass();
+                        return handler.invoke(proxy, method, args);
+                    }
+                });
+    }
+
+    static HttpServletRequest request(final HttpSession session,
+            final String authorization) {
+        return (HttpServletRequest) proxy(HttpServletRequest.class,
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method,
+                            Object[] args) {
+                        String name = method.getName();
+                        if (name.equals("getSession"))
+                            return session;
+                        if (name.equals("getHeader"))
+                            return "Authorization".equalsIgnoreCase((String) args[0]) ? authorization
+                                    : null;
+                        if (name.equals("getRequestURI"))
+                            return "/";
+                        return defaultValue(method.getReturnType());
+                    }
+                });
+    }
+
+    static HttpSession session(final Map<String, Object> attributes) {
+        return (HttpSession) proxy(HttpSession.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String name = method.getName();
+                if (name.equals("getAttribute"))
+                    return attributes.get(args[0]);
+                if (name.equals("setAttribute")) {
+                    if (args[1] == null)
+                        attributes.remove(args[0]);
+                    else
+                        attributes.put((String) args[0], args[1]);
+                    return null;
+                }
+                if (name.equals("removeAttribute")) {
+                    attributes.remove(args[0]);
+                    return null;
+                }
+                if (name.equals("invalidate")) {
+                    attributes.clear();
+                    return null;
+                }
+                if (name.equals("getId"))
+                    return "session-" + System.identityHashCode(proxy);
+                return defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    static HttpServletResponse response(final AtomicLong rejected) {
+        return (HttpServletResponse) proxy(HttpServletResponse.class,
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method,
+                            Object[] args) {
+                        if (method.getName().equals("sendError"))
+                            rejected.incrementAndGet();
+                        return defaultValue(method.getReturnType());
+                    }
+                });
+    }
+}
@@ -0,0 +1,95 @@
+package org.openshift.jenkins.plugins.openshiftlogin;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class OpenShiftLogTest {
+
+    private final List<LogRecord> records = new ArrayList<LogRecord>();
+    private Logger logger;
+
+    @Before
+    public void setUp() {
+        logger = Logger.getAnonymousLogger();
+        logger.setUseParentHandlers(false);
+        logger.setLevel(Level.INFO);
+        logger.addHandler(new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                records.add(record);
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+    }
+
+    @Test
+    public void testRateLimitedPerKey() {
+        OpenShiftLog log = new OpenShiftLog(logger, 60000);
+        for (int i = 0; i < 5; i++) {
+            log.log(Level.INFO, "a", "first", "i", i);
+        }
+        log.log(Level.INFO, "b", "second");
+
+        assertThat(records.size(), is(2));
+        assertThat(records.get(0).getMessage(), is("first i=0"));
+        assertThat(records.get(1).getMessage(), is("second"));
+    }
+
+    @Test
+    public void testSuppressedCountReported() throws Exception {
+        OpenShiftLog log = new OpenShiftLog(logger, 50);
+        log.log(Level.INFO, "a", "message");
+        log.log(Level.INFO, "a", "message");
+        log.log(Level.INFO, "a", "message");
+        Thread.sleep(100);
+        log.log(Level.INFO, "a", "message");
+
+        assertThat(records.size(), is(2));
+        assertThat(records.get(1).getMessage(), is("message suppressed=2"));
+    }
+
+    @Test
+    public void testValuesRenderedOnlyWhenLogged() {
+        final AtomicInteger rendered = new AtomicInteger();
+        Object value = new Object() {
+            @Override
+            public String toString() {
+                rendered.incrementAndGet();
+                return "v";
+            }
+        };
+        OpenShiftLog log = new OpenShiftLog(logger, 60000);
+        log.log(Level.FINE, "fine", "below the level", "k", value);
+        log.log(Level.INFO, "info", "logged", "k", value);
+        log.log(Level.INFO, "info", "suppressed", "k", value);
+
+        assertThat(rendered.get(), is(1));
+    }
+
+    @Test
+    public void testRender() {
+        assertThat(OpenShiftLog.render("m", new Object[] { "a", null, "b",
+                "two words", "c", "say \"hi\"" }, 0),
+                is("m a=null b=\"two words\" c=\"say \\\"hi\\\"\""));
+        assertThat(String.valueOf(OpenShiftLog.masked("abcdefghij")),
+                is("abcde......."));
+    }
+}
@@ -0,0 +1,130 @@
+package org.openshift.jenkins.plugins.openshiftlogin;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class OpenShiftLoginPrefetchTest {
+
+    private static class RecordingTarget implements
+            OpenShiftLoginPrefetch.Target {
+        final OpenShiftLoginPrefetch prefetch;
+        final List<String> calls = new ArrayList<String>();
+        boolean succeed = true;
+
+        RecordingTarget(OpenShiftLoginPrefetch prefetch) {
+            this.prefetch = prefetch;
+        }
+
+        public boolean refresh() throws Exception {
+            calls.add("refresh");
+            // as populateDefaults does
+            if (succeed)
+                prefetch.markRefreshed();
+            return succeed;
+        }
+
+        public void warm() throws Exception {
+            calls.add("warm");
+        }
+    }
+
+    private static class QueuingExecutor implements Executor {
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+    }
+
+    private static final Executor DIRECT = new Executor() {
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Before
+    public void setUp() {
+        OpenShiftMetrics.reset();
+    }
+
+    @Test
+    public void testRefreshesWhenStaleThenWarms() {
+        OpenShiftLoginPrefetch prefetch = new OpenShiftLoginPrefetch(
+                TimeUnit.MINUTES.toNanos(1));
+        RecordingTarget target = new RecordingTarget(prefetch);
+
+        assertThat(prefetch.isFresh(), is(false));
+        assertThat(prefetch.start(DIRECT, target), is(true));
+        assertThat(prefetch.isFresh(), is(true));
+        assertThat(prefetch.start(DIRECT, target), is(true));
+
+        assertThat(target.calls.toString(), is("[refresh, warm]"));
+        assertThat(OpenShiftMetrics.snapshot().get("login.prefetch.count"),
+                is(2L));
+    }
+
+    @Test
+    public void testExpires() {
+        OpenShiftLoginPrefetch prefetch = new OpenShiftLoginPrefetch(0);
+        prefetch.markRefreshed();
+
+        assertThat(prefetch.isFresh(), is(false));
+    }
+
+    @Test
+    public void testFailedRefreshIsNotFresh() {
+        OpenShiftLoginPrefetch prefetch = new OpenShiftLoginPrefetch(
+                TimeUnit.MINUTES.toNanos(1));
+        RecordingTarget target = new RecordingTarget(prefetch);
+        target.succeed = false;
+
+        prefetch.start(DIRECT, target);
+        prefetch.start(DIRECT, target);
+
+        assertThat(prefetch.isFresh(), is(false));
+        assertThat(target.calls.toString(), is("[refresh, refresh]"));
+        assertThat(
+                OpenShiftMetrics.snapshot().get("login.prefetch.failures"),
+                is(2L));
+    }
+
+    @Test
+    public void testOneAtATime() {
+        OpenShiftLoginPrefetch prefetch = new OpenShiftLoginPrefetch(
+                TimeUnit.MINUTES.toNanos(1));
+        RecordingTarget target = new RecordingTarget(prefetch);
+        QueuingExecutor pool = new QueuingExecutor();
+
+        assertThat(prefetch.start(pool, target), is(true));
+        // the logins commenced meanwhile share the running prefetch
+        assertThat(prefetch.start(pool, target), is(false));
+        assertThat(pool.tasks.size(), is(1));
+
+        pool.tasks.get(0).run();
+        assertThat(prefetch.start(pool, target), is(true));
+    }
+
+    @Test
+    public void testRejectedDoesNotBlockLaterPrefetches() {
+        OpenShiftLoginPrefetch prefetch = new OpenShiftLoginPrefetch(
+                TimeUnit.MINUTES.toNanos(1));
+        RecordingTarget target = new RecordingTarget(prefetch);
+
+        assertThat(prefetch.start(new Executor() {
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException();
+            }
+        }, target), is(false));
+        assertThat(prefetch.start(DIRECT, target), is(true));
+        assertThat(target.calls.toString(), is("[refresh]"));
+    }
+}
@@ -0,0 +1,74 @@
+package org.openshift.jenkins.plugins.openshiftlogin;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class OpenShiftMetricsTest {
+
+    @Before
+    public void setUp() {
+        OpenShiftMetrics.reset();
+    }
+
+    @Test
+    public void testCallCounts() {
+        OpenShiftMetrics.recordCall(OpenShiftMetrics.Endpoint.SAR,
+                TimeUnit.MILLISECONDS.toNanos(2), false);
+        OpenShiftMetrics.recordCall(OpenShiftMetrics.Endpoint.SAR,
+                TimeUnit.MILLISECONDS.toNanos(3), true);
+        OpenShiftMetrics.recordCall(OpenShiftMetrics.Endpoint.USER_INFO,
+                TimeUnit.MILLISECONDS.toNanos(1), false);
+
+        assertThat(OpenShiftMetrics.Endpoint.SAR.getCalls(), is(2L));
+        assertThat(OpenShiftMetrics.Endpoint.SAR.getErrors(), is(1L));
+        assertThat(OpenShiftMetrics.Endpoint.USER_INFO.getCalls(), is(1L));
+        assertThat(OpenShiftMetrics.Endpoint.TOKEN.getCalls(), is(0L));
+
+        Map<String, Long> snapshot = OpenShiftMetrics.snapshot();
+        assertThat(snapshot.get("api.sar.calls"), is(2L));
+        assertThat(snapshot.get("api.sar.errors"), is(1L));
+        assertThat(snapshot.get("api.userInfo.calls"), is(1L));
+    }
+
+    @Test
+    public void testBearerCacheAndMatrix() {
+        OpenShiftMetrics.recordBearerCacheHit();
+        OpenShiftMetrics.recordBearerCacheHit();
+        OpenShiftMetrics.recordBearerCacheMiss();
+        OpenShiftMetrics.recordBearerCacheEviction();
+        OpenShiftMetrics.recordMatrixRebuild(1000, 12);
+        OpenShiftMetrics.recordSave(1000);
+
+        Map<String, Long> snapshot = OpenShiftMetrics.snapshot();
+        assertThat(snapshot.get("bearerCache.hits"), is(2L));
+        assertThat(snapshot.get("bearerCache.misses"), is(1L));
+        assertThat(snapshot.get("bearerCache.evictions"), is(1L));
+        assertThat(snapshot.get("matrix.rebuilds"), is(1L));
+        assertThat(snapshot.get("matrix.size"), is(12L));
+        assertThat(snapshot.get("save.count"), is(1L));
+    }
+
+    @Test
+    public void testHistogramPercentiles() {
+        OpenShiftLatencyHistogram histogram = new OpenShiftLatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        histogram.record(TimeUnit.SECONDS.toNanos(1));
+
+        assertThat(histogram.getCount(), is(100L));
+        // 1ms lands in the [512, 1024) micros bucket
+        assertThat(histogram.getPercentileMicros(50), is(1024L));
+        assertThat(histogram.getPercentileMicros(99), is(1024L));
+        assertThat(histogram.getMaxMicros(), is(1000000L));
+        assertThat(histogram.getPercentileMicros(100), is(1000000L));
+        assertTrue(histogram.getMeanMicros() > 1000);
+    }
+}
@@ -0,0 +1,147 @@
+package org.openshift.jenkins.plugins.openshiftlogin;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import hudson.model.Item;
+import hudson.model.Run;
+import jenkins.model.Jenkins;
+
+import org.junit.Test;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+public class OpenShiftNamespaceRolesTest {
+
+    private static class StubSource implements OpenShiftNamespaceRoles.Source {
+        final Map<String, Set<String>> roles = new ConcurrentHashMap<String, Set<String>>();
+        final List<String> asked = Collections
+                .synchronizedList(new ArrayList<String>());
+        boolean fail;
+
+        public ListenableFuture<Set<String>> getRoles(OpenShiftUserInfo user,
+                String namespace) {
+            asked.add(namespace);
+            if (fail)
+                return Futures.immediateFailedFuture(new IOException("down"));
+            Set<String> r = roles.get(user.getName() + "/" + namespace);
+            return Futures.immediateFuture(r != null ? r : Collections
+                    .<String> emptySet());
+        }
+    }
+
+    private static OpenShiftUserInfo user(String name) {
+        OpenShiftUserInfo info = new OpenShiftUserInfo();
+        info.metadata = new OpenShiftUserInfo.Metadata();
+        info.metadata.name = name;
+        return info;
+    }
+
+    private static OpenShiftRateLimiter unlimited() {
+        return new OpenShiftRateLimiter(1000, 1000);
+    }
+
+    @Test
+    public void testCachedPerUserAndNamespace() throws Exception {
+        StubSource source = new StubSource();
+        source.roles.put("alice/team-a", new HashSet<String>(Arrays.asList(
+                "edit", "view")));
+        OpenShiftNamespaceRoles roles = new OpenShiftNamespaceRoles(100,
+                60000, 60000, 10);
+        List<String> folders = Arrays.asList("team-a");
+
+        // nothing is looked up when a folder is checked
+        assertThat(roles.getRoles(user("alice"), "team-a").isEmpty(),
+                is(true));
+        assertThat(source.asked.isEmpty(), is(true));
+
+        assertThat(roles.refresh(source, user("alice"), folders, unlimited(),
+                3), is(1));
+        assertThat(roles.refresh(source, user("alice"), folders, unlimited(),
+                3), is(0));
+        assertThat(roles.getRoles(user("alice"), "team-a").contains("edit"),
+                is(true));
+        roles.refresh(source, user("bob"), folders, unlimited(), 3);
+        assertThat(roles.getRoles(user("bob"), "team-a").isEmpty(), is(true));
+        assertThat(source.asked, is(Arrays.asList("team-a", "team-a")));
+    }
+
+    @Test
+    public void testRefreshBoundedByBatch() throws Exception {
+        StubSource source = new StubSource();
+        OpenShiftNamespaceRoles roles = new OpenShiftNamespaceRoles(100,
+                60000, 60000, 3);
+        List<String> folders = Arrays.asList("a", "b", "c", "d");
+
+        roles.refresh(source, user("alice"), folders, unlimited(), 3);
+        assertThat(source.asked, is(Arrays.asList("a", "b", "c")));
+        roles.refresh(source, user("alice"), folders, unlimited(), 3);
+        assertThat(source.asked, is(Arrays.asList("a", "b", "c", "d")));
+        assertThat(roles.size(), is(4));
+    }
+
+    @Test
+    public void testRefreshBoundedByRateLimiter() throws Exception {
+        StubSource source = new StubSource();
+        OpenShiftNamespaceRoles roles = new OpenShiftNamespaceRoles(100,
+                60000, 60000, 50);
+        List<String> folders = Arrays.asList("a", "b", "c", "d");
+
+        // room for two lookups of three SARs, refilling too slowly to matter
+        OpenShiftRateLimiter limiter = new OpenShiftRateLimiter(0.001, 6);
+        assertThat(roles.refresh(source, user("alice"), folders, limiter, 3),
+                is(2));
+        assertThat(source.asked, is(Arrays.asList("a", "b")));
+    }
+
+    @Test
+    public void testFailuresCachedBriefly() throws Exception {
+        StubSource source = new StubSource();
+        source.fail = true;
+        OpenShiftNamespaceRoles roles = new OpenShiftNamespaceRoles(100,
+                60000, 50, 1);
+        List<String> folders = Arrays.asList("team-a");
+        source.roles.put("alice/team-a", Collections.singleton("view"));
+
+        roles.refresh(source, user("alice"), folders, unlimited(), 3);
+        assertThat(roles.getRoles(user("alice"), "team-a").isEmpty(),
+                is(true));
+        // the failure is remembered rather than retried straight away
+        assertThat(roles.refresh(source, user("alice"), folders, unlimited(),
+                3), is(0));
+        assertThat(source.asked.size(), is(1));
+
+        Thread.sleep(100);
+        source.fail = false;
+        assertThat(roles.refresh(source, user("alice"), folders, unlimited(),
+                3), is(1));
+        assertThat(roles.getRoles(user("alice"), "team-a").contains("view"),
+                is(true));
+    }
+
+    @Test
+    public void testNamespaceRolesOnlyGrantFolderPermissions() {
+        Set<String> admin = Collections.singleton("admin");
+        assertThat(OpenShiftNamespaceAuthorizationStrategy.isGranted(admin,
+                Item.CONFIGURE), is(true));
+        assertThat(OpenShiftNamespaceAuthorizationStrategy.isGranted(admin,
+                Run.DELETE), is(true));
+        assertThat(OpenShiftNamespaceAuthorizationStrategy.isGranted(admin,
+                Jenkins.ADMINISTER), is(false));
+        assertThat(OpenShiftNamespaceAuthorizationStrategy.isGranted(
+                Collections.singleton("edit"), Jenkins.RUN_SCRIPTS), is(false));
+        assertThat(OpenShiftNamespaceAuthorizationStrategy.isGranted(
+                Collections.singleton("view"), Item.BUILD), is(false));
+    }
+}
@@ -0,0 +1,45 @@
+package org.openshift.jenkins.plugins.openshiftlogin;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+public class OpenShiftPermissionFilterTest {
+
+    @Test
+    public void testIsExpired() {
+        assertThat(OpenShiftPermissionFilter.isExpired(null, 1000L), is(false));
+        assertThat(OpenShiftPermissionFilter.isExpired(Long.valueOf(2000), 1000L),
+                is(false));
+        assertThat(OpenShiftPermissionFilter.isExpired(Long.valueOf(1000), 1000L),
+                is(true));
+    }
+
+    @Test
+    public void testSessionAction() {
+        // within the interval: the decision in the session stands
+        assertThat(OpenShiftPermissionFilter.getSessionAction(null, 1000,
+                300000, 200000), is(OpenShiftPermissionFilter.SessionAction.SERVE));
+        // past the interval: poll
+        assertThat(OpenShiftPermissionFilter.getSessionAction(
+                Long.valueOf(900000), 1000, 300000, 301001),
+                is(OpenShiftPermissionFilter.SessionAction.POLL));
+    }
+
+    @Test
+    public void testExpiredTokenClearsRatherThanPolls() {
+        // a token expiring before the interval is up is not polled with
+        // early, the session is left alone until the expiry...
+        assertThat(OpenShiftPermissionFilter.getSessionAction(
+                Long.valueOf(60000), 1000, 300000, 59999),
+                is(OpenShiftPermissionFilter.SessionAction.SERVE));
+        // ...and then cleared, also once a poll would be due
+        assertThat(OpenShiftPermissionFilter.getSessionAction(
+                Long.valueOf(60000), 1000, 300000, 60000),
+                is(OpenShiftPermissionFilter.SessionAction.CLEAR));
+        assertThat(OpenShiftPermissionFilter.getSessionAction(
+                Long.valueOf(60000), 1000, 300000, 400000),
+                is(OpenShiftPermissionFilter.SessionAction.CLEAR));
+    }
+}
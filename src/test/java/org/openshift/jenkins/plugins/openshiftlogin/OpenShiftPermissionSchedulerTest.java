@@ -0,0 +1,103 @@
+package org.openshift.jenkins.plugins.openshiftlogin;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class OpenShiftPermissionSchedulerTest {
+
+    private static final long INTERVAL = 300000;
+
+    private static OpenShiftActiveUsers.Record record(String name,
+            double jitter, long decidedAt, long lastSeen) {
+        OpenShiftUserInfo info = new OpenShiftUserInfo();
+        info.metadata = new OpenShiftUserInfo.Metadata();
+        info.metadata.name = name;
+        OpenShiftActiveUsers.Record record = new OpenShiftActiveUsers.Record(
+                info, jitter);
+        record.decidedAt = decidedAt;
+        record.lastSeen = lastSeen;
+        return record;
+    }
+
+    @Test
+    public void testJitterSpreadsUsersDecidedTogether() {
+        OpenShiftActiveUsers.Record early = record("a", 0.5, 0, 0);
+        OpenShiftActiveUsers.Record late = record("b", 0.0, 0, 0);
+        assertThat(OpenShiftPermissionScheduler.dueAt(late, INTERVAL, 0.5),
+                is(INTERVAL));
+        assertThat(OpenShiftPermissionScheduler.dueAt(early, INTERVAL, 0.5),
+                is(INTERVAL - 75000));
+        // never later than the poll interval
+        assertThat(OpenShiftPermissionScheduler.dueAt(early, INTERVAL, 0),
+                is(INTERVAL));
+    }
+
+    @Test
+    public void testMostRecentlySeenFirst() {
+        OpenShiftActiveUsers.Record idle = record("idle", 0, 0, 10);
+        OpenShiftActiveUsers.Record busy = record("busy", 0, 0, 20);
+        OpenShiftActiveUsers.Record fresh = record("fresh", 0, INTERVAL, 30);
+        OpenShiftActiveUsers.Record queued = record("queued", 0, 0, 40);
+        queued.scheduled.set(true);
+
+        List<OpenShiftActiveUsers.Record> due = OpenShiftPermissionScheduler
+                .selectDue(Arrays.asList(idle, busy, fresh, queued),
+                        INTERVAL, INTERVAL, 0.2);
+        assertThat(due, is(Arrays.asList(busy, idle)));
+    }
+
+    /**
+     * Holds on to what it is given rather than running it.
+     */
+    private static class HoldingExecutor extends ThreadPoolExecutor {
+        final List<Runnable> held = new ArrayList<Runnable>();
+
+        HoldingExecutor() {
+            super(1, 1, 0, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>());
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            held.add(command);
+        }
+    }
+
+    @Test
+    public void testQueuedUsersCostNoPermits() {
+        int cost = OpenShiftOAuth2SecurityRealm.getRoleCount();
+        OpenShiftActiveUsers.Record queued = record("queued", 0, 0, 20);
+        queued.scheduled.set(true);
+        OpenShiftActiveUsers.Record due = record("due", 0, 0, 10);
+        // room for exactly one revalidation
+        OpenShiftRateLimiter limiter = new OpenShiftRateLimiter(0.001, cost);
+        HoldingExecutor executor = new HoldingExecutor();
+
+        assertThat(OpenShiftPermissionScheduler.submit(null,
+                Arrays.asList(queued, due), executor, limiter), is(1));
+        assertThat(executor.held.size(), is(1));
+        assertThat(due.scheduled.get(), is(true));
+        assertThat(limiter.getAvailable(), is(0L));
+    }
+
+    @Test
+    public void testDeferredUsersNotLeftScheduled() {
+        OpenShiftActiveUsers.Record due = record("due", 0, 0, 10);
+        OpenShiftRateLimiter limiter = new OpenShiftRateLimiter(0.001, 0);
+        HoldingExecutor executor = new HoldingExecutor();
+
+        assertThat(OpenShiftPermissionScheduler.submit(null,
+                Arrays.asList(due), executor, limiter), is(0));
+        assertThat(executor.held.isEmpty(), is(true));
+        assertThat(due.scheduled.get(), is(false));
+    }
+}
@@ -0,0 +1,36 @@
+package org.openshift.jenkins.plugins.openshiftlogin;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+public class OpenShiftRateLimiterTest {
+
+    @Test
+    public void testBurstThenEmpty() {
+        // slow enough that nothing refills during the test
+        OpenShiftRateLimiter limiter = new OpenShiftRateLimiter(0.001, 6);
+        assertThat(limiter.tryAcquire(3), is(true));
+        assertThat(limiter.tryAcquire(3), is(true));
+        assertThat(limiter.tryAcquire(3), is(false));
+    }
+
+    @Test
+    public void testChargesLeaveLessForAcquire() {
+        OpenShiftRateLimiter limiter = new OpenShiftRateLimiter(0.001, 6);
+        limiter.charge(4);
+        assertThat(limiter.tryAcquire(3), is(false));
+        // debt is capped at the capacity
+        limiter.charge(100);
+        assertThat(limiter.getAvailable(), is(-6L));
+    }
+
+    @Test
+    public void testRefill() throws Exception {
+        OpenShiftRateLimiter limiter = new OpenShiftRateLimiter(1000, 3);
+        assertThat(limiter.tryAcquire(3), is(true));
+        Thread.sleep(50);
+        assertThat(limiter.tryAcquire(3), is(true));
+    }
+}
@@ -0,0 +1,70 @@
+package org.openshift.jenkins.plugins.openshiftlogin;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class OpenShiftRoleBindingsTest {
+
+    private static OpenShiftRoleBindingList.RoleBinding binding(String role,
+            OpenShiftRoleBindingList.Subject... subjects) {
+        OpenShiftRoleBindingList.RoleBinding binding = new OpenShiftRoleBindingList.RoleBinding();
+        binding.roleRef = new OpenShiftRoleBindingList.RoleRef();
+        binding.roleRef.name = role;
+        binding.subjects = Arrays.asList(subjects);
+        return binding;
+    }
+
+    private static OpenShiftRoleBindingList.Subject subject(String kind,
+            String name) {
+        OpenShiftRoleBindingList.Subject subject = new OpenShiftRoleBindingList.Subject();
+        subject.kind = kind;
+        subject.name = name;
+        return subject;
+    }
+
+    private static OpenShiftRoleBindingList bindings() {
+        OpenShiftRoleBindingList bindings = new OpenShiftRoleBindingList();
+        bindings.items = new ArrayList<OpenShiftRoleBindingList.RoleBinding>();
+        bindings.items.add(binding("view", subject("User", "alice"),
+                subject("Group", "devs")));
+        bindings.items.add(binding("edit", subject("User", "alice"),
+                subject("ServiceAccount", "jenkins")));
+        bindings.items.add(binding("admin", subject("User", "bob")));
+        bindings.items.add(binding("system:image-puller",
+                subject("User", "carol")));
+        return bindings;
+    }
+
+    @Test
+    public void testHighestRolePerSubject() {
+        Map<String, Set<String>> keys = OpenShiftRoleBindings.getMatrixKeys(
+                bindings(), "ci", false);
+
+        assertThat(keys.keySet(), is((Set<String>) new HashSet<String>(Arrays
+                .asList("alice-edit", "system:serviceaccount:ci:jenkins-edit",
+                        "bob-admin"))));
+        // as a login's SARs would find them
+        assertThat(keys.get("bob-admin"), is((Set<String>) new HashSet<String>(
+                Arrays.asList("admin", "edit", "view"))));
+        assertThat(keys.get("alice-edit"),
+                is((Set<String>) new HashSet<String>(Arrays.asList("edit",
+                        "view"))));
+    }
+
+    @Test
+    public void testGroupsOnlyWithGroupAuthorization() {
+        Map<String, Set<String>> keys = OpenShiftRoleBindings.getMatrixKeys(
+                bindings(), "ci", true);
+
+        assertThat(keys.containsKey("devs-view"), is(true));
+        assertThat(keys.size(), is(4));
+    }
+}
@@ -0,0 +1,224 @@
+package org.openshift.jenkins.plugins.openshiftlogin;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.acegisecurity.GrantedAuthority;
+import org.acegisecurity.providers.UsernamePasswordAuthenticationToken;
+import org.junit.Test;
+
+import com.google.api.client.auth.oauth2.BearerToken;
+import com.google.api.client.auth.oauth2.Credential;
+
+public class OpenShiftSessionStateTest {
+
+    private static OpenShiftSessionState state() {
+        OpenShiftUserInfo info = new OpenShiftUserInfo();
+        info.metadata = new OpenShiftUserInfo.Metadata();
+        info.metadata.name = "alice";
+        info.metadata.uid = "uid-alice";
+        Credential credential = new Credential(
+                BearerToken.authorizationHeaderAccessMethod())
+                .setAccessToken("secret-token")
+                .setExpirationTimeMilliseconds(1234L);
+        OpenShiftSessionState state = new OpenShiftSessionState(info,
+                credential);
+        state.setDecision(new UsernamePasswordAuthenticationToken(
+                "alice-edit", "", new GrantedAuthority[0]), 42L);
+        return state;
+    }
+
+    @Test
+    public void testSerializedWithoutTokens() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(state());
+        out.close();
+
+        // the token itself must not be in the serialized form
+        assertThat(new String(bytes.toByteArray(), "ISO-8859-1")
+                .contains("secret-token"), is(false));
+
+        OpenShiftSessionState restored = (OpenShiftSessionState) new ObjectInputStream(
+                new ByteArrayInputStream(bytes.toByteArray())).readObject();
+        assertThat(restored.getUserName(), is("alice"));
+        assertThat(restored.getUid(), is("uid-alice"));
+        assertThat(restored.getMatrixKey(), is("alice-edit"));
+        assertThat(restored.getLastPoll(), is(42L));
+        assertThat(restored.getExpiresAt(), is(1234L));
+        assertThat(restored.getTokenDigest(),
+                is(OpenShiftTokenDigest.of("secret-token")));
+        assertThat(restored.getCredential(), is(nullValue()));
+    }
+
+    private static final Executor NO_POOL = new Executor() {
+        public void execute(Runnable command) {
+            throw new AssertionError("expected the refresh to run inline");
+        }
+    };
+
+    /**
+     * Hands out "renewed-N" tokens valid for an hour.
+     */
+    private static class StubRenewer implements OpenShiftSessionState.Renewer {
+        final AtomicInteger renewals = new AtomicInteger();
+        volatile String owner = "alice";
+        volatile CountDownLatch entered;
+        volatile CountDownLatch proceed;
+
+        public boolean renew(Credential credential) throws IOException {
+            if (entered != null)
+                entered.countDown();
+            if (proceed != null) {
+                try {
+                    proceed.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            credential.setAccessToken("renewed-" + renewals.incrementAndGet())
+                    .setExpirationTimeMilliseconds(
+                            System.currentTimeMillis()
+                                    + TimeUnit.HOURS.toMillis(1));
+            return true;
+        }
+
+        public String getUserName(Credential credential) {
+            return owner;
+        }
+    }
+
+    private static OpenShiftSessionState state(long expiresInMillis) {
+        OpenShiftUserInfo info = new OpenShiftUserInfo();
+        info.metadata = new OpenShiftUserInfo.Metadata();
+        info.metadata.name = "alice";
+        Credential credential = new Credential(
+                BearerToken.authorizationHeaderAccessMethod())
+                .setAccessToken("old-token").setRefreshToken("refresh")
+                .setExpirationTimeMilliseconds(
+                        System.currentTimeMillis() + expiresInMillis);
+        return new OpenShiftSessionState(info, credential);
+    }
+
+    @Test
+    public void testExpiredTokenIsRenewedInline() {
+        OpenShiftSessionState state = state(-1000);
+        StubRenewer renewer = new StubRenewer();
+
+        state.refreshIfNeeded(renewer, NO_POOL);
+
+        assertThat(renewer.renewals.get(), is(1));
+        assertThat(state.getCredential().getAccessToken(), is("renewed-1"));
+        assertThat(state.getTokenDigest(),
+                is(OpenShiftTokenDigest.of("renewed-1")));
+        assertThat(state.getExpiresAt() > System.currentTimeMillis(),
+                is(true));
+    }
+
+    @Test
+    public void testTokenWithinWindowIsRenewedInBackground() {
+        // within the default 5 minute window
+        OpenShiftSessionState state = state(TimeUnit.MINUTES.toMillis(1));
+        StubRenewer renewer = new StubRenewer();
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        Executor pool = new Executor() {
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        };
+
+        state.refreshIfNeeded(renewer, pool);
+        // already scheduled
+        state.refreshIfNeeded(renewer, pool);
+        assertThat(tasks.size(), is(1));
+        // the current token keeps serving meanwhile
+        assertThat(state.getCredential().getAccessToken(), is("old-token"));
+
+        tasks.get(0).run();
+        assertThat(state.getCredential().getAccessToken(), is("renewed-1"));
+
+        // fresh now, so nothing more to do
+        state.refreshIfNeeded(renewer, pool);
+        assertThat(tasks.size(), is(1));
+    }
+
+    @Test
+    public void testTokenOutsideWindowIsLeftAlone() {
+        OpenShiftSessionState state = state(TimeUnit.HOURS.toMillis(1));
+        StubRenewer renewer = new StubRenewer();
+
+        state.refreshIfNeeded(renewer, NO_POOL);
+
+        assertThat(renewer.renewals.get(), is(0));
+    }
+
+    @Test
+    public void testConcurrentRefreshWaits() throws Exception {
+        final OpenShiftSessionState state = state(-1000);
+        final StubRenewer renewer = new StubRenewer();
+        renewer.entered = new CountDownLatch(1);
+        renewer.proceed = new CountDownLatch(1);
+        final AtomicBoolean first = new AtomicBoolean();
+        Thread other = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    first.set(state.refresh(renewer, true));
+                } catch (IOException e) {
+                }
+            }
+        };
+        other.start();
+        assertThat(renewer.entered.await(5, TimeUnit.SECONDS), is(true));
+
+        // a second tab with the same expired token waits for the renewal
+        // in progress rather than starting another
+        final AtomicBoolean second = new AtomicBoolean();
+        Thread waiting = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    second.set(state.refresh(renewer, true));
+                } catch (IOException e) {
+                }
+            }
+        };
+        waiting.start();
+        Thread.sleep(100);
+        assertThat(waiting.isAlive(), is(true));
+        // without waiting, a refresh gives up right away
+        assertThat(state.refresh(renewer, false), is(false));
+
+        renewer.proceed.countDown();
+        other.join(5000);
+        waiting.join(5000);
+
+        assertThat(first.get(), is(true));
+        assertThat(second.get(), is(true));
+        assertThat(renewer.renewals.get(), is(1));
+    }
+
+    @Test
+    public void testIdentityChanged() throws Exception {
+        OpenShiftSessionState state = state(-1000);
+        StubRenewer renewer = new StubRenewer();
+        renewer.owner = "mallory";
+
+        assertThat(state.refresh(renewer, true), is(false));
+        assertThat(state.isIdentityChanged(), is(true));
+    }
+}
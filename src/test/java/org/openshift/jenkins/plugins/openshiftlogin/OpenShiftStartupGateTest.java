@@ -0,0 +1,97 @@
+package org.openshift.jenkins.plugins.openshiftlogin;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.isA;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Test;
+
+public class OpenShiftStartupGateTest {
+
+    private static class CountingChain implements FilterChain {
+        final AtomicInteger calls = new AtomicInteger();
+
+        public void doFilter(ServletRequest request, ServletResponse response)
+                throws IOException, ServletException {
+            calls.incrementAndGet();
+        }
+    }
+
+    @Test
+    public void testRejectedWhileStarting() throws Exception {
+        OpenShiftMetrics.reset();
+        OpenShiftStartupGate gate = new OpenShiftStartupGate(50,
+                new CountDownLatch(1));
+        HttpServletResponse response = createMock(HttpServletResponse.class);
+        response.setHeader("Retry-After", "5");
+        response.sendError(eq(503), isA(String.class));
+        replay(response);
+        CountingChain chain = new CountingChain();
+
+        gate.doFilter(null, response, chain);
+
+        verify(response);
+        assertThat(chain.calls.get(), is(0));
+        assertThat(OpenShiftMetrics.snapshot().get("startup.rejected"), is(1L));
+    }
+
+    @Test
+    public void testHeldUntilReady() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final OpenShiftStartupGate gate = new OpenShiftStartupGate(5000,
+                started);
+        final HttpServletResponse response = createMock(HttpServletResponse.class);
+        replay(response);
+        final CountingChain chain = new CountingChain();
+        Thread request = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    gate.doFilter(null, response, chain);
+                } catch (Exception e) {
+                }
+            }
+        };
+        request.start();
+        Thread.sleep(100);
+        // held, not yet answered
+        assertThat(request.isAlive(), is(true));
+        assertThat(chain.calls.get(), is(0));
+
+        started.countDown();
+        request.join(5000);
+
+        assertThat(chain.calls.get(), is(1));
+        verify(response);
+    }
+
+    @Test
+    public void testPassesOnceReady() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        started.countDown();
+        OpenShiftStartupGate gate = new OpenShiftStartupGate(5000, started);
+        HttpServletResponse response = createMock(HttpServletResponse.class);
+        replay(response);
+        CountingChain chain = new CountingChain();
+
+        gate.doFilter(null, response, chain);
+        gate.doFilter(null, response, chain);
+
+        assertThat(chain.calls.get(), is(2));
+        verify(response);
+    }
+}
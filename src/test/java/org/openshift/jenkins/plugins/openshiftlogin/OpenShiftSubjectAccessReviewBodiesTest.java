@@ -0,0 +1,44 @@
+package org.openshift.jenkins.plugins.openshiftlogin;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayOutputStream;
+
+import org.junit.Test;
+
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.jackson2.JacksonFactory;
+
+public class OpenShiftSubjectAccessReviewBodiesTest {
+
+    private final JsonFactory json = new JacksonFactory();
+
+    @Test
+    public void testBodies() throws Exception {
+        OpenShiftSubjectAccessReviewBodies bodies = OpenShiftSubjectAccessReviewBodies
+                .build(json, "myproject", new String[] { "admin", "edit",
+                        "view" });
+        assertThat(bodies.isFor("myproject"), is(true));
+        assertThat(bodies.isFor("other"), is(false));
+        assertThat(bodies.get("edit"), sameInstance(bodies.get("edit")));
+        assertThat(bodies.get("delete"), nullValue());
+
+        OpenShiftSubjectAccessReviewRequest request = new OpenShiftSubjectAccessReviewRequest();
+        request.namespace = "myproject";
+        request.verb = "edit";
+        String expected = json.toString(request);
+
+        OpenShiftJsonContent body = bodies.get("edit");
+        assertThat(body.retrySupported(), is(true));
+        assertThat(body.getLength(), is((long) expected.getBytes("UTF-8").length));
+        // can be written more than once, e.g. on a retry
+        for (int i = 0; i < 2; i++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            body.writeTo(out);
+            assertThat(out.toString("UTF-8"), is(expected));
+        }
+    }
+}
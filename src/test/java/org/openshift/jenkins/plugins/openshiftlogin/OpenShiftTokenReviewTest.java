@@ -0,0 +1,47 @@
+package org.openshift.jenkins.plugins.openshiftlogin;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.jackson2.JacksonFactory;
+
+public class OpenShiftTokenReviewTest {
+
+    private final JsonFactory json = new JacksonFactory();
+
+    @Test
+    public void testRequest() throws Exception {
+        String body = json.toString(new OpenShiftTokenReview("abc"));
+        assertThat(body, containsString("\"kind\":\"TokenReview\""));
+        assertThat(body, containsString("\"apiVersion\":\"authentication.k8s.io/v1\""));
+        assertThat(body, containsString("\"spec\":{\"token\":\"abc\"}"));
+    }
+
+    @Test
+    public void testAuthenticated() throws Exception {
+        OpenShiftTokenReview review = json.fromString(
+                "{\"kind\":\"TokenReview\",\"status\":{\"authenticated\":true,"
+                        + "\"user\":{\"username\":\"alice\",\"uid\":\"u1\","
+                        + "\"groups\":[\"devs\",\"system:authenticated\"]}}}",
+                OpenShiftTokenReview.class);
+        assertThat(review.isAuthenticated(), is(true));
+        OpenShiftUserInfo info = review.toUserInfo();
+        assertThat(info.getName(), is("alice"));
+        assertThat(info.getGroups(),
+                is(Arrays.asList("devs", "system:authenticated")));
+    }
+
+    @Test
+    public void testNotAuthenticated() throws Exception {
+        OpenShiftTokenReview review = json.fromString(
+                "{\"kind\":\"TokenReview\",\"status\":{\"error\":\"token expired\"}}",
+                OpenShiftTokenReview.class);
+        assertThat(review.isAuthenticated(), is(false));
+    }
+}
@@ -0,0 +1,39 @@
+package org.openshift.jenkins.plugins.openshiftlogin;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+public class OpenShiftTtlCacheTest {
+
+    @Test
+    public void testExpiry() {
+        OpenShiftTtlCache<String, String> live = new OpenShiftTtlCache<String, String>(
+                10, 60000);
+        live.put("a", "1");
+        assertThat(live.get("a"), is("1"));
+
+        OpenShiftTtlCache<String, String> expired = new OpenShiftTtlCache<String, String>(
+                10, 0);
+        expired.put("a", "1");
+        assertThat(expired.get("a"), is(nullValue()));
+        assertThat(expired.size(), is(0));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvicted() {
+        OpenShiftTtlCache<String, String> cache = new OpenShiftTtlCache<String, String>(
+                2, 60000);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.get("a");
+        cache.put("c", "3");
+
+        assertThat(cache.size(), is(2));
+        assertThat(cache.get("a"), is("1"));
+        assertThat(cache.get("b"), is(nullValue()));
+        assertThat(cache.get("c"), is("3"));
+    }
+}
@@ -0,0 +1,240 @@
+package org.openshift.jenkins.plugins.openshiftlogin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A plain HTTP stand in for the parts of the OpenShift API the realm calls.
+ *
+ * Tokens of the form "token-N" identify the user "userN", whose role is
+ * admin, edit or view depending on N modulo 3; authorization codes of the form
+ * "code-N" are exchanged for "token-N". {@link #SA_TOKEN} is the service
+ * account token. Every endpoint can be slowed down and made to fail randomly.
+ */
+public class StubOpenShiftServer {
+
+    static final String SA_TOKEN = "sa-token";
+    static final String SA_USER = "system:serviceaccount:loadtest:jenkins";
+    static final String NAMESPACE = "loadtest";
+
+    static final String USER_PATH = "/oapi/v1/users/~";
+    static final String SAR_PATH = "/oapi/v1/subjectaccessreviews";
+    static final String TOKEN_PATH = "/oauth/token";
+    static final String PROVIDER_PATH = "/.well-known/oauth-authorization-server";
+    static final String TOKEN_REVIEW_PATH = "/apis/authentication.k8s.io/v1/tokenreviews";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final Pattern VERB = Pattern
+            .compile("\"verb\"\\s*:\\s*\"(\\w+)\"");
+    private static final Pattern CODE = Pattern.compile("code=code-(\\d+)");
+    private static final Pattern REVIEWED_TOKEN = Pattern
+            .compile("\"token\"\\s*:\\s*\"token-(\\d+)\"");
+    private static final String[] ROLES = new String[] { "admin", "edit",
+            "view" };
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Random random = new Random();
+    private final Map<String, AtomicLong> calls = new ConcurrentHashMap<String, AtomicLong>();
+
+    private volatile long latencyMillis;
+    private volatile double errorRate;
+
+    public StubOpenShiftServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        for (String path : new String[] { USER_PATH, SAR_PATH, TOKEN_PATH,
+                PROVIDER_PATH, TOKEN_REVIEW_PATH }) {
+            calls.put(path, new AtomicLong());
+        }
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    dispatch(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public String getURL() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public void setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    public void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    public long getCalls(String path) {
+        AtomicLong count = calls.get(path);
+        return count == null ? 0 : count.get();
+    }
+
+    public long getTotalCalls() {
+        long total = 0;
+        for (AtomicLong count : calls.values()) {
+            total += count.get();
+        }
+        return total;
+    }
+
+    public void resetCalls() {
+        for (AtomicLong count : calls.values()) {
+            count.set(0);
+        }
+    }
+
+    static String roleFor(int user) {
+        return ROLES[user % ROLES.length];
+    }
+
+    private void dispatch(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        AtomicLong count = calls.get(path);
+        if (count == null) {
+            send(exchange, 404, "{}");
+            return;
+        }
+        count.incrementAndGet();
+        String body = read(exchange.getRequestBody());
+
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        boolean fail;
+        synchronized (random) {
+            fail = errorRate > 0 && random.nextDouble() < errorRate;
+        }
+        if (fail) {
+            send(exchange, 500, "{\"kind\":\"Status\",\"status\":\"Failure\"}");
+            return;
+        }
+
+        if (PROVIDER_PATH.equals(path)) {
+            send(exchange, 200, "{\"issuer\":\"" + getURL()
+                    + "\",\"authorization_endpoint\":\"" + getURL()
+                    + "/oauth/authorize\",\"token_endpoint\":\"" + getURL()
+                    + TOKEN_PATH + "\"}");
+            return;
+        }
+        if (TOKEN_PATH.equals(path)) {
+            Matcher m = CODE.matcher(body);
+            if (!m.find()) {
+                send(exchange, 400, "{\"error\":\"invalid_grant\"}");
+                return;
+            }
+            send(exchange, 200, "{\"access_token\":\"token-" + m.group(1)
+                    + "\",\"token_type\":\"Bearer\",\"expires_in\":86400}");
+            return;
+        }
+
+        String token = bearerToken(exchange);
+        String user;
+        String role;
+        if (SA_TOKEN.equals(token)) {
+            user = SA_USER;
+            role = "admin";
+        } else if (token != null && token.startsWith("token-")) {
+            int n;
+            try {
+                n = Integer.parseInt(token.substring("token-".length()));
+            } catch (NumberFormatException e) {
+                send(exchange, 401, "{}");
+                return;
+            }
+            user = "user" + n;
+            role = roleFor(n);
+        } else {
+            send(exchange, 401, "{}");
+            return;
+        }
+
+        if (TOKEN_REVIEW_PATH.equals(path)) {
+            if (!SA_TOKEN.equals(token)) {
+                send(exchange, 403, "{}");
+                return;
+            }
+            Matcher m = REVIEWED_TOKEN.matcher(body);
+            if (!m.find()) {
+                send(exchange, 201, "{\"kind\":\"TokenReview\",\"status\":{\"authenticated\":false}}");
+                return;
+            }
+            send(exchange, 201, "{\"kind\":\"TokenReview\",\"status\":{\"authenticated\":true,"
+                    + "\"user\":{\"username\":\"user" + m.group(1)
+                    + "\",\"uid\":\"uid-user" + m.group(1)
+                    + "\",\"groups\":[\"system:authenticated\"]}}}");
+        } else if (USER_PATH.equals(path)) {
+            send(exchange, 200, "{\"kind\":\"User\",\"metadata\":{\"name\":\""
+                    + user + "\",\"uid\":\"uid-" + user + "\"}}");
+        } else {
+            Matcher m = VERB.matcher(body);
+            String verb = m.find() ? m.group(1) : "";
+            boolean allowed = verb.equals(role) || "admin".equals(role)
+                    || ("edit".equals(role) && "view".equals(verb));
+            send(exchange, 200, "{\"namespace\":\"" + NAMESPACE
+                    + "\",\"allowed\":" + allowed + ",\"reason\":\"\"}");
+        }
+    }
+
+    private static String bearerToken(HttpExchange exchange) {
+        String header = exchange.getRequestHeaders().getFirst("Authorization");
+        if (header == null || !header.startsWith("Bearer "))
+            return null;
+        return header.substring("Bearer ".length()).trim();
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int n;
+        while ((n = in.read(buf)) > 0) {
+            out.write(buf, 0, n);
+        }
+        return new String(out.toByteArray(), UTF8);
+    }
+
+    private static void send(HttpExchange exchange, int status, String json)
+            throws IOException {
+        byte[] bytes = json.getBytes(UTF8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.flush();
+    }
+}